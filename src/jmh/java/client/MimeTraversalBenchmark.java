@@ -0,0 +1,85 @@
+package client;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code JavaMail.readMessageUtil} over messages with nested multiparts. Every invocation parses the message from
+ * its raw bytes, like a freshly fetched message.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MimeTraversalBenchmark {
+    /**
+     * Levels of nested multiparts
+     */
+    @Param({"1", "3", "5"})
+    public int depth;
+
+    private static final int PARTS_PER_LEVEL = 3;
+
+    private final Session session = Session.getInstance(new Properties());
+    private final JavaMail javaMail = JavaMail.newInstance();
+    private byte[] raw;
+
+    @Setup
+    public void setup() throws MessagingException, IOException {
+        MimeMessage message = new MimeMessage(session);
+        message.setFrom("sender@example.org");
+        message.setRecipients(javax.mail.Message.RecipientType.TO, "recipient@example.org");
+        message.setSubject("Nested benchmark message");
+        message.setContent(multipart(depth));
+        message.saveChanges();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        message.writeTo(out);
+        raw = out.toByteArray();
+    }
+
+    private static MimeMultipart multipart(int level) throws MessagingException {
+        MimeMultipart multipart = new MimeMultipart("mixed");
+        for (int i = 0; i < PARTS_PER_LEVEL; i++) {
+            MimeBodyPart part = new MimeBodyPart();
+            part.setText("Part " + i + " on level " + level + ": " + "lorem ipsum dolor sit amet ".repeat(40), "UTF-8", "plain");
+            part.setHeader("Content-Transfer-Encoding", i % 2 == 0 ? "quoted-printable" : "base64");
+            multipart.addBodyPart(part);
+        }
+
+        if(level > 1) {
+            MimeBodyPart nested = new MimeBodyPart();
+            nested.setContent(multipart(level - 1));
+            multipart.addBodyPart(nested);
+        }
+
+        return multipart;
+    }
+
+    @Benchmark
+    public String readMessage() throws MessagingException, IOException {
+        return javaMail.readMessage(new MimeMessage(session, new ByteArrayInputStream(raw)));
+    }
+}
@@ -0,0 +1,59 @@
+package client;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading of multi-line responses of different sizes, streamed and as a list of lines.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MultiLineResponseBenchmark {
+    @Param({"1024", "65536", "1048576"})
+    public int messageSize;
+
+    private byte[] response;
+
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder(messageSize + 128);
+        int line = 0;
+        while (sb.length() < messageSize) {
+            //every 20th line is byte-stuffed
+            if(line++ % 20 == 0) sb.append("..");
+            sb.append("The quick brown fox jumps over the lazy dog ").append(line).append("\r\n");
+        }
+        sb.append(".\r\n");
+        response = sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Benchmark
+    public long transferMultiLine() throws IOException {
+        return new ResponseReader(new ByteArrayInputStream(response)).transferMultiLine(NullOutputStream.NULL_OUTPUT_STREAM);
+    }
+
+    @Benchmark
+    public List<String> readMultiLine() throws IOException {
+        return new ResponseReader(new ByteArrayInputStream(response)).readMultiLine();
+    }
+}
@@ -0,0 +1,70 @@
+package client;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of single-line server responses, as done for every status line.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResponseParsingBenchmark {
+    private static final int LINES = 1000;
+
+    private final byte[] okLine = "+OK 2 320".getBytes(StandardCharsets.US_ASCII);
+    private final byte[] errLine = "-ERR no such message".getBytes(StandardCharsets.US_ASCII);
+    private byte[] statusLines;
+    private final ResponseLine line = new ResponseLine();
+
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < LINES; i++) sb.append("+OK ").append(i).append(" ").append(i * 1000L).append("\r\n");
+        statusLines = sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Benchmark
+    public boolean isOk() {
+        line.set(okLine, 0, okLine.length);
+        return line.isOk();
+    }
+
+    @Benchmark
+    public boolean isOkErr() {
+        line.set(errLine, 0, errLine.length);
+        return line.isOk();
+    }
+
+    /**
+     * Reads {@value #LINES} {@code STAT} status lines like {@code readSingleLineContent} does and parses their
+     * numbers like {@code getStat}.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void readSingleLineContent(Blackhole blackhole) throws IOException {
+        ResponseReader reader = new ResponseReader(new ByteArrayInputStream(statusLines));
+        while (reader.readLine(line)) {
+            blackhole.consume(line.isOk());
+            blackhole.consume(line.numberAt(1));
+            blackhole.consume(line.numberAt(2));
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Input validation and string helpers used on every prompt and status line.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UtilityBenchmark {
+    private final String number = "110";
+    private final String choice = "3";
+    private final String[] tokens = "+OK 12 48392 octets follow".split("\\s+");
+
+    @Benchmark
+    public boolean isPositiveInteger() {
+        return Utility.isPositiveInteger(number);
+    }
+
+    @Benchmark
+    public boolean checkIntegerInBounds() {
+        return Utility.checkIntegerInBounds(1, 5, choice);
+    }
+
+    @Benchmark
+    public String concatinateStringFromArray() {
+        return Utility.concatinateStringFromArray(1, tokens.length, tokens);
+    }
+}
@@ -0,0 +1,216 @@
+package animation;
+
+import client.RequestTyp;
+import metrics.Metrics;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Draws one progress line for all running operations: the elapsed time and label of the oldest operation, a moving
+ * node and the live transfer rates taken from {@link Metrics}.
+ * <p>
+ * Operations register a {@link Task}; frames are drawn on one scheduler thread shared by all renderers, and only
+ * while at least one task is running. A renderer whose output is not a terminal draws nothing and never starts the
+ * thread, so batch runs with redirected output pay nothing for it.
+ */
+public final class ProgressRenderer {
+    public static final long FRAME_MILLIS = 100;
+    /**
+     * Interval the rates are averaged over
+     */
+    public static final long RATE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final int FIELD_SIZE = 20;
+
+    private static final ScheduledExecutorService FRAMES = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "progress-renderer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static ProgressRenderer shared;
+
+    private final PrintStream out;
+    private final boolean enabled;
+    private final Metrics metrics;
+
+    /**
+     * Running tasks, oldest first. Everything below is guarded by {@code this}.
+     */
+    private final List<Task> tasks = new ArrayList<>();
+    private ScheduledFuture<?> frames;
+
+    /**
+     * Reused between frames, the node is moved by swapping two characters
+     */
+    private final StringBuilder line = new StringBuilder(128);
+    private final char[] field = new char[FIELD_SIZE];
+    private int position;
+    private int direction = 1;
+    /**
+     * Length of the last drawn line, overwritten with blanks when the line gets shorter
+     */
+    private int drawn;
+
+    private long sampleNanos;
+    private long sampleBytes;
+    private long sampleMessages;
+    private String rates = "";
+
+    public ProgressRenderer(PrintStream out, boolean enabled, Metrics metrics) {
+        this.out = out;
+        this.enabled = enabled;
+        this.metrics = metrics;
+
+        Arrays.fill(field, ' ');
+        field[0] = '=';
+    }
+
+    /**
+     * @return The renderer of this process, drawing on standard output if it is a terminal.
+     */
+    public static synchronized ProgressRenderer shared() {
+        if(shared == null) shared = new ProgressRenderer(System.out, System.console() != null, Metrics.global());
+
+        return shared;
+    }
+
+    /**
+     * Creates a task that shows up once it is started.
+     * @param label Text shown while the task is the oldest running one.
+     * @return The task.
+     */
+    public Task task(String label) {
+        return new Task(label);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return Number of running tasks.
+     */
+    public synchronized int getRunning() {
+        return tasks.size();
+    }
+
+    private synchronized void start(Task task) {
+        tasks.add(task);
+        if(!enabled || frames != null) return;
+
+        sampleNanos = System.nanoTime();
+        sampleBytes = metrics.bytesRead();
+        sampleMessages = metrics.command(RequestTyp.RETR).getCount();
+        rates = "";
+        frames = FRAMES.scheduleAtFixedRate(this::drawFrame, 0, FRAME_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void stop(Task task) {
+        if(!tasks.remove(task) || !tasks.isEmpty() || frames == null) return;
+
+        frames.cancel(false);
+        frames = null;
+
+        //blank the line, so the next output starts on a clean one
+        line.setLength(0);
+        line.append('\r');
+        for (int i = 0; i < drawn; i++) line.append(' ');
+        line.append('\r');
+        out.append(line).flush();
+        drawn = 0;
+    }
+
+    /**
+     * Draws the next frame, called by the scheduler thread.
+     */
+    synchronized void drawFrame() {
+        if(!enabled || tasks.isEmpty()) return;
+
+        long now = System.nanoTime();
+        if(now - sampleNanos >= RATE_INTERVAL_NANOS) updateRates(now);
+
+        Task oldest = tasks.get(0);
+        line.setLength(0);
+        line.append('\r').append(TimeUnit.NANOSECONDS.toSeconds(now - oldest.startNanos)).append("s ")
+                .append(oldest.label).append('<').append(field).append('>');
+        if(tasks.size() > 1) line.append(" (+").append(tasks.size() - 1).append(')');
+        line.append(rates);
+
+        int length = line.length() - 1;
+        for (int i = length; i < drawn; i++) line.append(' ');
+        drawn = length;
+
+        out.append(line).flush();
+        moveNode();
+    }
+
+    private void updateRates(long now) {
+        long bytes = metrics.bytesRead();
+        long messages = metrics.command(RequestTyp.RETR).getCount();
+        double seconds = (now - sampleNanos) / 1e9;
+
+        rates = String.format(Locale.ROOT, " %.2fMB/s %.1f msg/s",
+                (bytes - sampleBytes) / seconds / 1e6, (messages - sampleMessages) / seconds);
+
+        sampleNanos = now;
+        sampleBytes = bytes;
+        sampleMessages = messages;
+    }
+
+    private void moveNode() {
+        if(position + direction < 0 || position + direction >= FIELD_SIZE) direction = -direction;
+
+        field[position] = ' ';
+        position += direction;
+        field[position] = '=';
+    }
+
+    /**
+     * Operation shown by the renderer between {@link #start()} and {@link #stop()}. Both may be called more than
+     * once, only the first call counts.
+     */
+    public final class Task implements AutoCloseable {
+        private final String label;
+        private long startNanos;
+        private boolean started;
+        private boolean stopped;
+
+        private Task(String label) {
+            this.label = label;
+        }
+
+        /**
+         * @return This task.
+         */
+        public synchronized Task start() {
+            if(started) return this;
+
+            started = true;
+            startNanos = System.nanoTime();
+            ProgressRenderer.this.start(this);
+
+            return this;
+        }
+
+        public synchronized void stop() {
+            if(!started || stopped) return;
+
+            stopped = true;
+            ProgressRenderer.this.stop(this);
+        }
+
+        @Override
+        public void close() {
+            stop();
+        }
+    }
+}
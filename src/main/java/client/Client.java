@@ -1,33 +1,73 @@
 package client;
 
-import animation.MovingNodeAnimation;
+import animation.ProgressRenderer;
 import com.sun.mail.pop3.POP3Message;
+import export.ExportFormat;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import metrics.MeteredInputStream;
+import metrics.MeteredOutputStream;
+import metrics.Metrics;
+import metrics.Phase;
+import mime.DecodedText;
+import mime.DecodingPipeline;
+import mime.DecodingSink;
+import search.SearchHit;
+import search.SearchIndex;
+import store.BufferPool;
+import store.MessageBuffer;
+import store.MessageStore;
+import sync.DownloadJournal;
+import sync.IncrementalSync;
+import sync.MessageSink;
+import sync.RetentionPolicy;
+import sync.RetentionResult;
+import sync.SyncResult;
+import sync.SyncState;
 import util.Utility;
 
 import javax.mail.AuthenticationFailedException;
 import javax.mail.Message;
 import javax.mail.MessagingException;
 import javax.mail.internet.MimeMessage;
-import javax.net.ssl.SSLSocket;
-import javax.net.ssl.SSLSocketFactory;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Console;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
-
-import java.util.AbstractMap;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.time.Instant;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.ArrayList;
 import java.util.Scanner;
 import java.util.Objects;
+import java.util.Set;
+
+public final class Client implements MessageSource {
+    /**
+     * Time a read on the socket may block before the connection is treated as dead
+     */
+    public static final int READ_TIMEOUT_MILLIS = 60_000;
+    /**
+     * Maximum number of hits a search prints
+     */
+    public static final int SEARCH_LIMIT = 50;
 
-public final class Client {
     /**
      * Scanner to read input from user.
      */
@@ -35,7 +75,7 @@ public final class Client {
     /**
      * Reader imports bytes from socket
      */
-    private BufferedReader bReader;
+    private ResponseReader bReader;
     /**
      * Writer writes bytes to socket
      */
@@ -56,8 +96,78 @@ public final class Client {
 
     private int socketType;
 
+    /**
+     * Host of the mail-server
+     */
+    private String host;
+    /**
+     * Port of the mail-server
+     */
+    private int port;
+
+    /**
+     * {@code true} if the server advertised {@code PIPELINING} in its capabilities
+     */
+    private boolean pipelining;
+
+    /**
+     * {@code true} if the server advertised {@code STLS} in its capabilities
+     */
+    private boolean stlsOffered;
+
+    /**
+     * {@code true} if a plain connection has to be upgraded with {@code STLS} before signing in
+     */
+    private boolean startTls;
+
     private final JavaMail javaMailInstance;
 
+    /**
+     * Reusable buffer of the last status or body line read from the socket
+     */
+    private final ResponseLine responseLine = new ResponseLine();
+
+    /**
+     * Local copy of the fetched messages, opened after login
+     */
+    private MessageStore messageStore;
+
+    /**
+     * Full-text index over the local message store, opened on first use
+     */
+    private SearchIndex searchIndex;
+    /**
+     * Stored messages the index pipeline couldn't decode, not tried again in this session
+     */
+    private final Set<String> unindexable = new HashSet<>();
+
+    /**
+     * Buffers of the raw messages handed to the decoding workers
+     */
+    private BufferPool buffers = BufferPool.shared();
+
+    /**
+     * Envelopes of the messages that have already been listed
+     */
+    private final EnvelopeCache envelopeCache = new EnvelopeCache();
+
+    /**
+     * Keeps the interactive session alive and reconnects it, created after login
+     */
+    private SessionManager sessionManager;
+
+    /**
+     * Latency and byte counters, shared by all clients of the process
+     */
+    private final Metrics metrics = Metrics.global();
+
+    /**
+     * Command whose response is being read, {@code null} if none, and when it was sent
+     */
+    private RequestTyp pendingRequest;
+    private boolean pendingMultiLine;
+    private long pendingStart;
+
     /**
      * Standard Constructor.
      */
@@ -66,6 +176,85 @@ public final class Client {
         this.javaMailInstance = JavaMail.getInstance();
       }
 
+    /**
+     * Constructor for sessions without user interaction, e.g. one of many accounts fetched in parallel.
+     * @param socketType Type of connection, as chosen in the socket selector (1-4).
+     * @param javaMailInstance JavaMail instance of this session, only used by the JavaMail types.
+     */
+    public Client(int socketType, JavaMail javaMailInstance) {
+        if(socketType < 1 || socketType > 4) throw new IllegalArgumentException("Unknown socket type: " + socketType);
+
+        this.scanner = null;
+        this.socketType = socketType;
+        this.javaMailInstance = javaMailInstance;
+    }
+
+    /**
+     * Connects to the server without user interaction. On the JavaMail types the connection is only opened by
+     * {@link #authenticate(String, String)}.
+     * @param domainHost Host/IP of the server.
+     * @param port Port
+     * @throws IOException If no connection or greeting from the server.
+     */
+    public void connect(String domainHost, int port) throws IOException {
+        this.host = domainHost;
+        this.port = port;
+
+        switch (socketType){
+            case 1, 2 -> {
+                init(domainHost, port);
+                Boolean greeting = readSingleLineContent();
+                if(greeting == null || !greeting) throw new IOException("Server refused the connection");
+
+                negotiateCapabilities();
+                if(startTls && socketType == 1) upgradeToTls();
+            }
+            case 3 -> javaMailInstance.initConnectProperties(domainHost, String.valueOf(port), false);
+            case 4 -> javaMailInstance.initConnectProperties(domainHost, String.valueOf(port), true);
+        }
+    }
+
+    /**
+     * Signs in without user interaction.
+     * @param username Username
+     * @param password Password
+     * @return True if login was a success, otherwise false.
+     * @throws IOException If connection disconnected.
+     */
+    public boolean authenticate(String username, String password) throws IOException {
+        this.username = username;
+        this.password = password;
+        long start = System.nanoTime();
+
+        switch (socketType){
+            case 1, 2 -> {
+                sendRequest(username, RequestTyp.USER);
+                Boolean response = readSingleLineContent();
+                if(response == null) throw new IOException("Lost connection");
+                if(!response) return false;
+
+                sendRequest(password, RequestTyp.PASS);
+                response = readSingleLineContent();
+                if(response == null) throw new IOException("Lost connection");
+                if(response) metrics.record(Phase.LOGIN, start);
+                return response;
+            }
+
+            case 3, 4 -> {
+                try {
+                    javaMailInstance.connect(username, password);
+                    metrics.record(Phase.LOGIN, start);
+                } catch (AuthenticationFailedException e) {
+                    return false;
+                } catch (MessagingException e) {
+                    throw new IOException(e);
+                }
+            }
+        }
+
+        return true;
+    }
+
 
     /**
      * Initiates the first variables in the Client and stars a connection with the POP3 Server.
@@ -77,55 +266,67 @@ public final class Client {
      */
     private void init(String domainHost, int port) throws UnknownHostException, IOException, IllegalArgumentException {
         switch (socketType){
-            case 1 -> this.clientSocket = new Socket(InetAddress.getByName(domainHost), port);
-            case 2 -> {
-                SSLSocketFactory factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
-                this.clientSocket = factory.createSocket(InetAddress.getByName(domainHost), port);
-                ((SSLSocket)this.clientSocket).startHandshake();
+            case 1 -> {
+                InetAddress address = InetAddress.getByName(domainHost);
+                long start = System.nanoTime();
+                this.clientSocket = new Socket(address, port);
+                metrics.record(Phase.CONNECT, start);
             }
+            case 2 -> this.clientSocket = TlsConnector.shared().connect(domainHost, port);
         }
 
-        this.bReader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-        this.bWriter = new BufferedWriter(new OutputStreamWriter(clientSocket.getOutputStream()));
+        openStreams();
     }
 
     /**
-     * Reads a single line from the buffer.
-     * @return The read line that has been read.
-     * @throws IOException If connection disconnected, or data retrieval was not possible.
+     * Sets up reader and writer on the current socket, after connecting and after {@code STLS}.
+     * @throws IOException If the socket is closed.
      */
-    private String singleLineResponse() throws IOException {
-        return bReader.readLine();
+    private void openStreams() throws IOException {
+        clientSocket.setSoTimeout(READ_TIMEOUT_MILLIS);
+        this.bReader = new ResponseReader(new MeteredInputStream(clientSocket.getInputStream(), metrics));
+        this.bWriter = new BufferedWriter(new OutputStreamWriter(new MeteredOutputStream(clientSocket.getOutputStream(), metrics)));
     }
 
     /**
-     * Checks the first Token of a specific server-response
-     * @param response The response from the server as a string.
-     * @return true if response starts with {@code +OK}, False if response starts with {@code -ERR}
-     * @throws RuntimeException if either responses was detected.
+     * Reads a status line into the reusable {@link #responseLine} and checks its status token. The rest of the line
+     * can be parsed from {@link #responseLine} afterwards.
+     * @return True if +ok was received, otherwise {@code false}. {@code null} if the connection was lost.
      */
-    private boolean isOkToken(String response){
-        String token = response.split("\\s+")[0];
-        if(token.equalsIgnoreCase("+OK")) return true;
-        if(token.equalsIgnoreCase("-ERR")) return false;
+    private Boolean readSingleLineContent() {
+        try {
+            if(bReader.readLine(responseLine)) {
+                boolean ok = responseLine.isOk();
+                if(!ok || !pendingMultiLine) completeRequest();
+                return ok;
+            }
+        } catch (IOException ignored) {}
 
-        throw new IllegalResponseException("Server delivered unexpected response! Closing connection...");
+        dropConnection();
+        return null;
     }
 
     /**
-     * Checks the status of the response of the server plus its actual sent message. This method separates the initials
-     * from the actual message.
-     * @return True if +ok was received, otherwise {@code false}.
+     * Reads the next line of a multi-line response into {@link #responseLine}.
+     * @return {@code false} once the terminating {@code .} was read.
+     * @throws IOException If connection disconnected.
      */
-    private AbstractMap.SimpleEntry<Boolean, String> readSingleLineContent() {
-        try {
-            String response = singleLineResponse();
-            String[] tokens = response.split("\\s+");
-            return new AbstractMap.SimpleEntry<>(isOkToken(response), Utility.concatinateStringFromArray(1, tokens.length, tokens));
-        } catch (IOException e) {
-            shutdownClient();
-        }
-        return null;
+    private boolean nextBodyLine() throws IOException {
+        if(!bReader.readLine(responseLine)) throw new EOFException("Server closed the connection");
+        if(!responseLine.isTerminator()) return true;
+
+        completeRequest();
+        return false;
+    }
+
+    /**
+     * Records the latency of the command whose response was just read completely.
+     */
+    private void completeRequest() {
+        if(pendingRequest == null) return;
+
+        metrics.record(pendingRequest, pendingStart);
+        pendingRequest = null;
     }
 
     /**
@@ -145,29 +346,29 @@ public final class Client {
 
             this.username = username; this.password = password;
 
-            MovingNodeAnimation animationThread = new MovingNodeAnimation("Logging in... ", 100, 20);
-            animationThread.start();
+            ProgressRenderer.Task progress = ProgressRenderer.shared().task("Logging in... ");
+            progress.start();
 
             switch (socketType){
                 case 1, 2 -> {
-                    if(!login(username, password, animationThread)) {
-                        MovingNodeAnimation.touchBarrierAndStopThread(animationThread);
+                    if(!login(username, password, progress)) {
+                        progress.stop();
                         System.out.println("\rCredentials don't match!\n Try Again");
                         continue;
                     }
 
-                    MovingNodeAnimation.touchBarrierAndStopThread(animationThread);
+                    progress.stop();
                 }
 
                 case 3, 4 -> {
                     try {
                         javaMailInstance.connect(this.username, this.password);
                     } catch (AuthenticationFailedException e) {
-                        MovingNodeAnimation.touchBarrierAndStopThread(animationThread);
+                        progress.stop();
                         System.out.println("\rCredentials don't match! Try Again\n");
                         continue;
                     } catch (MessagingException e){
-                        MovingNodeAnimation.touchBarrierAndStopThread(animationThread);
+                        progress.stop();
                         System.out.println("\rDomain or port are not correct! Try Again!\n");
 
                         return 1;
@@ -176,7 +377,7 @@ public final class Client {
             }
 
 
-            MovingNodeAnimation.touchBarrierAndStopThread(animationThread);
+            progress.stop();
             return 0;
         }
     }
@@ -188,6 +389,12 @@ public final class Client {
      * @throws IOException if IO error happened
      */
     private void sendRequest(String message, RequestTyp requestTyp) throws IOException {
+        if(bWriter == null) throw new IOException("Not connected");
+
+        pendingRequest = requestTyp;
+        pendingMultiLine = requestTyp.isMultiLine(message);
+        pendingStart = System.nanoTime();
+
         String line = requestTyp.toString() + " " + message;
         bWriter.write(line.trim());
         bWriter.newLine();
@@ -198,23 +405,17 @@ public final class Client {
      * Initializes the login process.
      * @param username Username
      * @param password Password
-     * @param animationThread animation-thread to control.
+     * @param progress Progress shown while signing in, stopped on errors.
      * @return True if login was a success, otherwise false.
      */
-    private boolean login(String username, String password, MovingNodeAnimation animationThread){
+    private boolean login(String username, String password, ProgressRenderer.Task progress){
         try {
-            sendRequest(username, RequestTyp.USER);
-            if(!Objects.requireNonNull(readSingleLineContent()).getKey()) return false;
-            sendRequest(password, RequestTyp.PASS);
-            if(!Objects.requireNonNull(readSingleLineContent()).getKey()) return false;
-
+            return authenticate(username, password);
         } catch (IOException e) {
-            MovingNodeAnimation.touchBarrierAndStopThread(animationThread);
+            progress.stop();
             System.out.println("Error while sending the username!\nTry Again");
             return false;
         }
-
-        return true;
     }
 
     /**
@@ -230,29 +431,218 @@ public final class Client {
         return String.valueOf(console.readPassword());
     }
 
-    private List<String> readMultiLineResponse(){
-        AbstractMap.SimpleEntry<Boolean, String> firstResponse = readSingleLineContent();
+    /**
+     * Streams a message in its raw RFC 822 form to the given stream without holding it in memory.
+     * @param messageNumber Number of the message, as used by the server.
+     * @param out Stream to write the message to. It is neither flushed nor closed.
+     * @return Number of bytes written, {@code -1} if the message doesn't exist.
+     * @throws IOException If connection disconnected, or writing was not possible.
+     */
+    @Override
+    public long streamMessage(int messageNumber, OutputStream out) throws IOException {
+        switch (socketType){
+            case 1, 2 -> {
+                sendRequest(String.valueOf(messageNumber), RequestTyp.RETR);
+                Boolean response = readSingleLineContent();
+                if(response == null) throw new IOException("Lost connection");
+                if(!response) return -1;
+
+                long transferred = bReader.transferMultiLine(out);
+                completeRequest();
+                return transferred;
+            }
+
+            case 3, 4 -> {
+                try {
+                    Message message = javaMailInstance.getMessage(messageNumber);
+                    if(message == null) return -1;
+
+                    long start = System.nanoTime();
+                    CountingOutputStream counter = new CountingOutputStream(CloseShieldOutputStream.wrap(out));
+                    message.writeTo(counter);
+                    metrics.record(RequestTyp.RETR, start);
+                    metrics.addBytesRead(counter.getByteCount());
+                    return counter.getByteCount();
+                } catch (MessagingException e) {
+                    throw new IOException(e);
+                }
+            }
+        }
+
+        return -1;
+    }
+
+    @Override
+    public Map<Integer, String> listUids() throws IOException {
+        Map<Integer, String> uids = new LinkedHashMap<>();
 
-        assert firstResponse != null;
-        if(!firstResponse.getKey()) return null;
+        switch (socketType){
+            case 1, 2 -> {
+                sendRequest("", RequestTyp.UIDL);
+                Boolean response = readSingleLineContent();
+                if(response == null) throw new IOException("Lost connection");
+                if(!response) throw new IOException("Server doesn't support UIDL");
 
-        char terminatingChar = 0x2E;
+                while (nextBodyLine())
+                    uids.put((int) responseLine.numberAt(0), responseLine.fieldAt(1));
+            }
 
-        try{
-            List<String> items = new ArrayList<>();
-            String line;
-            while (!(line = singleLineResponse()).equalsIgnoreCase(String.valueOf(terminatingChar))){
-                items.add(line.trim());
+            case 3, 4 -> {
+                try {
+                    uids.putAll(javaMailInstance.getUids());
+                } catch (MessagingException e) {
+                    throw new IOException(e);
+                }
             }
+        }
 
-            return items;
-        } catch (IOException e){
-            System.out.println("\rError fetching data!");
+        return uids;
+    }
+
+    @Override
+    public Map<Integer, Long> listSizes() throws IOException {
+        int[] sizes = getListOfEmails();
+        if(sizes == null) throw new IOException("Server doesn't support LIST");
+
+        Map<Integer, Long> list = new LinkedHashMap<>();
+        for (int i = 1; i < sizes.length; i++)
+            if(sizes[i] >= 0) list.put(i, (long) sizes[i]);
+
+        return list;
+    }
+
+    /**
+     * Fetches the messages that haven't been fetched in an earlier sync of this account into the local
+     * message store.
+     * @return Outcome of the sync.
+     * @throws IOException If connection disconnected, or storing a message was not possible.
+     */
+    private SyncResult syncNewMessages() throws IOException {
+        String account = IncrementalSync.accountKey(username, host, port);
+        Path directory = IncrementalSync.DEFAULT_DIRECTORY.resolve("sync");
+        SyncState state = SyncState.load(directory, account);
+
+        //new messages are indexed on the decoding workers while the next ones are fetched
+        SyncResult result;
+        try (DownloadJournal journal = DownloadJournal.open(directory, account);
+             DecodingPipeline<DecodedText> pipeline = indexPipeline(searchIndex())) {
+            result = new IncrementalSync(this, state, new DecodingSink(messageStore(), pipeline, buffers), journal).run();
+            pipeline.finish();
         }
-        return null;
+        messageStore().force();
+        updateSearchIndex();
+
+        return result;
     }
 
+    /**
+     * Deletes the messages chosen by a retention policy from the server in one batch. Only messages the local sink
+     * contains are deleted, and only after the sink was forced to disk. A {@link MessageStore} has to belong to the
+     * signed-in account, see {@link MessageStore#open(Path, String)}.
+     * <p>
+     * On the socket path all {@code DELE} commands go through one pipeline and take effect with {@code QUIT}. If the
+     * server refuses one of them or the sink can't be forced, {@code RSET} unmarks them all and nothing is deleted.
+     * The connection is closed afterwards and has to be opened again with {@link #reconnect()}.
+     * @param policy Policy choosing the messages.
+     * @param local Sink holding the local copies.
+     * @return Number of messages on the server and how many were deleted.
+     * @throws IOException If connection disconnected, the server refused a deletion, the sink couldn't be forced or
+     * the store belongs to another account. Failures before {@code QUIT} leave every message on the server; if the
+     * connection is lost while waiting for the reply to {@code QUIT}, the server may have deleted them already.
+     */
+    public RetentionResult applyRetention(RetentionPolicy policy, MessageSink local) throws IOException {
+        String account = IncrementalSync.accountKey(username, host, port);
+        if(local instanceof MessageStore && !account.equals(((MessageStore) local).getAccount()))
+            throw new IOException("The message store doesn't belong to " + account + ", nothing is deleted");
+
+        Map<Integer, String> uids = listUids();
+        int[] sizes = getListOfEmails();
+        if(sizes == null) throw new IOException("Server doesn't support LIST");
+        Map<Integer, Envelope> envelopes = policy.needsDates() ? listHeaders() : Map.of();
+
+        List<RetentionPolicy.Entry> maildrop = new ArrayList<>(uids.size());
+        for (Map.Entry<Integer, String> entry : uids.entrySet()) {
+            int messageNumber = entry.getKey();
+            Envelope envelope = envelopes.get(messageNumber);
+            maildrop.add(new RetentionPolicy.Entry(messageNumber, entry.getValue(),
+                    messageNumber < sizes.length ? Math.max(sizes[messageNumber], 0) : 0,
+                    envelope == null ? null : envelope.getSentDate(), local.contains(entry.getValue())));
+        }
+
+        List<RetentionPolicy.Entry> victims = policy.select(maildrop, Instant.now());
+        if(victims.isEmpty()) return new RetentionResult(maildrop.size(), 0, 0);
+
+        long bytesFreed = 0;
+        for (RetentionPolicy.Entry victim : victims) bytesFreed += victim.getSize();
+
+        switch (socketType){
+            case 1, 2 -> {
+                Pop3Pipeline pipeline = createPipeline();
+                for (RetentionPolicy.Entry victim : victims)
+                    pipeline.enqueue(RequestTyp.DELE, String.valueOf(victim.getMessageNumber()));
+
+                try {
+                    for (Pop3Response response : pipeline.flush())
+                        if(!response.isOk()) throw new IOException("Server refused the deletion: " + response.getStatus());
+
+                    local.force();
+                } catch (IOException e) {
+                    rollbackDeletion(e);
+                    throw e;
+                }
 
+                sendRequest("", RequestTyp.QUIT);
+                Boolean response = readSingleLineContent();
+                dropConnection();
+                if(!Boolean.TRUE.equals(response)) throw new IOException("Server didn't confirm the deletion");
+            }
+
+            case 3, 4 -> {
+                Map<Integer, String> numbers = new LinkedHashMap<>();
+                for (RetentionPolicy.Entry victim : victims) numbers.put(victim.getMessageNumber(), victim.getUid());
+
+                try {
+                    javaMailInstance.markDeleted(numbers);
+                    try {
+                        local.force();
+                    } catch (IOException e) {
+                        javaMailInstance.finishDeletion(false);
+                        throw e;
+                    }
+                    javaMailInstance.finishDeletion(true);
+                } catch (MessagingException e) {
+                    throw new IOException(e);
+                }
+            }
+        }
+
+        return new RetentionResult(maildrop.size(), victims.size(), bytesFreed);
+    }
+
+    /**
+     * Unmarks all messages marked for deletion with {@code RSET}. Errors are attached to the one that caused the
+     * rollback.
+     * @param cause Error that caused the rollback.
+     */
+    private void rollbackDeletion(IOException cause) {
+        try {
+            sendRequest("", RequestTyp.RSET);
+            if(!Boolean.TRUE.equals(readSingleLineContent())) cause.addSuppressed(new IOException("Server refused RSET"));
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Streams a message in its raw RFC 822 form to the given channel.
+     * @param messageNumber Number of the message, as used by the server.
+     * @param channel Channel to write the message to. It is not closed.
+     * @return Number of bytes written, {@code -1} if the message doesn't exist.
+     * @throws IOException If connection disconnected, or writing was not possible.
+     */
+    public long streamMessage(int messageNumber, WritableByteChannel channel) throws IOException {
+        return streamMessage(messageNumber, Channels.newOutputStream(channel));
+    }
 
     /**
      * Prompt that handles user/server IO
@@ -276,30 +666,40 @@ public final class Client {
                 continue;
             }
 
-            MovingNodeAnimation runningThread = new MovingNodeAnimation("Attempting to connect... ", 100, 20);
+            ProgressRenderer.Task progress = ProgressRenderer.shared().task("Attempting to connect... ");
+            this.host = domain;
+            this.port = Integer.parseInt(port);
 
             switch (socketType){
                 case 1, 2 -> {
-                    runningThread.start();
+                    progress.start();
                     try {
                         init(domain, Integer.parseInt(port));
 
                     } catch (UnknownHostException e){
-                        MovingNodeAnimation.touchBarrierAndStopThread(runningThread);
+                        progress.stop();
                         System.out.println("\rHost/IP isn't responding!\nTry Again\n\n");
                         continue;
                     } catch (IllegalArgumentException e){
-                        MovingNodeAnimation.touchBarrierAndStopThread(runningThread);
+                        progress.stop();
                         System.out.println("\nPort number is over 65535!\nTry Again");
                         continue;
                     } catch (IOException e){
-                        MovingNodeAnimation.touchBarrierAndStopThread(runningThread);
+                        progress.stop();
                         System.out.println("\nLost connection!\nTry Again");
                         continue;
                     }
 
-                    MovingNodeAnimation.touchBarrierAndStopThread(runningThread);
                     readSingleLineContent();
+                    negotiateCapabilities();
+                    try {
+                        if(startTls && socketType == 1) upgradeToTls();
+                    } catch (IOException e) {
+                        progress.stop();
+                        System.out.println("\r" + e.getMessage() + "!\nTry Again\n\n");
+                        continue;
+                    }
+                    progress.stop();
                 }
 
                 case 3 -> javaMailInstance.initConnectProperties(domain, port, false);
@@ -310,25 +710,218 @@ public final class Client {
         }
     }
 
+    /**
+     * Asks the server for its capabilities and enables pipelining if it is supported.
+     * Servers that don't know {@code CAPA} are treated as lock-step servers.
+     */
+    private void negotiateCapabilities(){
+        pipelining = false;
+        stlsOffered = false;
+        try {
+            sendRequest("", RequestTyp.CAPA);
+        } catch (IOException e) {
+            return;
+        }
+
+        Boolean response = readSingleLineContent();
+        if(response == null || !response) return;
+
+        try {
+            while (nextBodyLine()){
+                if(responseLine.fieldEquals(0, "PIPELINING")) pipelining = true;
+                else if(responseLine.fieldEquals(0, "STLS")) stlsOffered = true;
+            }
+        } catch (IOException e) {
+            //the next request reports the lost connection
+            dropConnection();
+        }
+    }
+
+    /**
+     * Switches the plain connection to TLS with {@code STLS} (RFC 2595). The capabilities are asked for again
+     * afterwards, as the server may announce different ones over TLS.
+     * @throws IOException If the server doesn't offer {@code STLS}, refuses it or the handshake failed.
+     */
+    private void upgradeToTls() throws IOException {
+        if(!stlsOffered) throw new IOException("Server doesn't support STLS");
+
+        sendRequest("", RequestTyp.STLS);
+        Boolean response = readSingleLineContent();
+        if(response == null) throw new IOException("Lost connection");
+        if(!response) throw new IOException("Server refused STLS");
+
+        try {
+            clientSocket = TlsConnector.shared().upgrade(clientSocket, host, port);
+        } catch (IOException e) {
+            dropConnection();
+            throw e;
+        }
+        openStreams();
+        negotiateCapabilities();
+    }
+
+    /**
+     * Requires plain connections to be upgraded to TLS with {@code STLS} before signing in. Has no effect on the
+     * other socket types.
+     * @param startTls {@code true} to upgrade.
+     */
+    public void setStartTls(boolean startTls) {
+        this.startTls = startTls;
+    }
+
+    /**
+     * Sets the pool the raw messages are buffered in while they wait for the decoding workers.
+     * @param buffers Pool limiting the heap of the buffered messages.
+     */
+    public void setBufferPool(BufferPool buffers) {
+        this.buffers = Objects.requireNonNull(buffers);
+    }
+
+    /**
+     * Creates a command pipeline on the current connection.
+     * @return Pipeline that batches commands if the server supports it.
+     */
+    private Pop3Pipeline createPipeline(){
+        return new Pop3Pipeline(bReader, bWriter, pipelining);
+    }
+
+    /**
+     * Sends a {@code NOOP} to check that the session is still alive and to reset the autologout timer of the server.
+     * @return {@code false} if the connection is dead.
+     */
+    public boolean noop(){
+        switch (socketType){
+            case 1, 2 -> {
+                try {
+                    sendRequest("", RequestTyp.NOOP);
+                } catch (IOException e) {
+                    dropConnection();
+                    return false;
+                }
+
+                return Boolean.TRUE.equals(readSingleLineContent());
+            }
+
+            case 3, 4 -> {
+                return javaMailInstance.noop();
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Replaces the connection with a new one to the same server and signs in with the stored credentials.
+     * The message store and the envelope cache are kept.
+     * @return {@code true} if the server accepted the credentials.
+     * @throws IOException If no connection or greeting from the server.
+     */
+    public boolean reconnect() throws IOException {
+        dropConnection();
+        connect(host, port);
+
+        return authenticate(username, password);
+    }
+
+    /**
+     * Closes the connection without {@code QUIT}, e.g. after it was found dead. Further requests fail until
+     * {@link #reconnect()} is called.
+     */
+    void dropConnection(){
+        switch (socketType){
+            case 1, 2 -> {
+                try {
+                    if(clientSocket != null) clientSocket.close();
+                } catch (IOException ignored) {}
+
+                clientSocket = null;
+                bReader = null;
+                bWriter = null;
+            }
+
+            case 3, 4 -> javaMailInstance.disconnect();
+        }
+    }
+
+    /**
+     * Runs a dashboard operation through the session manager, so a dead connection is replaced transparently.
+     * @param operation Operation to run.
+     * @return Result of the operation.
+     * @param <T> Type of the result.
+     * @throws IOException If the operation failed even on a new connection.
+     */
+    private <T> T withSession(SessionOperation<T> operation) throws IOException {
+        try {
+            return sessionManager == null ? operation.run(this) : sessionManager.execute(operation);
+        } finally {
+            exportMetrics();
+        }
+    }
+
+    /**
+     * Runs a dashboard operation that changes the maildrop. A dead connection is replaced before, but the operation
+     * is never repeated, see {@link SessionManager#executeOnce(SessionOperation)}.
+     * @param operation Operation to run.
+     * @return Result of the operation.
+     * @param <T> Type of the result.
+     * @throws IOException If the operation failed.
+     */
+    private <T> T withSessionOnce(SessionOperation<T> operation) throws IOException {
+        try {
+            return sessionManager == null ? operation.run(this) : sessionManager.executeOnce(operation);
+        } finally {
+            exportMetrics();
+        }
+    }
+
+    /**
+     * Writes the current metrics below {@link IncrementalSync#DEFAULT_DIRECTORY}, where a local scraper can pick
+     * them up. A failed export doesn't affect the session.
+     */
+    private void exportMetrics() {
+        try {
+            metrics.export(IncrementalSync.DEFAULT_DIRECTORY.resolve("metrics"));
+        } catch (IOException ignored) {}
+    }
+
     /**
      * Shuts down client and releases resources.
      */
     public void shutdownClient(){
+        if(sessionManager != null) sessionManager.close();
+        sessionManager = null;
+        if(scanner != null) exportMetrics();
+
         try {
-            Objects.requireNonNull(bWriter).write("quit");
-            bWriter.newLine();
+            if(searchIndex != null) searchIndex.close();
+            searchIndex = null;
+            unindexable.clear();
+        } catch (IOException e) {
+            System.out.println("\rError while closing the search index!");
+        }
+
+        try {
+            if(messageStore != null) messageStore.close();
+            messageStore = null;
+        } catch (IOException e) {
+            System.out.println("\rError while closing the message store!");
+        }
+
+        try {
+            Objects.requireNonNull(bWriter);
+            sendRequest("", RequestTyp.QUIT);
             Objects.requireNonNull(clientSocket).close();
             Objects.requireNonNull(bReader).close();
             Objects.requireNonNull(bWriter).close();
 
 
-            System.out.println("\rClient shutdown");
+            if(scanner != null) System.out.println("\rClient shutdown");
         } catch (IOException e) {
-            System.out.println("\rLost connection...");
+            if(scanner != null) System.out.println("\rLost connection...");
         } catch (NullPointerException ignored){}
     }
 
-    private boolean retrieveMessage(MovingNodeAnimation animationThread) throws IOException {
+    private boolean retrieveMessage(ProgressRenderer.Task progress) throws IOException {
         while(true){
             System.out.print("Message number: ");
             String num = scanner.nextLine().trim();
@@ -337,86 +930,397 @@ public final class Client {
                 continue;
             }
 
-            animationThread.start();
+            progress.start();
 
+            //the list shows the numbers starting at 0
+            int messageNumber = Integer.parseInt(num) + 1;
+            String uid = withSession(client -> client.fetchIntoStore(messageNumber));
+            if(uid == null){
+                progress.stop();
+                System.out.println("\rMessage number is out of bounds!");
+                return false;
+            }
+
+            progress.stop();
+            System.out.print("\r\n");
+            messageStore().transferTo(uid, Channels.newChannel(System.out));
+            System.out.flush();
+
+            return true;
+        }
+    }
+
+    /**
+     * Makes sure a message is in the local message store, fetching it from the server if it isn't.
+     * @param messageNumber Number of the message, as used by the server.
+     * @return Unique id of the message, {@code null} if the message doesn't exist.
+     * @throws IOException If connection disconnected, or storing the message was not possible.
+     */
+    private String fetchIntoStore(int messageNumber) throws IOException {
+        String uid = messageUid(messageNumber);
+        if(uid == null) return null;
+
+        MessageStore store = messageStore();
+        if(store.contains(uid)) return uid;
+
+        long written;
+        try (OutputStream out = store.open(uid)) {
+            written = streamMessage(messageNumber, out);
+        } catch (IOException e) {
+            store.abort(uid);
+            throw e;
+        }
+
+        if(written < 0){
+            store.abort(uid);
+            return null;
+        }
+        store.commit(uid, written);
+        updateSearchIndex();
+
+        return uid;
+    }
+
+    /**
+     * Gets the unique id of a single message.
+     * @param messageNumber Number of the message, as used by the server.
+     * @return The unique id, {@code null} if the message doesn't exist.
+     * @throws IOException If connection disconnected.
+     */
+    private String messageUid(int messageNumber) throws IOException {
+        switch (socketType){
+            case 1, 2 -> {
+                sendRequest(String.valueOf(messageNumber), RequestTyp.UIDL);
+                Boolean response = readSingleLineContent();
+                if(response == null) throw new IOException("Lost connection");
+                if(!response) return null;
+
+                return responseLine.fieldAt(2);
+            }
+
+            case 3, 4 -> {
+                try {
+                    return javaMailInstance.getUid(messageNumber);
+                } catch (MessagingException e) {
+                    throw new IOException(e);
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Lists the envelopes of all messages. Only messages missing in the envelope cache are fetched; on the socket
+     * path with {@code TOP n 0} through one pipeline, so the bodies never go over the wire.
+     * @return Map from message number to envelope, ordered by message number.
+     * @throws IOException If connection disconnected.
+     */
+    Map<Integer, Envelope> listHeaders() throws IOException {
+        Map<Integer, String> uids = listUids();
+        Map<String, Envelope> envelopes = new HashMap<>();
+        Map<Integer, String> missing = new LinkedHashMap<>();
+
+        for (Map.Entry<Integer, String> entry : uids.entrySet()) {
+            Envelope envelope = envelopeCache.get(entry.getValue());
+            if(envelope == null) missing.put(entry.getKey(), entry.getValue());
+            else envelopes.put(entry.getValue(), envelope);
+        }
+
+        if(!missing.isEmpty()){
             switch (socketType){
                 case 1, 2 -> {
-                    sendRequest(num, RequestTyp.RETR);
-                    List<String> messageLines = readMultiLineResponse();
-                    if(messageLines == null){
-                        MovingNodeAnimation.touchBarrierAndStopThread(animationThread);
-                        System.out.println("\rMessage number is out of bounds!");
-                        return false;
+                    Pop3Pipeline pipeline = createPipeline();
+                    for (int messageNumber : missing.keySet())
+                        pipeline.enqueue(RequestTyp.TOP, messageNumber + " 0");
+
+                    List<Pop3Response> responses = pipeline.flush();
+                    int i = 0;
+                    for (String uid : missing.values()) {
+                        Pop3Response response = responses.get(i++);
+                        if(response.isOk()) envelopes.put(uid, Envelope.parse(uid, response.getLines()));
                     }
-
-                    MovingNodeAnimation.touchBarrierAndStopThread(animationThread);
-                    System.out.print("\r");
-                    messageLines.forEach(System.out::println);
                 }
 
                 case 3, 4 -> {
                     try {
-                        javaMailInstance.updateMessages();
-                        List<Message> messages = javaMailInstance.getMessages();
-                        MovingNodeAnimation.touchBarrierAndStopThread(animationThread);
-                        System.out.print("\r\n");
-                        System.out.println(javaMailInstance.readMessage(messages.get(Integer.parseInt(num))));
-                    } catch (MessagingException | ArrayIndexOutOfBoundsException e) {
-                        return false;
+                        for (Envelope envelope : javaMailInstance.getEnvelopes(missing))
+                            envelopes.put(envelope.getUid(), envelope);
+                    } catch (MessagingException e) {
+                        throw new IOException(e);
                     }
                 }
             }
+        }
 
+        Map<Integer, Envelope> list = new LinkedHashMap<>();
+        for (Map.Entry<Integer, String> entry : uids.entrySet()) {
+            Envelope envelope = envelopes.get(entry.getValue());
+            if(envelope == null) continue;
 
-            return true;
+            envelopeCache.put(envelope);
+            list.put(entry.getKey(), envelope);
+        }
+
+        return list;
+    }
+
+    /**
+     * Opens the local message store of the signed-in account on first use.
+     * @return The message store.
+     * @throws IOException If the store couldn't be opened.
+     */
+    private MessageStore messageStore() throws IOException {
+        if(messageStore == null){
+            String account = IncrementalSync.accountKey(username, host, port);
+            messageStore = MessageStore.open(SyncState.resolve(IncrementalSync.DEFAULT_DIRECTORY.resolve("store"), account, ""), account);
+        }
+
+        return messageStore;
+    }
+
+    /**
+     * Opens the search index of the signed-in account on first use.
+     * @return The search index.
+     * @throws IOException If the index couldn't be opened.
+     */
+    private SearchIndex searchIndex() throws IOException {
+        if(searchIndex == null){
+            String account = IncrementalSync.accountKey(username, host, port);
+            searchIndex = SearchIndex.open(SyncState.resolve(IncrementalSync.DEFAULT_DIRECTORY.resolve("index"), account, ""));
+        }
+
+        return searchIndex;
+    }
+
+    /**
+     * Indexes the stored messages that aren't in the search index yet. Works on the local store only, messages
+     * that can't be decoded are skipped and not tried again in this session.
+     * @return Number of newly indexed messages.
+     * @throws IOException If reading the store or writing the index was not possible.
+     */
+    private int updateSearchIndex() throws IOException {
+        MessageStore store = messageStore();
+        SearchIndex index = searchIndex();
+        int before = index.size();
+
+        try (DecodingPipeline<DecodedText> pipeline = indexPipeline(index)) {
+            for (String uid : store.uids()) {
+                if(index.contains(uid) || unindexable.contains(uid)) continue;
+
+                MessageBuffer raw = buffers.newBuffer();
+                try (InputStream in = store.openStream(uid); raw) {
+                    in.transferTo(raw);
+                } catch (IOException e) {
+                    raw.release();
+                    throw e;
+                }
+                pipeline.submit(uid, raw);
+            }
+            pipeline.finish();
+        }
+        index.flush();
+
+        return index.size() - before;
+    }
+
+    /**
+     * Creates a pipeline that extracts the text of messages on the decoding workers and adds it to the index, in
+     * the order the messages were submitted. Messages that can't be parsed or use a charset the JVM doesn't know are
+     * skipped and remembered, so a failed decoding never fails the fetch or the update feeding the pipeline.
+     * @param index Index to add the messages to.
+     * @return The pipeline.
+     */
+    DecodingPipeline<DecodedText> indexPipeline(SearchIndex index) {
+        JavaMail extractor = javaMailInstance != null ? javaMailInstance : JavaMail.newInstance();
+
+        return new DecodingPipeline<>((uid, raw) -> {
+            try {
+                MimeMessage message = extractor.parse(raw);
+                String from = message.getFrom() == null || message.getFrom().length == 0 ? "" : message.getFrom()[0].toString();
+                return new DecodedText(from, message.getSubject(), extractor.extractText(message));
+            } catch (MessagingException | IOException e) {
+                return null;
+            }
+        }, (uid, decoded) -> {
+            if(decoded != null) index.add(uid, decoded.getFrom(), decoded.getSubject(), decoded.getText());
+            else unindexable.add(uid);
+        });
+    }
+
+    /**
+     * Copies the messages of the local store into an archive. Works on the local store only, every message is
+     * streamed from its segment into the archive. Messages the archive already holds are skipped, an mbox is
+     * rebuilt on every export.
+     * @param format Layout of the archive.
+     * @param directory Directory the archive is created in, named after the account.
+     * @return Number of exported messages.
+     * @throws IOException If reading the store or writing the archive was not possible.
+     */
+    private int exportMessages(ExportFormat format, Path directory) throws IOException {
+        MessageSink sink = format.open(directory, SyncState.safeName(IncrementalSync.accountKey(username, host, port)));
+        try {
+            return exportMessages(messageStore(), sink);
+        } finally {
+            if(sink instanceof Closeable) ((Closeable) sink).close();
+        }
+    }
+
+    /**
+     * Streams every message of the store the sink doesn't hold yet into the sink and forces it.
+     * @param store The local store.
+     * @param sink The archive, left open.
+     * @return Number of exported messages.
+     * @throws IOException If reading the store or writing the archive was not possible.
+     */
+    static int exportMessages(MessageStore store, MessageSink sink) throws IOException {
+        int exported = 0;
+
+        for (String uid : store.uids()) {
+            if(sink.contains(uid)) continue;
+
+            long written;
+            try (InputStream in = store.openStream(uid); OutputStream out = sink.open(uid)) {
+                written = in.transferTo(out);
+            } catch (IOException e) {
+                sink.abort(uid);
+                throw e;
+            }
+
+            sink.commit(uid, written);
+            exported++;
+        }
+        sink.force();
+
+        return exported;
+    }
+
+    /**
+     * Retrieves every message of the inbox and prints each one as soon as it is there, so only the messages in
+     * flight are held at a time. On the socket path the RETR commands are sent through a pipeline, one window at a
+     * time, and every body is streamed unchanged into a pooled buffer that is released once it is printed.
+     * @param progress Progress indicator, stopped before the first message is printed.
+     * @return Number of messages printed, {@code -1} if the retrieval failed.
+     * @throws IOException if IO error happened
+     */
+    private int retrieveAllMessages(ProgressRenderer.Task progress) throws IOException {
+        int[] printed = {0};
+
+        switch (socketType){
+            case 1, 2 -> {
+                int[] stat = getStat();
+                if(stat == null) return -1;
+
+                for (int first = 1; first <= stat[0]; first += Pop3Pipeline.DEFAULT_WINDOW) {
+                    List<MessageBuffer> raws = new ArrayList<>();
+                    try {
+                        Pop3Pipeline pipeline = createPipeline();
+                        for (int i = first; i <= Math.min(stat[0], first + Pop3Pipeline.DEFAULT_WINDOW - 1); i++) {
+                            MessageBuffer raw = buffers.newBuffer();
+                            raws.add(raw);
+                            pipeline.enqueue(RequestTyp.RETR, String.valueOf(i), raw);
+                        }
+
+                        List<Pop3Response> responses = pipeline.flush();
+                        for (int i = 0; i < responses.size(); i++) {
+                            if(!responses.get(i).isOk()) return -1;
+
+                            MessageBuffer raw = raws.get(i);
+                            raw.close();
+                            printHeading(printed[0]++, progress);
+                            try (InputStream in = raw.openStream()) {
+                                in.transferTo(System.out);
+                            }
+                            System.out.println();
+                            raw.release();
+                        }
+                    } finally {
+                        for (MessageBuffer raw : raws) raw.release();
+                    }
+                }
+            }
+
+            //every message is read raw on this thread and decoded on the workers while the next one is read
+            case 3, 4 -> {
+                try (DecodingPipeline<String> pipeline = new DecodingPipeline<>(
+                        (uid, raw) -> javaMailInstance.readMessage(javaMailInstance.parse(raw)),
+                        (uid, content) -> {
+                            printHeading(printed[0]++, progress);
+                            System.out.println(content);
+                        })) {
+                    for (Message message : javaMailInstance.getMessages()) {
+                        MessageBuffer raw = buffers.newBuffer();
+                        try (raw) {
+                            message.writeTo(raw);
+                        } catch (IOException | MessagingException e) {
+                            raw.release();
+                            throw e;
+                        }
+                        pipeline.submit(String.valueOf(message.getMessageNumber()), raw);
+                    }
+                    pipeline.finish();
+                } catch (MessagingException e) {
+                    throw new IOException(e);
+                }
+            }
+        }
+
+        return printed[0];
+    }
+
+    private static void printHeading(int index, ProgressRenderer.Task progress) {
+        if(index == 0) {
+            progress.stop();
+            System.out.print("\r");
         }
+        System.out.println("Message " + index + ":");
     }
 
     private void viewDashboard(){
         System.out.println("\r\n1- View message count and size.");
         System.out.println("2- View list of messages.");
         System.out.println("3- View specific message.");
+        System.out.println("4- Download all messages.");
         System.out.println("5- Close connection.");
         System.out.println("6- Show those instructions again.");
+        System.out.println("7- Fetch new messages.");
+        System.out.println("8- View message headers.");
+        System.out.println("9- Search downloaded messages.");
+        System.out.println("10- Apply retention policy.");
+        System.out.println("11- Export downloaded messages.");
 
         operationPrompt();
     }
 
-    private int[] getStat(){
+    /**
+     * Gets the number of messages and the size of the maildrop.
+     * @return Count and size in bytes, {@code null} if the server answered with an error.
+     * @throws IOException If connection disconnected.
+     */
+    private int[] getStat() throws IOException {
         int[] arr = null;
 
         switch (socketType){
             case 1, 2 -> {
-                try {
-                    sendRequest("", RequestTyp.STAT);
-                } catch (IOException e) {
-                    System.out.println("Error while sending count-request to server!");
-                    return null;
-                }
+                sendRequest("", RequestTyp.STAT);
 
-                AbstractMap.SimpleEntry<Boolean, String> response = readSingleLineContent();
-                assert response != null;
-                if(!response.getKey()){
+                Boolean response = readSingleLineContent();
+                if(response == null) throw new IOException("Lost connection");
+                if(!response){
                     System.out.println("Error received from server!");
                     return null;
                 }
 
-                String[] tokens = response.getValue().split("\\s+");
-
-                arr = new int[]{Integer.parseInt(tokens[0]), Integer.parseInt(tokens[1])};
+                arr = new int[]{(int) responseLine.numberAt(1), (int) responseLine.numberAt(2)};
             }
 
             case 3, 4 -> {
                 try {
-                    javaMailInstance.updateMessages();
-                    List<Message> messages = javaMailInstance.getMessages();
                     arr = new int[2];
-                    arr[0] = messages.size();
-
-
+                    arr[0] = javaMailInstance.getMessageCount();
                     arr[1] = javaMailInstance.getEmailInbox().getSize();
                 } catch (MessagingException e) {
-                    return null;
+                    throw new IOException(e);
                 }
             }
         }
@@ -425,39 +1329,50 @@ public final class Client {
         return arr;
     }
 
-    private List<String> getListOfEmails(){
-        List<String> list = null;
+    /**
+     * Lists the sizes of all messages.
+     * @return Sizes indexed by message number, {@code -1} for numbers without message. {@code null} if the server
+     * answered with an error.
+     * @throws IOException If connection disconnected.
+     */
+    private int[] getListOfEmails() throws IOException {
+        int[] sizes = null;
 
         switch (socketType){
             case 1, 2 -> {
-                try {
-                    sendRequest("", RequestTyp.LIST);
-                } catch (IOException e) {
-                    System.out.println("Error while sending count-request to server!");
-                    return null;
+                sendRequest("", RequestTyp.LIST);
+                Boolean response = readSingleLineContent();
+                if(response == null) throw new IOException("Lost connection");
+                if(!response) return null;
+
+                sizes = new int[64];
+                int highest = 0;
+                Arrays.fill(sizes, -1);
+                while (nextBodyLine()){
+                    int messageNumber = (int) responseLine.numberAt(0);
+                    if(messageNumber >= sizes.length){
+                        int oldLength = sizes.length;
+                        sizes = Arrays.copyOf(sizes, Math.max(oldLength * 2, messageNumber + 1));
+                        Arrays.fill(sizes, oldLength, sizes.length, -1);
+                    }
+
+                    sizes[messageNumber] = (int) responseLine.numberAt(1);
+                    highest = Math.max(highest, messageNumber);
                 }
-                list = readMultiLineResponse();
+                sizes = Arrays.copyOf(sizes, highest + 1);
             }
 
             case 3, 4 -> {
                 try {
-                    javaMailInstance.updateMessages();
-
-                    list = new ArrayList<>();
-                    List<Message> messages = javaMailInstance.getMessages();
-                    int[] sizes = javaMailInstance.getEmailInbox().getSizes();
-
-                    for (int i = 0; i < messages.size(); i++)
-                        list.add(messages.get(i).getMessageNumber() + " " + sizes[i]);
-
+                    sizes = javaMailInstance.getSizes().clone();
                 } catch (MessagingException e) {
-                    return null;
+                    throw new IOException(e);
                 }
             }
         }
 
 
-        return list;
+        return sizes;
     }
 
     private void operationPrompt(){
@@ -465,13 +1380,13 @@ public final class Client {
             System.out.print("\r\n\nYour Choice: ");
             int choice = Integer.parseInt(scanner.nextLine().trim());
 
-            MovingNodeAnimation loadingThread = new MovingNodeAnimation("Fetching... ", 100, 20);
+            ProgressRenderer.Task progress = ProgressRenderer.shared().task("Fetching... ");
 
             switch (choice){
                 case 1 -> {
-                    loadingThread.start();
-                    int[] tokens = getStat();
-                    MovingNodeAnimation.touchBarrierAndStopThread(loadingThread);
+                    progress.start();
+                    int[] tokens = withSession(Client::getStat);
+                    progress.stop();
                     if(tokens == null){
                         operationPrompt();
                         return;
@@ -483,37 +1398,128 @@ public final class Client {
                     operationPrompt();
                 }
                 case 2 -> {
-                    loadingThread.start();
-                    List<String> items = getListOfEmails();
-                    MovingNodeAnimation.touchBarrierAndStopThread(loadingThread);
+                    progress.start();
+                    int[] sizes = withSession(Client::getListOfEmails);
+                    progress.stop();
                     System.out.print("\r");
-                    if(items == null){
+                    if(sizes == null){
                         operationPrompt();
                         return;
                     }
 
                     System.out.println("\rMessage-number (Size in KB)\n");
-                    items.forEach(message -> {
-                        String[] tokens = message.split("\\s+");
-                        System.out.println((Integer.parseInt(tokens[0]) - 1) +
-                                "\t(" + String.format("%.2fKB", ((double)Integer.parseInt(tokens[1]) / 1e3)) + ")");
-                    });
+                    for (int i = 1; i < sizes.length; i++) {
+                        if(sizes[i] < 0) continue;
+                        System.out.println((i - 1) + "\t(" + String.format("%.2fKB", ((double)sizes[i] / 1e3)) + ")");
+                    }
                     operationPrompt();
                 }
                 case 3 -> {
-                    if(!retrieveMessage(loadingThread)){
-                        MovingNodeAnimation.touchBarrierAndStopThread(loadingThread);
+                    if(!retrieveMessage(progress)){
+                        progress.stop();
                         System.out.println("\rMessage was not found!");
                     }
-                    MovingNodeAnimation.touchBarrierAndStopThread(loadingThread);
+                    progress.stop();
                     viewDashboard();
 
                 }
+                case 4 -> {
+                    progress.start();
+                    //the messages are printed while they arrive, a replay would print them twice
+                    int count = withSessionOnce(client -> client.retrieveAllMessages(progress));
+                    progress.stop();
+                    if(count < 0){
+                        System.out.println("\rError while downloading messages!");
+                        operationPrompt();
+                        return;
+                    }
+
+                    System.out.println("\r" + count + " message(s) downloaded.");
+                    operationPrompt();
+                }
                 case 5 -> shutdownClient();
                 case 6 -> {
                     System.out.println();
                     viewDashboard();
                 }
+                case 7 -> {
+                    progress.start();
+                    SyncResult result = withSession(Client::syncNewMessages);
+                    progress.stop();
+                    System.out.println("\r" + result.getFetched() + " new message(s) of " + result.getTotal() +
+                            " fetched." + " ".repeat(10) + "Size: " + String.format("%.2fMB", ((double)result.getBytes() / 1e6)));
+                    operationPrompt();
+                }
+                case 8 -> {
+                    progress.start();
+                    Map<Integer, Envelope> envelopes = withSession(Client::listHeaders);
+                    progress.stop();
+
+                    System.out.println("\rMessage-number\tFrom\tSubject\tDate\n");
+                    envelopes.forEach((number, envelope) -> System.out.println((number - 1) + "\t" +
+                            envelope.getFrom() + "\t" + envelope.getSubject() + "\t" + envelope.getDate()));
+                    operationPrompt();
+                }
+                case 9 -> {
+                    System.out.print("Search: ");
+                    String query = scanner.nextLine();
+
+                    updateSearchIndex();
+                    long start = System.nanoTime();
+                    List<SearchHit> hits = searchIndex().search(query, SEARCH_LIMIT);
+                    long elapsed = System.nanoTime() - start;
+
+                    System.out.println("\rUID\tFrom\tSubject\n");
+                    hits.forEach(hit -> System.out.println(hit.getUid() + "\t" + hit.getFrom() + "\t" + hit.getSubject()));
+                    System.out.println("\n" + hits.size() + " hit(s) in " + searchIndex().size() + " message(s)." +
+                            " ".repeat(10) + String.format("%.2fms", elapsed / 1e6));
+                    operationPrompt();
+                }
+                case 10 -> {
+                    System.out.print("Keep on server (stored = delete stored messages, days:N, mb:N): ");
+                    RetentionPolicy policy;
+                    try {
+                        policy = RetentionPolicy.parse(scanner.nextLine().trim());
+                    } catch (IllegalArgumentException e) {
+                        System.out.println(e.getMessage());
+                        operationPrompt();
+                        return;
+                    }
+
+                    System.out.print("Delete stored messages from the server (" + policy + ")? (y/n): ");
+                    if(!scanner.nextLine().trim().equalsIgnoreCase("y")){
+                        operationPrompt();
+                        return;
+                    }
+
+                    progress.start();
+                    RetentionResult result = withSessionOnce(client -> client.applyRetention(policy, client.messageStore()));
+                    progress.stop();
+                    System.out.println("\r" + result.getDeleted() + " of " + result.getTotal() + " message(s) deleted." +
+                            " ".repeat(10) + "Size: " + String.format("%.2fMB", ((double)result.getBytesFreed() / 1e6)));
+                    operationPrompt();
+                }
+                case 11 -> {
+                    System.out.print("Format (eml, mbox, mbox.gz, maildir): ");
+                    ExportFormat format;
+                    try {
+                        format = ExportFormat.parse(scanner.nextLine().trim());
+                    } catch (IllegalArgumentException e) {
+                        System.out.println(e.getMessage());
+                        operationPrompt();
+                        return;
+                    }
+                    System.out.print("Directory: ");
+                    Path directory = Path.of(scanner.nextLine().trim());
+
+                    progress.start();
+                    long start = System.nanoTime();
+                    int exported = exportMessages(format, directory);
+                    progress.stop();
+                    System.out.println("\r" + exported + " message(s) exported to " + directory.toAbsolutePath() + "." +
+                            " ".repeat(10) + String.format("%.2fs", (System.nanoTime() - start) / 1e9));
+                    operationPrompt();
+                }
                 default -> {
                     System.out.println("\rNumber is out of range of choices!\nTry Again");
                     viewDashboard();
@@ -550,6 +1556,10 @@ public final class Client {
             if(choiceNumeric == 5) return false;
 
             socketType = choiceNumeric;
+            if(socketType == 1){
+                System.out.print("Upgrade to TLS with STLS? (y/n): ");
+                startTls = scanner.nextLine().trim().equalsIgnoreCase("y");
+            }
 
             return true;
         }
@@ -617,6 +1627,8 @@ public final class Client {
         }
 
 
+        sessionManager = new SessionManager(this);
+
         System.out.println("\n\nConnected as " + username + ":");
         System.out.println("********************************");
         viewDashboard();
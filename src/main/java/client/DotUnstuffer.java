@@ -0,0 +1,129 @@
+package client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Push decoder for multi-line response bodies. Chunks of the raw response are fed in as they arrive, byte-stuffed
+ * dots are removed and the body is written to a stream until the terminating {@code .} line was seen. Line
+ * terminators are kept as sent by the server.
+ * <p>
+ * The decoder keeps no buffer of its own, so it works on the fixed buffer of a blocking reader as well as on the
+ * buffers of a non-blocking session.
+ */
+public final class DotUnstuffer {
+    private static final int LINE_START = 0;
+    private static final int IN_LINE = 1;
+    /**
+     * A {@code .} was read at the start of a line
+     */
+    private static final int DOT = 2;
+    /**
+     * {@code .\r} was read at the start of a line
+     */
+    private static final int DOT_CR = 3;
+    private static final int DONE = 4;
+
+    private int state = LINE_START;
+    /**
+     * {@code '\r'} of a {@code ".\r"} that was held back at the end of the previous chunk
+     */
+    private boolean carriedCr;
+    private long written;
+
+    /**
+     * Decodes a chunk of the response.
+     * @param src Buffer holding the chunk.
+     * @param offset Start of the chunk.
+     * @param length Length of the chunk.
+     * @param out Stream to write the body to.
+     * @return Number of bytes consumed. Less than {@code length} only if the terminator was reached, the remaining
+     * bytes belong to the next response.
+     * @throws IOException If writing was not possible.
+     */
+    public int feed(byte[] src, int offset, int length, OutputStream out) throws IOException {
+        if(state == DONE) return 0;
+
+        int end = offset + length;
+        int runStart = offset;
+        for (int i = offset; i < end; i++) {
+            byte b = src[i];
+
+            switch (state){
+                case LINE_START -> {
+                    if(b == '.'){
+                        write(out, src, runStart, i);
+                        runStart = i + 1;
+                        state = DOT;
+                    }
+                    else if(b != '\n') state = IN_LINE;
+                }
+                case DOT -> {
+                    if(b == '\r') state = DOT_CR;
+                    else if(b == '\n'){
+                        write(out, src, runStart, i);
+                        state = DONE;
+                        return i + 1 - offset;
+                    }
+                    else state = IN_LINE;
+                }
+                case DOT_CR -> {
+                    if(b == '\n'){
+                        write(out, src, runStart, carriedCr ? i : i - 1);
+                        carriedCr = false;
+                        state = DONE;
+                        return i + 1 - offset;
+                    }
+                    if(carriedCr){
+                        out.write('\r');
+                        written++;
+                        carriedCr = false;
+                    }
+                    state = IN_LINE;
+                }
+                default -> {
+                    if(b == '\n') state = LINE_START;
+                }
+            }
+        }
+
+        int runEnd = end;
+        if(state == DOT_CR && !carriedCr){
+            runEnd--;
+            carriedCr = true;
+        }
+        write(out, src, runStart, runEnd);
+
+        return length;
+    }
+
+    /**
+     * @return {@code true} once the terminating {@code .} line was consumed.
+     */
+    public boolean isDone() {
+        return state == DONE;
+    }
+
+    /**
+     * @return Number of body bytes written since the last reset.
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * Prepares the decoder for the next response.
+     */
+    public void reset() {
+        state = LINE_START;
+        carriedCr = false;
+        written = 0;
+    }
+
+    private void write(OutputStream out, byte[] src, int from, int to) throws IOException {
+        if(to <= from) return;
+
+        out.write(src, from, to - from);
+        written += to - from;
+    }
+}
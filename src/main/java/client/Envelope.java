@@ -0,0 +1,131 @@
+package client;
+
+import javax.mail.internet.MailDateFormat;
+import javax.mail.internet.MimeUtility;
+import java.io.UnsupportedEncodingException;
+import java.text.ParsePosition;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Header summary of a message, as shown in the header listing.
+ */
+public final class Envelope {
+    private final String uid;
+    private final String from;
+    private final String to;
+    private final String subject;
+    private final String date;
+    private final String messageId;
+
+    public Envelope(String uid, String from, String to, String subject, String date, String messageId) {
+        this.uid = uid;
+        this.from = from;
+        this.to = to;
+        this.subject = subject;
+        this.date = date;
+        this.messageId = messageId;
+    }
+
+    /**
+     * Parses the envelope from the raw header lines of a message, e.g. the body of a {@code TOP n 0} response.
+     * Folded headers are unfolded and encoded words are decoded.
+     * @param uid Unique id of the message.
+     * @param headerLines Header lines, parsing stops at the first empty line.
+     * @return The parsed envelope.
+     */
+    public static Envelope parse(String uid, List<String> headerLines) {
+        String[] values = new String[5];
+        int current = -1;
+
+        for (String line : headerLines) {
+            if(line.isEmpty()) break;
+
+            //continuation of a folded header
+            if(line.charAt(0) == ' ' || line.charAt(0) == '\t'){
+                if(current >= 0) values[current] += " " + line.trim();
+                continue;
+            }
+
+            int colon = line.indexOf(':');
+            current = colon < 0 ? -1 : fieldIndex(line.substring(0, colon).trim());
+            if(current < 0) continue;
+
+            //only the first occurrence counts
+            if(values[current] != null){
+                current = -1;
+                continue;
+            }
+            values[current] = line.substring(colon + 1).trim();
+        }
+
+        return new Envelope(uid, decode(values[0]), decode(values[1]), decode(values[2]), values[3], values[4]);
+    }
+
+    /**
+     * Builds the envelope from already parsed headers.
+     * @param uid Unique id of the message.
+     * @param headers Lookup returning the unfolded value of a header, {@code null} if it is missing.
+     * @return The envelope.
+     */
+    public static Envelope of(String uid, Function<String, String> headers) {
+        return new Envelope(uid, decode(headers.apply("From")), decode(headers.apply("To")),
+                decode(headers.apply("Subject")), headers.apply("Date"), headers.apply("Message-ID"));
+    }
+
+    private static int fieldIndex(String name) {
+        if(name.equalsIgnoreCase("From")) return 0;
+        if(name.equalsIgnoreCase("To")) return 1;
+        if(name.equalsIgnoreCase("Subject")) return 2;
+        if(name.equalsIgnoreCase("Date")) return 3;
+        if(name.equalsIgnoreCase("Message-ID")) return 4;
+
+        return -1;
+    }
+
+    private static String decode(String value) {
+        if(value == null) return null;
+
+        try {
+            return MimeUtility.decodeText(value);
+        } catch (UnsupportedEncodingException e) {
+            return value;
+        }
+    }
+
+    public String getUid() {
+        return uid;
+    }
+
+    public String getFrom() {
+        return from;
+    }
+
+    public String getTo() {
+        return to;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public String getDate() {
+        return date;
+    }
+
+    /**
+     * @return The {@code Date} header as a point in time, {@code null} if it is missing or malformed.
+     */
+    public Instant getSentDate() {
+        if(date == null) return null;
+
+        Date parsed = new MailDateFormat().parse(date, new ParsePosition(0));
+        return parsed == null ? null : parsed.toInstant();
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+}
@@ -0,0 +1,45 @@
+package client;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded cache of envelopes keyed by unique id. The least recently used entry is evicted once the capacity
+ * is reached. Unique ids never change for a message, so entries don't have to be invalidated.
+ */
+public final class EnvelopeCache {
+    public static final int DEFAULT_CAPACITY = 100_000;
+
+    private final Map<String, Envelope> entries;
+
+    public EnvelopeCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public EnvelopeCache(int capacity) {
+        if(capacity < 1) throw new IllegalArgumentException("Capacity has to be at least 1");
+
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Envelope> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public synchronized Envelope get(String uid) {
+        return entries.get(uid);
+    }
+
+    public synchronized void put(Envelope envelope) {
+        entries.put(envelope.getUid(), envelope);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+}
@@ -3,16 +3,25 @@ package client;
 import com.sun.mail.pop3.POP3Folder;
 import com.sun.mail.pop3.POP3Message;
 import com.sun.mail.pop3.POP3Store;
+import metrics.Metrics;
+import metrics.Phase;
 import org.apache.commons.io.output.CountingOutputStream;
 import org.apache.commons.io.output.NullOutputStream;
+import store.BlobRef;
+import store.BlobStore;
+import store.MessageBuffer;
+import sync.IncrementalSync;
 
 import javax.mail.*;
 import javax.mail.internet.MimeMessage;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 public class JavaMail {
@@ -34,9 +43,13 @@ public class JavaMail {
      */
     private POP3Folder emailInbox;
     /**
-     * Array of the fetched messages from the inbox.
+     * Cached messages of the inbox, {@code null} until first used
      */
-    private Message[] messages;
+    private MessageView view;
+    /**
+     * Store for the attachments of read messages, opened on first use
+     */
+    private BlobStore blobStore;
 
     private JavaMail(){}
 
@@ -48,6 +61,14 @@ public class JavaMail {
         return instance == null ? instance = new JavaMail() : instance;
     }
 
+    /**
+     * Separate instance for sessions running next to the united one, e.g. when fetching several accounts.
+     * @return New instance with its own properties and session.
+     */
+    public static JavaMail newInstance(){
+        return new JavaMail();
+    }
+
     /**
      * Sets the property-values
      * @param host Domain of the mail-server
@@ -63,7 +84,8 @@ public class JavaMail {
             properties.put("mail.store.protocol", "pop3");
             properties.put("mail.pop3.ssl.enable", "true");
             properties.put("mail.pop3.starttls.enable", "true");
-            properties.put("mail.pop3.ssl.socketFactory.class", "SSLSocket");
+            //share the TLS session cache with the socket modes
+            properties.put("mail.pop3.ssl.socketFactory", TlsConnector.shared().getSocketFactory());
         }
         else{
             properties.put("mail.store.protocol", "pop3");
@@ -80,27 +102,173 @@ public class JavaMail {
      * @throws MessagingException If Connection-error occurred.
      */
     public void connect(String username, String password) throws AuthenticationFailedException, MessagingException {
-        session = Session.getDefaultInstance(properties);
+        //the default session is shared JVM-wide and would ignore the properties of every later connection
+        session = Session.getInstance(properties);
         POP3Store store = (POP3Store) session.getStore((String) properties.get("mail.store.protocol"));
 
+        long start = System.nanoTime();
         store.connect(username, password);
+        Metrics.global().record(Phase.CONNECT, start);
 
         emailInbox = (POP3Folder) store.getFolder("INBOX");
         emailInbox.open(Folder.READ_ONLY);
+        view = null;
     }
 
     /**
-     * Fetch messages
+     * Checks the connection with a {@code NOOP}. The folder closes itself if the check fails.
+     * @return {@code false} if the connection is dead or was never opened.
+     */
+    public boolean noop(){
+        return emailInbox != null && emailInbox.isOpen();
+    }
+
+    /**
+     * Closes folder and store without expunging, errors of a dead connection are ignored.
+     */
+    public void disconnect(){
+        if(emailInbox == null) return;
+
+        Store store = emailInbox.getStore();
+        try {
+            if(emailInbox.isOpen()) emailInbox.close(false);
+        } catch (MessagingException ignored) {}
+        try {
+            store.close();
+        } catch (MessagingException ignored) {}
+
+        emailInbox = null;
+        view = null;
+    }
+
+    /**
+     * Makes sure the cached messages are current. The inbox is only listed again if its message count changed.
      * @throws MessagingException If Connection-error occurred.
      */
     public void updateMessages() throws MessagingException {
-        messages =  emailInbox.getMessages();
+        if(view == null || !view.isCurrent()) view = new MessageView(emailInbox);
+    }
+
+    /**
+     * @return Number of messages in the inbox.
+     * @throws MessagingException If Connection-error occurred.
+     */
+    public int getMessageCount() throws MessagingException {
+        return view().getCount();
+    }
+
+    /**
+     * @param messageNumber Number of the message, starting at 1.
+     * @return The message, {@code null} if it doesn't exist.
+     * @throws MessagingException If Connection-error occurred.
+     */
+    public Message getMessage(int messageNumber) throws MessagingException {
+        return view().getMessage(messageNumber);
+    }
+
+    /**
+     * Sizes of all messages, fetched with a single {@code LIST} and cached.
+     * @return Sizes indexed by message number, {@code -1} at index 0. Must not be modified.
+     * @throws MessagingException If Connection-error occurred.
+     */
+    public int[] getSizes() throws MessagingException {
+        return view().getSizes();
+    }
+
+    /**
+     * Unique ids of all messages, fetched with a single {@code UIDL} and cached.
+     * @return Map from message number to unique id, ordered by message number.
+     * @throws MessagingException If Connection-error occurred.
+     */
+    public Map<Integer, String> getUids() throws MessagingException {
+        String[] indexed = view().getUids();
+
+        Map<Integer, String> uids = new LinkedHashMap<>();
+        for (int i = 1; i < indexed.length; i++)
+            uids.put(i, indexed[i]);
+
+        return uids;
+    }
+
+    /**
+     * Gets the unique id of a single message without listing the others.
+     * @param messageNumber Number of the message, starting at 1.
+     * @return The unique id, {@code null} if the message doesn't exist.
+     * @throws MessagingException If Connection-error occurred.
+     */
+    public String getUid(int messageNumber) throws MessagingException {
+        return view().getUid(messageNumber);
+    }
+
+    /**
+     * Fetches the envelopes of the given messages. Only the headers are loaded, the bodies stay on the server.
+     * @param uids Map from message number to unique id of the messages to fetch.
+     * @return Envelopes in the order of the map.
+     * @throws MessagingException If Connection-error occurred.
+     */
+    public List<Envelope> getEnvelopes(Map<Integer, String> uids) throws MessagingException {
+        Message[] subset = new Message[uids.size()];
+        int i = 0;
+        for (int messageNumber : uids.keySet())
+            subset[i++] = getMessage(messageNumber);
 
         FetchProfile fetchProfile = new FetchProfile();
-        fetchProfile.add(FetchProfile.Item.CONTENT_INFO);
-        fetchProfile.add("X-mailer");
+        fetchProfile.add(FetchProfile.Item.ENVELOPE);
+        emailInbox.fetch(subset, fetchProfile);
+
+        List<Envelope> envelopes = new ArrayList<>(subset.length);
+        for (Message message : subset) {
+            Map<String, String> headers = new HashMap<>();
+            for (String name : new String[]{"From", "To", "Subject", "Date", "Message-ID"})
+                headers.put(name, ((MimeMessage) message).getHeader(name, ","));
+
+            envelopes.add(Envelope.of(uids.get(message.getMessageNumber()), headers::get));
+        }
+
+        return envelopes;
+    }
+
+    /**
+     * Marks messages as deleted. The inbox is reopened for writing if needed; nothing is deleted on the server until
+     * {@link #finishDeletion(boolean)} is called.
+     * @param uids Map from message number to unique id of the messages to delete.
+     * @throws MessagingException If Connection-error occurred or a message doesn't have the expected unique id.
+     */
+    public void markDeleted(Map<Integer, String> uids) throws MessagingException {
+        if(emailInbox.getMode() != Folder.READ_WRITE){
+            emailInbox.close(false);
+            emailInbox.open(Folder.READ_WRITE);
+            view = null;
+        }
+
+        for (Map.Entry<Integer, String> entry : uids.entrySet()) {
+            if(!entry.getValue().equals(getUid(entry.getKey())))
+                throw new MessagingException("Message " + entry.getKey() + " is not " + entry.getValue());
 
-        emailInbox.fetch(messages, fetchProfile);
+            getMessage(entry.getKey()).setFlag(Flags.Flag.DELETED, true);
+        }
+    }
+
+    /**
+     * Ends the session of the messages marked by {@link #markDeleted(Map)} and opens the inbox again for reading.
+     * @param expunge {@code true} to delete the marked messages, {@code false} to keep them.
+     * @throws MessagingException If Connection-error occurred.
+     */
+    public void finishDeletion(boolean expunge) throws MessagingException {
+        view = null;
+        emailInbox.close(expunge);
+        emailInbox.open(Folder.READ_ONLY);
+    }
+
+    /**
+     * Parses a raw message without copying it; the parts are read from the buffer when they are decoded.
+     * @param raw Raw RFC 822 message, closed for writing. It must not be released before the message was read.
+     * @return The parsed message.
+     * @throws MessagingException If the headers couldn't be parsed.
+     * @throws IOException If the buffer couldn't be read.
+     */
+    public MimeMessage parse(MessageBuffer raw) throws MessagingException, IOException {
+        return new MimeMessage(session != null ? session : Session.getInstance(properties), raw.openStream());
     }
 
     /**
@@ -112,7 +280,22 @@ public class JavaMail {
      */
     public String readMessage(Part messageSegment) throws MessagingException, IOException{
         StringBuilder sb = new StringBuilder();
-        readMessageUtil(messageSegment, sb);
+        readMessageUtil(messageSegment, sb, true);
+
+        return sb.toString();
+    }
+
+    /**
+     * Extracts the searchable text of a message: the envelope, the text parts and the names of the attachments.
+     * Unlike {@link #readMessage(Part)} the attachments are not written to the blob store.
+     * @param messageSegment Message object to read.
+     * @return The text of the message.
+     * @throws MessagingException If the message couldn't be parsed.
+     * @throws IOException If reading the message was not possible.
+     */
+    public String extractText(Part messageSegment) throws MessagingException, IOException{
+        StringBuilder sb = new StringBuilder();
+        readMessageUtil(messageSegment, sb, false);
 
         return sb.toString();
     }
@@ -121,10 +304,11 @@ public class JavaMail {
      * Utility-Method to fetch the message
      * @param messageSegment Message object to read.
      * @param sb String-builder to use.
+     * @param storeAttachments Whether attachments are written to the blob store or only named.
      * @throws MessagingException If Connection-error occurred.
      * @throws IOException If Connection-error occurred.
      */
-    private void readMessageUtil(Part messageSegment, StringBuilder sb) throws MessagingException, IOException {
+    private void readMessageUtil(Part messageSegment, StringBuilder sb, boolean storeAttachments) throws MessagingException, IOException {
         if(messageSegment instanceof Message)
             sb.append(getMessageEnvelope((Message) messageSegment));
 
@@ -136,24 +320,53 @@ public class JavaMail {
         else if(messageSegment.isMimeType("multipart/*")){
             Multipart multipart = (Multipart) messageSegment.getContent();
             for (int i = 0; i < multipart.getCount(); i++) {
-                readMessageUtil(multipart.getBodyPart(i), sb);
+                readMessageUtil(multipart.getBodyPart(i), sb, storeAttachments);
             }
         }
         //check if the content is a nested message
         else if (messageSegment.isMimeType("message/rfc822")) {
             sb.append("Nested-Message:").append("\n");
-            readMessageUtil((Part) messageSegment.getContent(), sb);
+            readMessageUtil((Part) messageSegment.getContent(), sb, storeAttachments);
         }
-        //read image attachment
-        else if(messageSegment.isMimeType("image/jpeg")){
-            InputStream is = (InputStream) messageSegment.getContent();
-            byte[] buffer = is.readAllBytes();
-            FileOutputStream fos = new FileOutputStream("output.jpg");
-            fos.write(buffer);
-            fos.close();
+        //every other non-text part is an attachment, streamed into the blob store and referenced by its hash
+        else if(!messageSegment.isMimeType("text/*") || Part.ATTACHMENT.equalsIgnoreCase(messageSegment.getDisposition())){
+            String contentType = messageSegment.getContentType();
+            int parameters = contentType.indexOf(';');
+            sb.append("Attachment: ");
+            if(messageSegment.getFileName() != null) sb.append(messageSegment.getFileName()).append(" ");
+            sb.append("(").append((parameters < 0 ? contentType : contentType.substring(0, parameters)).trim());
+            if(!storeAttachments){
+                sb.append(")\n");
+                return;
+            }
+
+            BlobRef blob;
+            try (InputStream is = messageSegment.getInputStream()) {
+                blob = blobStore().put(is);
+            }
+            sb.append(", ").append(blob.getSize()).append(" bytes) ").append(blob).append("\n");
         }
     }
 
+    /**
+     * Sets the store attachments are written to, e.g. one shared by all accounts.
+     * @param blobStore Store for attachments.
+     */
+    public void setBlobStore(BlobStore blobStore){
+        this.blobStore = blobStore;
+    }
+
+    /**
+     * Opens the default blob store below {@link IncrementalSync#DEFAULT_DIRECTORY} if none was set.
+     * @return The blob store.
+     * @throws IOException If the store couldn't be opened.
+     */
+    private synchronized BlobStore blobStore() throws IOException {
+        if(blobStore == null) blobStore = BlobStore.open(IncrementalSync.DEFAULT_DIRECTORY.resolve("blobs"));
+
+        return blobStore;
+    }
+
     /**
      * Get the envelope of the message.
      * @param message Message to inspect
@@ -184,9 +397,15 @@ public class JavaMail {
 
     /**
      * @return List containing the Messages.
+     * @throws MessagingException If Connection-error occurred.
      */
-    public List<Message> getMessages(){
-        return Arrays.asList(messages);
+    public List<Message> getMessages() throws MessagingException {
+        return Arrays.asList(view().getMessages());
+    }
+
+    private MessageView view() throws MessagingException {
+        updateMessages();
+        return view;
     }
 
     public POP3Folder getEmailInbox() {
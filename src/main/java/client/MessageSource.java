@@ -0,0 +1,35 @@
+package client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * Backend-independent view of a maildrop. Both the socket and the JavaMail path deliver the same data through it.
+ */
+public interface MessageSource {
+    /**
+     * Lists the unique ids of all messages.
+     * @return Map from message number to unique id, ordered by message number.
+     * @throws IOException If connection disconnected, or the server doesn't support unique ids.
+     */
+    Map<Integer, String> listUids() throws IOException;
+
+    /**
+     * Lists the sizes of all messages, e.g. to schedule the fetch.
+     * @return Map from message number to size in bytes, ordered by message number. Empty if the sizes are unknown.
+     * @throws IOException If connection disconnected.
+     */
+    default Map<Integer, Long> listSizes() throws IOException {
+        return Map.of();
+    }
+
+    /**
+     * Streams a message in its raw RFC 822 form.
+     * @param messageNumber Number of the message, as used by the server.
+     * @param out Stream to write the message to. It is neither flushed nor closed.
+     * @return Number of bytes written, {@code -1} if the message doesn't exist.
+     * @throws IOException If connection disconnected, or writing was not possible.
+     */
+    long streamMessage(int messageNumber, OutputStream out) throws IOException;
+}
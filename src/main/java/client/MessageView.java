@@ -0,0 +1,107 @@
+package client;
+
+import com.sun.mail.pop3.POP3Folder;
+import metrics.Metrics;
+
+import javax.mail.FetchProfile;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.UIDFolder;
+
+/**
+ * Cached view of the messages of an open POP3 folder. The message array is listed once, sizes and unique ids are
+ * fetched on first use and kept, so showing a single message doesn't touch the rest of the inbox.
+ * <p>
+ * Sizes and unique ids are indexed by message number, index 0 is unused.
+ */
+final class MessageView {
+    private final POP3Folder folder;
+    private final Message[] messages;
+
+    private int[] sizes;
+    private String[] uids;
+
+    MessageView(POP3Folder folder) throws MessagingException {
+        this.folder = folder;
+        this.messages = folder.getMessages();
+    }
+
+    /**
+     * @return {@code true} if the folder still holds as many messages as when the view was created.
+     * @throws MessagingException If Connection-error occurred.
+     */
+    boolean isCurrent() throws MessagingException {
+        return folder.getMessageCount() == messages.length;
+    }
+
+    int getCount() {
+        return messages.length;
+    }
+
+    Message[] getMessages() {
+        return messages;
+    }
+
+    /**
+     * @param messageNumber Number of the message, starting at 1.
+     * @return The message, {@code null} if it doesn't exist.
+     */
+    Message getMessage(int messageNumber) {
+        return messageNumber < 1 || messageNumber > messages.length ? null : messages[messageNumber - 1];
+    }
+
+    /**
+     * Sizes of all messages, fetched with a single {@code LIST} on first use.
+     * @return Sizes indexed by message number, {@code -1} at index 0. Must not be modified.
+     * @throws MessagingException If Connection-error occurred.
+     */
+    int[] getSizes() throws MessagingException {
+        if(sizes == null){
+            long start = System.nanoTime();
+            int[] folderSizes = folder.getSizes();
+            Metrics.global().record(RequestTyp.LIST, start);
+            int[] indexed = new int[messages.length + 1];
+            indexed[0] = -1;
+            System.arraycopy(folderSizes, 0, indexed, 1, Math.min(folderSizes.length, messages.length));
+            sizes = indexed;
+        }
+
+        return sizes;
+    }
+
+    /**
+     * Unique ids of all messages, fetched with a single {@code UIDL} on first use.
+     * @return Unique ids indexed by message number, {@code null} at index 0. Must not be modified.
+     * @throws MessagingException If Connection-error occurred.
+     */
+    String[] getUids() throws MessagingException {
+        if(uids == null){
+            FetchProfile fetchProfile = new FetchProfile();
+            fetchProfile.add(UIDFolder.FetchProfileItem.UID);
+            long start = System.nanoTime();
+            folder.fetch(messages, fetchProfile);
+            Metrics.global().record(RequestTyp.UIDL, start);
+
+            String[] indexed = new String[messages.length + 1];
+            for (int i = 0; i < messages.length; i++)
+                indexed[i + 1] = folder.getUID(messages[i]);
+            uids = indexed;
+        }
+
+        return uids;
+    }
+
+    /**
+     * Unique id of a single message. Taken from the full list if it was already fetched, otherwise only this
+     * message is asked for.
+     * @param messageNumber Number of the message, starting at 1.
+     * @return The unique id, {@code null} if the message doesn't exist.
+     * @throws MessagingException If Connection-error occurred.
+     */
+    String getUid(int messageNumber) throws MessagingException {
+        Message message = getMessage(messageNumber);
+        if(message == null) return null;
+
+        return uids != null ? uids[messageNumber] : folder.getUID(message);
+    }
+}
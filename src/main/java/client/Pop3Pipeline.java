@@ -0,0 +1,144 @@
+package client;
+
+import metrics.Metrics;
+
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Command engine for the socket modes. If the server advertised {@code PIPELINING} in its {@code CAPA} response
+ * (RFC 2449) the queued commands are written with a single flush and the responses are matched back in order,
+ * otherwise every command waits for its response before the next one goes out.
+ */
+public final class Pop3Pipeline {
+    /**
+     * Maximum number of commands in flight. Keeps the unread responses from filling both socket buffers.
+     */
+    public static final int DEFAULT_WINDOW = 64;
+
+    private final ResponseReader bReader;
+    private final BufferedWriter bWriter;
+
+    /**
+     * {@code true} if the server supports pipelining
+     */
+    private final boolean pipelining;
+    private final int window;
+
+    /**
+     * Commands waiting for the next {@link #flush()}
+     */
+    private final List<Command> queue = new ArrayList<>();
+
+    /**
+     * Reusable buffer for the status lines
+     */
+    private final ResponseLine statusLine = new ResponseLine();
+
+    private final Metrics metrics = Metrics.global();
+
+    public Pop3Pipeline(ResponseReader bReader, BufferedWriter bWriter, boolean pipelining) {
+        this(bReader, bWriter, pipelining, DEFAULT_WINDOW);
+    }
+
+    public Pop3Pipeline(ResponseReader bReader, BufferedWriter bWriter, boolean pipelining, int window) {
+        if(window < 1) throw new IllegalArgumentException("Window has to be at least 1");
+
+        this.bReader = bReader;
+        this.bWriter = bWriter;
+        this.pipelining = pipelining;
+        this.window = pipelining ? window : 1;
+    }
+
+    /**
+     * Queues a command for the next flush.
+     * @param requestTyp Type of the command.
+     * @param argument Argument of the command, may be empty.
+     * @return This pipeline.
+     */
+    public Pop3Pipeline enqueue(RequestTyp requestTyp, String argument){
+        return enqueue(requestTyp, argument, null);
+    }
+
+    /**
+     * Queues a command whose multi-line body is streamed to the given stream instead of being split into lines.
+     * The body is written byte for byte, only the stuffed dots and the terminating line are removed.
+     * @param requestTyp Type of the command.
+     * @param argument Argument of the command, may be empty.
+     * @param body Stream the body is written to during the flush, {@code null} to read it as lines. It is neither
+     *             flushed nor closed.
+     * @return This pipeline.
+     */
+    public Pop3Pipeline enqueue(RequestTyp requestTyp, String argument, OutputStream body){
+        queue.add(new Command(requestTyp, argument == null ? "" : argument, body));
+        return this;
+    }
+
+    /**
+     * Sends all queued commands and reads their responses.
+     * @return The responses in the order the commands were queued.
+     * @throws IOException If connection disconnected, or data retrieval was not possible.
+     */
+    public List<Pop3Response> flush() throws IOException {
+        List<Pop3Response> responses = new ArrayList<>(queue.size());
+
+        try {
+            for (int start = 0; start < queue.size(); start += window) {
+                int end = Math.min(start + window, queue.size());
+
+                for (int i = start; i < end; i++) {
+                    bWriter.write((queue.get(i).requestTyp.name() + " " + queue.get(i).argument).trim());
+                    bWriter.newLine();
+                }
+                long sent = System.nanoTime();
+                bWriter.flush();
+
+                //a pipelined command is timed from the flush of its batch, as that is when the server can see it
+                for (int i = start; i < end; i++) {
+                    Command command = queue.get(i);
+                    responses.add(readResponse(command));
+                    metrics.record(command.requestTyp, sent);
+                }
+            }
+        } finally {
+            queue.clear();
+        }
+
+        return responses;
+    }
+
+    /**
+     * @return {@code true} if commands are sent in batches.
+     */
+    public boolean isPipelining() {
+        return pipelining;
+    }
+
+    private Pop3Response readResponse(Command command) throws IOException {
+        if(!bReader.readLine(statusLine)) throw new EOFException("Server closed the connection");
+
+        boolean ok = statusLine.isOk();
+        if(!ok || !command.requestTyp.isMultiLine(command.argument)) return new Pop3Response(ok, statusLine.text(), null);
+
+        if(command.body == null) return new Pop3Response(true, statusLine.text(), bReader.readMultiLine());
+
+        bReader.transferMultiLine(command.body);
+        return new Pop3Response(true, statusLine.text(), null);
+    }
+
+    private static final class Command {
+        private final RequestTyp requestTyp;
+        private final String argument;
+        private final OutputStream body;
+
+        Command(RequestTyp requestTyp, String argument, OutputStream body) {
+            this.requestTyp = requestTyp;
+            this.argument = argument;
+            this.body = body;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package client;
+
+import java.util.List;
+
+/**
+ * A single response of the server, consisting of the status line and, for multi-line commands, the body lines.
+ */
+public final class Pop3Response {
+    /**
+     * {@code true} if the status line started with {@code +OK}
+     */
+    private final boolean ok;
+    /**
+     * Status line without the leading status token
+     */
+    private final String status;
+    /**
+     * Dot-unstuffed body lines, {@code null} for single-line responses, errors and bodies streamed to a sink
+     */
+    private final List<String> lines;
+
+    public Pop3Response(boolean ok, String status, List<String> lines) {
+        this.ok = ok;
+        this.status = status;
+        this.lines = lines;
+    }
+
+    public boolean isOk() {
+        return ok;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public List<String> getLines() {
+        return lines;
+    }
+}
@@ -1,5 +1,18 @@
 package client;
 
 public enum RequestTyp {
-    USER, PASS, STAT, LIST, RETR, RSET, QUIT, DELE;
+    USER, PASS, STAT, LIST, RETR, RSET, QUIT, DELE, CAPA, UIDL, TOP, NOOP, STLS;
+
+    /**
+     * Checks whether the server answers this command with a multi-line response terminated by a single {@code .}
+     * @param argument Argument sent with the command, may be empty.
+     * @return {@code true} if a multi-line response follows the status line, otherwise {@code false}.
+     */
+    public boolean isMultiLine(String argument){
+        return switch (this){
+            case CAPA, RETR, TOP -> true;
+            case LIST, UIDL -> argument == null || argument.isBlank();
+            default -> false;
+        };
+    }
 }
@@ -0,0 +1,168 @@
+package client;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reusable buffer for a single response line, filled by {@link ResponseReader#readLine(ResponseLine)} or by a
+ * non-blocking session straight from its receive buffer.
+ * Status tokens, fields and numbers are parsed directly on the bytes, so checking a status or parsing a
+ * {@code STAT}, {@code LIST} or {@code UIDL} line creates no garbage. Strings are only created on request.
+ * <p>
+ * Fields are the whitespace-separated tokens of the line, starting at 0. On a status line field 0 is the status
+ * token, on the lines of a {@code LIST} or {@code UIDL} body it is the message number.
+ */
+public final class ResponseLine {
+    private byte[] bytes = new byte[256];
+    private int length;
+
+    /**
+     * Replaces the content with the given bytes.
+     * @param src Source array.
+     * @param offset Start of the line in the source.
+     * @param count Length of the line without line terminator.
+     */
+    public void set(byte[] src, int offset, int count) {
+        length = 0;
+        append(src, offset, count);
+    }
+
+    /**
+     * Appends bytes to the content.
+     * @param src Source array.
+     * @param offset Start of the bytes in the source.
+     * @param count Number of bytes.
+     */
+    public void append(byte[] src, int offset, int count) {
+        if(length + count > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + count));
+
+        System.arraycopy(src, offset, bytes, length, count);
+        length += count;
+    }
+
+    /**
+     * Removes a trailing carriage return.
+     */
+    public void stripCr() {
+        if(length > 0 && bytes[length - 1] == '\r') length--;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Checks the status token of the line.
+     * @return true if the line starts with {@code +OK}, False if it starts with {@code -ERR}
+     * @throws IllegalResponseException if neither status token was found.
+     */
+    public boolean isOk() {
+        if(tokenEquals(0, "+OK")) return true;
+        if(tokenEquals(0, "-ERR")) return false;
+
+        throw new IllegalResponseException("Server delivered unexpected response! Closing connection...");
+    }
+
+    /**
+     * @return {@code true} if the line is the {@code .} terminating a multi-line response.
+     */
+    public boolean isTerminator() {
+        return length == 1 && bytes[0] == '.';
+    }
+
+    /**
+     * Parses a field as a non-negative number.
+     * @param field Index of the field.
+     * @return The number.
+     * @throws IllegalResponseException If the field is missing or not a number.
+     */
+    public long numberAt(int field) {
+        int start = fieldStart(field);
+        if(start < 0 || start == length || !isDigit(bytes[start]))
+            throw new IllegalResponseException("Server delivered unexpected response! Field " + field + " is not a number");
+
+        long value = 0;
+        for (int i = start; i < length && !isSpace(bytes[i]); i++) {
+            if(!isDigit(bytes[i]))
+                throw new IllegalResponseException("Server delivered unexpected response! Field " + field + " is not a number");
+
+            value = value * 10 + (bytes[i] - '0');
+        }
+
+        return value;
+    }
+
+    /**
+     * Compares a field case-insensitively with an ASCII token.
+     * @param field Index of the field.
+     * @param token Token to compare with.
+     * @return {@code true} if the field equals the token.
+     */
+    public boolean fieldEquals(int field, String token) {
+        return tokenEquals(fieldStart(field), token);
+    }
+
+    /**
+     * @param field Index of the field.
+     * @return The field as a string, {@code null} if the line has fewer fields.
+     */
+    public String fieldAt(int field) {
+        int start = fieldStart(field);
+        if(start < 0) return null;
+
+        int end = start;
+        while (end < length && !isSpace(bytes[end])) end++;
+
+        return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The line after the status token, e.g. the greeting of the server.
+     */
+    public String text() {
+        int start = fieldStart(1);
+        return start < 0 ? "" : new String(bytes, start, length - start, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param field Index of the field.
+     * @return Position of the first byte of the field, {@code -1} if the line has fewer fields.
+     */
+    private int fieldStart(int field) {
+        int i = 0;
+        while (i < length && isSpace(bytes[i])) i++;
+
+        for (int current = 0; current < field; current++) {
+            while (i < length && !isSpace(bytes[i])) i++;
+            while (i < length && isSpace(bytes[i])) i++;
+        }
+
+        return i < length ? i : -1;
+    }
+
+    private boolean tokenEquals(int start, String token) {
+        if(start < 0 || start + token.length() > length) return false;
+
+        for (int i = 0; i < token.length(); i++) {
+            int b = bytes[start + i];
+            if(b >= 'a' && b <= 'z') b -= 32;
+            if(b != Character.toUpperCase(token.charAt(i))) return false;
+        }
+
+        int end = start + token.length();
+        return end == length || isSpace(bytes[end]);
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+}
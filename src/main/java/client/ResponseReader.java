@@ -0,0 +1,187 @@
+package client;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Byte-level reader for server responses. Status lines are decoded as text, multi-line bodies can be streamed
+ * to a sink with dot-unstuffing and terminator detection done on a fixed buffer, so the heap use doesn't depend
+ * on the size of the message.
+ */
+public final class ResponseReader implements Closeable {
+    public static final int BUFFER_SIZE = 8192;
+
+    private final InputStream in;
+    private final byte[] buffer;
+    private int position;
+    private int limit;
+
+    /**
+     * Scratch space for lines that don't fit into the remaining buffer
+     */
+    private byte[] lineBuffer = new byte[128];
+    private final DotUnstuffer unstuffer = new DotUnstuffer();
+
+    public ResponseReader(InputStream in) {
+        this(in, BUFFER_SIZE);
+    }
+
+    public ResponseReader(InputStream in, int bufferSize) {
+        this.in = in;
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Reads a single line without its line terminator.
+     * @return The line, {@code null} if the stream ended.
+     * @throws IOException If connection disconnected, or data retrieval was not possible.
+     */
+    public String readLine() throws IOException {
+        int length = 0;
+
+        while (true){
+            if(position == limit && !fill())
+                return length == 0 ? null : decode(lineBuffer, length);
+
+            for (int i = position; i < limit; i++) {
+                if(buffer[i] != '\n') continue;
+
+                int end = i > position && buffer[i - 1] == '\r' ? i - 1 : i;
+                String line;
+                if(length == 0) {
+                    line = new String(buffer, position, end - position, StandardCharsets.UTF_8);
+                } else {
+                    length = append(buffer, position, i - position, length);
+                    line = decode(lineBuffer, length);
+                }
+                position = i + 1;
+                return line;
+            }
+
+            length = append(buffer, position, limit - position, length);
+            position = limit;
+        }
+    }
+
+    /**
+     * Reads a single line into a reusable buffer, without creating any objects once the buffer has grown to the
+     * longest line.
+     * @param line Buffer receiving the line without its line terminator.
+     * @return {@code false} if the stream ended before a line was read.
+     * @throws IOException If connection disconnected, or data retrieval was not possible.
+     */
+    public boolean readLine(ResponseLine line) throws IOException {
+        line.set(buffer, 0, 0);
+        boolean any = false;
+
+        while (true){
+            if(position == limit && !fill()) {
+                line.stripCr();
+                return any;
+            }
+
+            for (int i = position; i < limit; i++) {
+                if(buffer[i] != '\n') continue;
+
+                line.append(buffer, position, i - position);
+                line.stripCr();
+                position = i + 1;
+                return true;
+            }
+
+            line.append(buffer, position, limit - position);
+            position = limit;
+            any = true;
+        }
+    }
+
+    /**
+     * Reads a multi-line body up to the terminating {@code .} and returns its dot-unstuffed lines.
+     * Only meant for small bodies such as {@code CAPA} or {@code LIST} responses.
+     * @return Lines of the body.
+     * @throws IOException If connection disconnected, or data retrieval was not possible.
+     */
+    public List<String> readMultiLine() throws IOException {
+        List<String> lines = new ArrayList<>();
+        String line;
+        while (!(line = requireLine()).equals(".")){
+            lines.add(line.startsWith(".") ? line.substring(1) : line);
+        }
+
+        return lines;
+    }
+
+    /**
+     * Streams a multi-line body to the given stream. Line terminators are kept as sent by the server,
+     * byte-stuffed dots are removed and the terminating {@code .} line is consumed but not written.
+     * @param out Stream to write the body to. It is neither flushed nor closed.
+     * @return Number of bytes written.
+     * @throws IOException If connection disconnected, or writing was not possible.
+     */
+    public long transferMultiLine(OutputStream out) throws IOException {
+        unstuffer.reset();
+
+        while (true){
+            if(position == limit && !fill()) throw new EOFException("Server closed the connection inside a response");
+
+            position += unstuffer.feed(buffer, position, limit - position, out);
+            if(unstuffer.isDone()) return unstuffer.getWritten();
+        }
+    }
+
+    /**
+     * Streams a multi-line body to the given channel.
+     * @param channel Channel to write the body to. It is not closed.
+     * @return Number of bytes written.
+     * @throws IOException If connection disconnected, or writing was not possible.
+     * @see #transferMultiLine(OutputStream)
+     */
+    public long transferMultiLine(WritableByteChannel channel) throws IOException {
+        return transferMultiLine(Channels.newOutputStream(channel));
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private String requireLine() throws IOException {
+        String line = readLine();
+        if(line == null) throw new EOFException("Server closed the connection");
+
+        return line;
+    }
+
+    private boolean fill() throws IOException {
+        int read = in.read(buffer, 0, buffer.length);
+        if(read < 0) return false;
+
+        position = 0;
+        limit = read;
+        return true;
+    }
+
+    private int append(byte[] src, int offset, int count, int length) {
+        if(length + count > lineBuffer.length)
+            lineBuffer = Arrays.copyOf(lineBuffer, Math.max(lineBuffer.length * 2, length + count));
+
+        System.arraycopy(src, offset, lineBuffer, length, count);
+        return length + count;
+    }
+
+    private static String decode(byte[] bytes, int length) {
+        int end = length > 0 && bytes[length - 1] == '\n' ? length - 1 : length;
+        if(end > 0 && bytes[end - 1] == '\r') end--;
+
+        return new String(bytes, 0, end, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,205 @@
+package client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps the signed-in session of a {@link Client} warm and repairs it when the connection died.
+ * <p>
+ * While the session is idle a {@code NOOP} is sent every keepalive interval, so the server doesn't log the user out
+ * and a dead socket is noticed before the next operation needs it. A dead session is reconnected and signed in again
+ * with the stored credentials, waiting between attempts with an exponential backoff. Operations that fail with an
+ * {@link IOException} are run once more on the new connection.
+ * <p>
+ * All managers share one scheduler thread for their keepalives.
+ */
+public final class SessionManager implements Closeable {
+    public static final long DEFAULT_KEEPALIVE_MILLIS = 60_000;
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    public static final long INITIAL_BACKOFF_MILLIS = 250;
+    public static final long MAX_BACKOFF_MILLIS = 8_000;
+
+    private static final ScheduledExecutorService KEEPALIVE = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "pop3-keepalive");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Client client;
+    private final long keepAliveNanos;
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+
+    /**
+     * Serializes operations and keepalives, the client itself is not thread-safe
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ScheduledFuture<?> keepAliveTask;
+    private volatile long lastUse = System.nanoTime();
+    /**
+     * {@code false} once the connection was found dead and not yet replaced. Guarded by {@link #lock}.
+     */
+    private boolean alive = true;
+    private volatile int reconnects;
+
+    /**
+     * Manages a signed-in client with the default keepalive interval and retry policy.
+     * @param client Connected and signed-in client.
+     */
+    public SessionManager(Client client) {
+        this(client, DEFAULT_KEEPALIVE_MILLIS, DEFAULT_MAX_ATTEMPTS, INITIAL_BACKOFF_MILLIS);
+    }
+
+    /**
+     * @param client Connected and signed-in client.
+     * @param keepAliveMillis Idle time after which a {@code NOOP} is sent.
+     * @param maxAttempts Number of connection attempts before a reconnect fails.
+     * @param initialBackoffMillis Wait after the first failed attempt, doubled after every further one up to
+     * {@link #MAX_BACKOFF_MILLIS}.
+     */
+    public SessionManager(Client client, long keepAliveMillis, int maxAttempts, long initialBackoffMillis) {
+        if(maxAttempts < 1) throw new IllegalArgumentException("At least one attempt is needed");
+
+        this.client = client;
+        this.keepAliveNanos = TimeUnit.MILLISECONDS.toNanos(keepAliveMillis);
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.keepAliveTask = KEEPALIVE.scheduleWithFixedDelay(this::keepAlive, keepAliveMillis, keepAliveMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs an operation on the session. If the connection is dead, or dies during the operation, the session is
+     * reconnected and the operation runs once more.
+     * @param operation Operation to run.
+     * @return Result of the operation.
+     * @param <T> Type of the result.
+     * @throws IOException If the operation failed on the fresh connection as well, or no connection could be made.
+     */
+    public <T> T execute(SessionOperation<T> operation) throws IOException {
+        lock.lock();
+        try {
+            if(!alive) reconnect();
+
+            try {
+                return operation.run(client);
+            } catch (IOException e) {
+                alive = false;
+                try {
+                    reconnect();
+                } catch (IOException reconnectError) {
+                    reconnectError.addSuppressed(e);
+                    throw reconnectError;
+                }
+
+                return operation.run(client);
+            }
+        } finally {
+            lastUse = System.nanoTime();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Runs an operation that changes the maildrop, e.g. deletes messages. A dead session is reconnected first, but
+     * the operation itself never runs twice: if it fails, the session is marked dead and the error is thrown.
+     * @param operation Operation to run.
+     * @return Result of the operation.
+     * @param <T> Type of the result.
+     * @throws IOException If the operation failed, or no connection could be made.
+     */
+    public <T> T executeOnce(SessionOperation<T> operation) throws IOException {
+        lock.lock();
+        try {
+            if(!alive) reconnect();
+
+            try {
+                return operation.run(client);
+            } catch (IOException e) {
+                alive = false;
+                throw e;
+            }
+        } finally {
+            lastUse = System.nanoTime();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Number of times the session was replaced by a new connection.
+     */
+    public int getReconnects() {
+        return reconnects;
+    }
+
+    /**
+     * Stops the keepalives. The session itself is closed by {@link Client#shutdownClient()}.
+     */
+    @Override
+    public void close() {
+        keepAliveTask.cancel(false);
+    }
+
+    private void keepAlive() {
+        if(System.nanoTime() - lastUse < keepAliveNanos || !lock.tryLock()) return;
+
+        try {
+            if(alive && client.noop()) return;
+
+            alive = false;
+            reconnect();
+        } catch (IOException ignored) {
+            //the next operation tries again
+        } catch (RuntimeException e) {
+            //e.g. a garbled response; escaping would cancel the keepalives for good
+            alive = false;
+            client.dropConnection();
+        } finally {
+            lastUse = System.nanoTime();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the connection, retrying with backoff.
+     * @throws IOException If no attempt succeeded or the server rejected the credentials.
+     */
+    private void reconnect() throws IOException {
+        IOException lastError = null;
+        long backoff = initialBackoffMillis;
+
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            boolean authenticated;
+            try {
+                authenticated = client.reconnect();
+            } catch (IOException e) {
+                lastError = e;
+                if(attempt < maxAttempts) sleep(backoff);
+                backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+                continue;
+            }
+
+            if(!authenticated) throw new IOException("Server rejected the credentials while reconnecting");
+
+            alive = true;
+            reconnects++;
+            return;
+        }
+
+        throw new IOException("Reconnect failed after " + maxAttempts + " attempt(s)", lastError);
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to reconnect");
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package client;
+
+import java.io.IOException;
+
+/**
+ * Work done on a signed-in session, see {@link SessionManager#execute(SessionOperation)}. An operation may be run
+ * a second time on a fresh connection, so it should only read from the server. Operations that change the maildrop
+ * go through {@link SessionManager#executeOnce(SessionOperation)}, which never repeats them.
+ * @param <T> Type of the result.
+ */
+@FunctionalInterface
+public interface SessionOperation<T> {
+    T run(Client client) throws IOException;
+}
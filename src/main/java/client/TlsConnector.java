@@ -0,0 +1,103 @@
+package client;
+
+import metrics.Metrics;
+import metrics.Phase;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.net.Socket;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Opens TLS connections through one {@link SSLContext}. The client session cache lives in the context, so every
+ * connection to a server this process has talked to before resumes the session with an abbreviated handshake
+ * instead of a full one. Sessions are looked up by host name and port, which is why the sockets are created from
+ * the name and not from a resolved address.
+ * <p>
+ * Full and resumed handshakes are recorded as {@link Phase#TLS_HANDSHAKE} and {@link Phase#TLS_RESUMPTION}.
+ */
+public final class TlsConnector {
+    private static TlsConnector shared;
+
+    private final SSLSocketFactory factory;
+    private final Metrics metrics = Metrics.global();
+
+    public TlsConnector(SSLContext context) {
+        this.factory = context.getSocketFactory();
+    }
+
+    /**
+     * @return The connector of this process, using the default {@link SSLContext} of the JVM.
+     */
+    public static synchronized TlsConnector shared() {
+        if(shared == null) {
+            try {
+                shared = new TlsConnector(SSLContext.getDefault());
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        return shared;
+    }
+
+    /**
+     * Connects to a server that speaks TLS from the first byte, e.g. POP3S on port 995.
+     * @param host Host name of the server.
+     * @param port Port
+     * @return The socket after the handshake.
+     * @throws IOException If connecting or the handshake failed.
+     */
+    public SSLSocket connect(String host, int port) throws IOException {
+        long start = System.nanoTime();
+        SSLSocket socket = (SSLSocket) factory.createSocket(host, port);
+        metrics.record(Phase.CONNECT, start);
+
+        return handshake(socket);
+    }
+
+    /**
+     * Starts TLS on an open plain connection, after the server accepted {@code STLS} (RFC 2595).
+     * @param plain Connected socket. Closing the returned socket closes it as well.
+     * @param host Host name of the server, used to verify its certificate and to find a cached session.
+     * @param port Port
+     * @return The socket after the handshake.
+     * @throws IOException If the handshake failed.
+     */
+    public SSLSocket upgrade(Socket plain, String host, int port) throws IOException {
+        return handshake((SSLSocket) factory.createSocket(plain, host, port, true));
+    }
+
+    /**
+     * @return Factory creating sockets of the shared context, e.g. for JavaMail.
+     */
+    public SSLSocketFactory getSocketFactory() {
+        return factory;
+    }
+
+    private SSLSocket handshake(SSLSocket socket) throws IOException {
+        long startMillis = System.currentTimeMillis();
+        long start = System.nanoTime();
+
+        try {
+            //the trust manager only checks the chain, the name of the server is checked as for HTTPS (RFC 2595 2.4)
+            SSLParameters parameters = socket.getSSLParameters();
+            parameters.setEndpointIdentificationAlgorithm("HTTPS");
+            socket.setSSLParameters(parameters);
+
+            socket.startHandshake();
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+
+        //a resumed session keeps the creation time of the handshake that established it
+        boolean resumed = socket.getSession().getCreationTime() < startMillis;
+        metrics.record(resumed ? Phase.TLS_RESUMPTION : Phase.TLS_HANDSHAKE, start);
+
+        return socket;
+    }
+}
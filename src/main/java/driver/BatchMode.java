@@ -0,0 +1,79 @@
+package driver;
+
+import fetch.AccountConfig;
+import fetch.FetchReport;
+import fetch.MultiAccountFetcher;
+import metrics.Metrics;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * Headless download for scheduled jobs: connects to the configured accounts, downloads all or only the new
+ * messages and prints a one-line JSON summary to standard output. Errors go to standard error.
+ * <p>
+ * The exit status is {@link #SUCCESS} if every account was fetched, {@link #FAILED} if at least one failed and
+ * {@link #USAGE} if the options were invalid.
+ */
+public final class BatchMode {
+    public static final int SUCCESS = 0;
+    public static final int FAILED = 1;
+    public static final int USAGE = 2;
+
+    private BatchMode() {}
+
+    /**
+     * Runs a download with the given command-line arguments.
+     * @param args Command-line arguments, see {@link BatchOptions#USAGE}.
+     * @param out Receiver of the JSON summary.
+     * @param err Receiver of errors and the usage.
+     * @return The exit status.
+     */
+    public static int run(String[] args, PrintStream out, PrintStream err) {
+        BatchOptions options;
+        List<AccountConfig> accounts;
+        MultiAccountFetcher fetcher;
+
+        try {
+            options = BatchOptions.parse(args);
+            accounts = options.accounts();
+            fetcher = new MultiAccountFetcher(options.dataDirectory(), options.parallelism())
+                    .exportTo(options.outputDirectory())
+                    .exportFormat(options.exportFormat())
+                    .refetch(options.fetchAll())
+                    .startTls(options.startTls())
+                    .retention(options.retention())
+                    .schedule(options.scheduler())
+                    .nonBlocking(options.nonBlocking());
+        } catch (IllegalArgumentException | IOException e) {
+            err.println(e.getMessage());
+            err.print(BatchOptions.USAGE);
+            return USAGE;
+        }
+
+        FetchReport report;
+        try {
+            report = fetcher.fetchAll(accounts);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            err.println("Interrupted");
+            return FAILED;
+        } catch (IOException e) {
+            err.println(e.getMessage());
+            return FAILED;
+        }
+
+        report.getResults().stream().filter(result -> !result.isSuccess())
+                .forEach(result -> err.println(result.getAccount() + ": " + result.getError()));
+        out.println(report.toJson());
+
+        try {
+            Metrics.global().export(options.dataDirectory().resolve("metrics"));
+        } catch (IOException e) {
+            err.println("Metrics couldn't be written: " + e.getMessage());
+        }
+
+        return report.getFailedAccounts() == 0 ? SUCCESS : FAILED;
+    }
+}
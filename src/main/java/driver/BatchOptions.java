@@ -0,0 +1,241 @@
+package driver;
+
+import export.ExportFormat;
+import fetch.AccountConfig;
+import fetch.MultiAccountFetcher;
+import sync.DownloadScheduler;
+import sync.IncrementalSync;
+import sync.RetentionPolicy;
+import util.Utility;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Settings of a headless download, read from the command line and an optional properties file. Every option is
+ * given as {@code --name value} or as {@code name=value} in the file given with {@code --config}; the command line
+ * wins over the file.
+ * <p>
+ * The password is never taken from the command line, where other users could see it: it comes from an environment
+ * variable, a file or standard input.
+ */
+final class BatchOptions {
+    static final String USAGE = """
+            Usage: Main [--config FILE] (--host HOST --port PORT --mode 1-4 --user NAME
+                        (--password-env VAR | --password-file FILE | --password-stdin) | --accounts FILE)
+                        [--out DIR] [--data DIR] [--parallelism N] [--fetch new|all] [--stls]
+                        [--retention stored|days:N|mb:N] [--format eml|mbox|mbox.gz|maildir]
+                        [--order arrival|smallest|round-robin] [--large-message MB] [--account-budget MB]
+                        [--run-budget MB] [--engine blocking|nio]
+
+              --mode         1 plain socket, 2 TLS socket, 3 JavaMail, 4 JavaMail over TLS
+              --accounts     one account per line: host port mode user password
+              --out          write the messages into an archive per account in DIR, default: the message store
+              --format       layout of the archives: <uid>.eml files in DIR/<account> (default), DIR/<account>.mbox,
+                             DIR/<account>.mbox.gz compressed on all cores, or a Maildir in DIR/<account>
+              --data         directory of sync state and message store, default ~/.mailclient
+              --parallelism  number of accounts fetched at the same time, default 64
+              --fetch        new: only messages missing since the last run (default), all: every message
+              --stls         upgrade plain connections (mode 1) to TLS with STLS before signing in
+              --order        arrival: server order (default), smallest: smallest messages first,
+                             round-robin: server order with the bytes shared evenly across the accounts
+              --large-message  fetch messages of at least MB after all others, default 10
+              --account-budget  at most MB per account and run, the rest waits for the next run
+              --run-budget   at most MB for all accounts together
+              --retention    after the fetch delete stored messages from the server: all of them (stored),
+                             the ones older than N days (days:N) or the oldest until the rest is under N MB (mb:N)
+              --engine       blocking: a session per thread (default), nio: all sessions on one selector thread,
+                             modes 1 and 2 only and without --stls, --retention and the scheduling options
+            """;
+
+    private static final Set<String> OPTIONS = Set.of("config", "host", "port", "mode", "user", "password-env",
+            "password-file", "accounts", "out", "data", "parallelism", "fetch", "retention", "format", "order",
+            "large-message", "account-budget", "run-budget", "engine");
+    private static final Set<String> FLAGS = Set.of("password-stdin", "stls");
+
+    private final Properties values = new Properties();
+
+    private BatchOptions() {}
+
+    /**
+     * @param args Command-line arguments.
+     * @return The parsed options.
+     * @throws IllegalArgumentException If an option is unknown, misses its value or the config file is unreadable.
+     */
+    static BatchOptions parse(String[] args) {
+        BatchOptions options = new BatchOptions();
+        Properties commandLine = new Properties();
+
+        for (int i = 0; i < args.length; i++) {
+            if(!args[i].startsWith("--")) throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+
+            String name = args[i].substring(2);
+            if(FLAGS.contains(name)) {
+                commandLine.setProperty(name, "true");
+            } else if(OPTIONS.contains(name)) {
+                if(i + 1 == args.length) throw new IllegalArgumentException("Missing value of --" + name);
+                commandLine.setProperty(name, args[++i]);
+            } else {
+                throw new IllegalArgumentException("Unknown option: --" + name);
+            }
+        }
+
+        String config = commandLine.getProperty("config");
+        if(config != null) {
+            try (Reader reader = Files.newBufferedReader(Path.of(config))) {
+                options.values.load(reader);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Config file can't be read: " + config, e);
+            }
+
+            for (String name : options.values.stringPropertyNames())
+                if(!OPTIONS.contains(name) && !FLAGS.contains(name))
+                    throw new IllegalArgumentException(config + ": unknown option " + name);
+        }
+        options.values.putAll(commandLine);
+
+        return options;
+    }
+
+    /**
+     * Builds the accounts to fetch, either the single account of the options or the accounts file.
+     * @return The accounts.
+     * @throws IOException If the accounts file or the password couldn't be read.
+     * @throws IllegalArgumentException If a required option is missing or malformed.
+     */
+    List<AccountConfig> accounts() throws IOException {
+        String accounts = values.getProperty("accounts");
+        if(accounts != null) return AccountConfig.load(Path.of(accounts));
+
+        String port = require("port");
+        String mode = require("mode");
+        if(!Utility.isPositiveInteger(port)) throw new IllegalArgumentException("Port is not a number: " + port);
+        if(!Utility.checkIntegerInBounds(1, 4, mode)) throw new IllegalArgumentException("Mode has to be 1-4: " + mode);
+
+        return List.of(new AccountConfig(require("host"), Integer.parseInt(port), Integer.parseInt(mode),
+                require("user"), password()));
+    }
+
+    /**
+     * @return Directory the messages are exported to, {@code null} to fetch into the message store.
+     */
+    Path outputDirectory() {
+        String out = values.getProperty("out");
+        return out == null ? null : Path.of(out);
+    }
+
+    /**
+     * @return Scheduler of the fetch, {@code null} if no scheduling option was given.
+     */
+    DownloadScheduler scheduler() {
+        if(!values.containsKey("order") && !values.containsKey("large-message") &&
+                !values.containsKey("account-budget") && !values.containsKey("run-budget")) return null;
+
+        DownloadScheduler scheduler = new DownloadScheduler(DownloadScheduler.Policy.parse(values.getProperty("order", "arrival")));
+        if(values.containsKey("large-message")) scheduler.largeMessage(megabytes("large-message"));
+        if(values.containsKey("account-budget")) scheduler.accountBudget(megabytes("account-budget"));
+        if(values.containsKey("run-budget")) scheduler.runBudget(megabytes("run-budget"));
+
+        return scheduler;
+    }
+
+    ExportFormat exportFormat() {
+        return ExportFormat.parse(values.getProperty("format", "eml"));
+    }
+
+    Path dataDirectory() {
+        String data = values.getProperty("data");
+        return data == null ? IncrementalSync.DEFAULT_DIRECTORY : Path.of(data);
+    }
+
+    int parallelism() {
+        String parallelism = values.getProperty("parallelism", String.valueOf(MultiAccountFetcher.DEFAULT_CONCURRENCY));
+        if(!Utility.isPositiveInteger(parallelism) || Integer.parseInt(parallelism) < 1)
+            throw new IllegalArgumentException("Parallelism has to be a positive number: " + parallelism);
+
+        return Integer.parseInt(parallelism);
+    }
+
+    /**
+     * @return {@code true} if every message is fetched, {@code false} if only the new ones are.
+     */
+    boolean fetchAll() {
+        String fetch = values.getProperty("fetch", "new");
+        return switch (fetch){
+            case "all" -> true;
+            case "new" -> false;
+            default -> throw new IllegalArgumentException("--fetch has to be new or all: " + fetch);
+        };
+    }
+
+    /**
+     * @return {@code true} if the accounts are fetched by the non-blocking engine.
+     */
+    boolean nonBlocking() {
+        String engine = values.getProperty("engine", "blocking");
+        boolean nonBlocking = switch (engine){
+            case "nio" -> true;
+            case "blocking" -> false;
+            default -> throw new IllegalArgumentException("--engine has to be blocking or nio: " + engine);
+        };
+
+        if(nonBlocking && (startTls() || retention() != null || scheduler() != null))
+            throw new IllegalArgumentException("--engine nio supports neither --stls, --retention nor the scheduling options");
+
+        return nonBlocking;
+    }
+
+    boolean startTls() {
+        return Boolean.parseBoolean(values.getProperty("stls"));
+    }
+
+    /**
+     * @return Policy deleting messages after the fetch, {@code null} if messages are left on the server.
+     */
+    RetentionPolicy retention() {
+        String retention = values.getProperty("retention");
+        return retention == null ? null : RetentionPolicy.parse(retention);
+    }
+
+    private String password() throws IOException {
+        String variable = values.getProperty("password-env");
+        if(variable != null) {
+            String password = System.getenv(variable);
+            if(password == null) throw new IllegalArgumentException("Environment variable " + variable + " is not set");
+            return password;
+        }
+
+        String file = values.getProperty("password-file");
+        if(file != null) return Files.readString(Path.of(file)).strip();
+
+        if(Boolean.parseBoolean(values.getProperty("password-stdin"))) {
+            String password = new BufferedReader(new InputStreamReader(System.in)).readLine();
+            if(password == null) throw new IllegalArgumentException("No password on standard input");
+            return password;
+        }
+
+        throw new IllegalArgumentException("One of --password-env, --password-file or --password-stdin is required");
+    }
+
+    private long megabytes(String name) {
+        String value = values.getProperty(name);
+        if(!Utility.isPositiveInteger(value) || value.length() > 12)
+            throw new IllegalArgumentException("--" + name + " has to be a number of MB: " + value);
+
+        return Long.parseLong(value) * 1_000_000L;
+    }
+
+    private String require(String name) {
+        String value = values.getProperty(name);
+        if(value == null) throw new IllegalArgumentException("Missing option --" + name);
+
+        return value;
+    }
+}
@@ -4,8 +4,14 @@ import client.Client;
 
 public class Main {
 
+    /**
+     * Starts the interactive client, or a headless download if any arguments are given.
+     * @param args Options of the headless download, see {@link BatchMode}.
+     */
     public static void main(String[] args) {
+        if(args.length > 0) System.exit(BatchMode.run(args, System.out, System.err));
+
         new Client().startClient();
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,57 @@
+package export;
+
+import sync.DirectorySink;
+import sync.MessageSink;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Layouts messages can be exported in.
+ */
+public enum ExportFormat {
+    /**
+     * One {@code <uid>.eml} file per message
+     */
+    EML,
+    /**
+     * One mbox file
+     */
+    MBOX,
+    /**
+     * One mbox file, gzip-compressed in parallel
+     */
+    MBOX_GZ,
+    MAILDIR;
+
+    /**
+     * @param name Name as given on the command line: {@code eml}, {@code mbox}, {@code mbox.gz} or {@code maildir}.
+     * @return The format.
+     * @throws IllegalArgumentException If the name is unknown.
+     */
+    public static ExportFormat parse(String name) {
+        return switch (name.toLowerCase()){
+            case "eml" -> EML;
+            case "mbox" -> MBOX;
+            case "mbox.gz" -> MBOX_GZ;
+            case "maildir" -> MAILDIR;
+            default -> throw new IllegalArgumentException("Format has to be eml, mbox, mbox.gz or maildir: " + name);
+        };
+    }
+
+    /**
+     * Opens the sink of one archive.
+     * @param directory Parent directory of the archive.
+     * @param name Name of the archive, e.g. the account; the mbox formats add their file extension.
+     * @return The sink. The mbox sinks have to be closed.
+     * @throws IOException If the archive couldn't be opened.
+     */
+    public MessageSink open(Path directory, String name) throws IOException {
+        return switch (this){
+            case EML -> new DirectorySink(directory.resolve(name));
+            case MBOX -> new MboxSink(directory.resolve(name + ".mbox"), false);
+            case MBOX_GZ -> new MboxSink(directory.resolve(name + ".mbox.gz"), true);
+            case MAILDIR -> new MaildirSink(directory.resolve(name));
+        };
+    }
+}
@@ -0,0 +1,160 @@
+package export;
+
+import sync.MessageSink;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Delivers messages into a Maildir: every message is written to {@code tmp} and moved to {@code new} on commit,
+ * so readers never see a partial file.
+ * <p>
+ * File names are {@code <seconds>.U<hex of the unique id>.<host>,S=<size>}. The unique id in the name lets
+ * {@link #contains(String)} answer from a directory listing taken on opening.
+ */
+public final class MaildirSink implements MessageSink {
+    private final Path directory;
+    private final String host;
+
+    /**
+     * Committed messages by unique id, the ones found on opening and the ones delivered since
+     */
+    private final Map<String, Path> delivered = new HashMap<>();
+    /**
+     * Base names of the messages being written, by unique id
+     */
+    private final Map<String, String> writing = new HashMap<>();
+    /**
+     * Files moved to {@code new} since the last {@link #force()}
+     */
+    private final List<Path> unsynced = new ArrayList<>();
+
+    /**
+     * @param directory The Maildir, created with its {@code tmp}, {@code new} and {@code cur} directories if needed.
+     * @throws IOException If the directories couldn't be created or listed.
+     */
+    public MaildirSink(Path directory) throws IOException {
+        this.directory = directory;
+        for (String sub : new String[]{"tmp", "new", "cur"}) Files.createDirectories(directory.resolve(sub));
+
+        this.host = hostName();
+        for (String sub : new String[]{"new", "cur"}) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory.resolve(sub))) {
+                for (Path file : files) {
+                    String uid = uidOf(file.getFileName().toString());
+                    if(uid != null) delivered.put(uid, file);
+                }
+            }
+        }
+    }
+
+    @Override
+    public OutputStream open(String uid) throws IOException {
+        String name = System.currentTimeMillis() / 1000 + ".U" +
+                HexFormat.of().formatHex(uid.getBytes(StandardCharsets.UTF_8)) + "." + host;
+        writing.put(uid, name);
+
+        return new BufferedOutputStream(Files.newOutputStream(directory.resolve("tmp").resolve(name)));
+    }
+
+    @Override
+    public void commit(String uid, long size) throws IOException {
+        String name = writing.remove(uid);
+        if(name == null) throw new IllegalStateException("Message wasn't opened: " + uid);
+
+        Path target = directory.resolve("new").resolve(name + ",S=" + size);
+        Files.move(directory.resolve("tmp").resolve(name), target, StandardCopyOption.ATOMIC_MOVE);
+
+        Path previous = delivered.put(uid, target);
+        if(previous != null && !previous.equals(target)) Files.deleteIfExists(previous);
+        unsynced.add(target);
+    }
+
+    @Override
+    public void abort(String uid) throws IOException {
+        String name = writing.remove(uid);
+        if(name != null) Files.deleteIfExists(directory.resolve("tmp").resolve(name));
+    }
+
+    @Override
+    public boolean contains(String uid) {
+        return delivered.containsKey(uid);
+    }
+
+    @Override
+    public InputStream openCommitted(String uid) throws IOException {
+        Path file = delivered.get(uid);
+        if(file == null) throw new NoSuchFileException(uid);
+
+        return Files.newInputStream(file);
+    }
+
+    /**
+     * Syncs the messages delivered since the last call and then {@code new}, which makes the moves durable.
+     */
+    @Override
+    public void force() throws IOException {
+        if(unsynced.isEmpty()) return;
+
+        for (Path file : unsynced) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                channel.force(true);
+            }
+        }
+        unsynced.clear();
+
+        try (FileChannel channel = FileChannel.open(directory.resolve("new"), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) {
+            //not every file system lets a directory be opened
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @param name File name in {@code new} or {@code cur}.
+     * @return The unique id encoded in a name written by this sink, {@code null} for other names.
+     */
+    static String uidOf(String name) {
+        int first = name.indexOf('.');
+        int second = name.indexOf('.', first + 1);
+        if(first < 0 || second < 0 || name.charAt(first + 1) != 'U') return null;
+
+        try {
+            return new String(HexFormat.of().parseHex(name, first + 2, second), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String hostName() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            host = "localhost";
+        }
+
+        //'/' and ':' aren't allowed in a Maildir name
+        return host.replace("/", "\\057").replace(":", "\\072").replace(".", "\\056");
+    }
+}
@@ -0,0 +1,122 @@
+package export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes one message into an mbox in the mboxrd variant: line ends become {@code LF} and every line matching
+ * {@code >*From } gets one more {@code >}, so a reader can undo the quoting exactly. Closing the stream ends the
+ * message with a blank line and leaves the underlying stream open.
+ * <p>
+ * Runs of ordinary bytes are passed through unchanged, only line starts are looked at byte by byte.
+ */
+final class MboxEscapingOutputStream extends OutputStream {
+    private static final byte[] FROM = "From ".getBytes(StandardCharsets.US_ASCII);
+
+    private final OutputStream out;
+
+    /**
+     * {@code true} at the start of a line, until it is clear whether the line needs quoting
+     */
+    private boolean lineStart = true;
+    /**
+     * Number of {@code >} and of {@code From } characters seen at the current line start and not yet written
+     */
+    private int quotes;
+    private int matched;
+    /**
+     * {@code true} if the last byte was a {@code CR} that hasn't been written
+     */
+    private boolean cr;
+
+    private boolean closed;
+
+    MboxEscapingOutputStream(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        handle((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        int end = off + len;
+        int run = off;
+
+        for (int i = off; i < end; i++) {
+            byte c = b[i];
+            if(!lineStart && !cr && c != '\r' && c != '\n') continue;
+
+            if(run < i) out.write(b, run, i - run);
+            run = i + 1;
+            handle(c);
+        }
+
+        if(run < end) out.write(b, run, end - run);
+    }
+
+    /**
+     * Ends the message. The underlying stream is neither flushed nor closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if(closed) return;
+
+        closed = true;
+        if(cr) {
+            cr = false;
+            process((byte) '\r');
+        }
+        if(lineStart && (quotes > 0 || matched > 0)) writePending();
+        if(!lineStart) out.write('\n');
+
+        //blank line before the next separator
+        out.write('\n');
+    }
+
+    private void handle(byte c) throws IOException {
+        if(cr) {
+            cr = false;
+            if(c != '\n') process((byte) '\r');
+        }
+
+        if(c == '\r') cr = true;
+        else process(c);
+    }
+
+    private void process(byte c) throws IOException {
+        if(lineStart) {
+            if(matched == 0 && c == '>') {
+                quotes++;
+                return;
+            }
+            if(c == FROM[matched]) {
+                if(++matched < FROM.length) return;
+
+                out.write('>');
+                writePending();
+                return;
+            }
+
+            writePending();
+        }
+
+        out.write(c);
+        if(c == '\n') lineStart = true;
+    }
+
+    /**
+     * Writes the held back line start and ends the check of the line.
+     */
+    private void writePending() throws IOException {
+        for (int i = 0; i < quotes; i++) out.write('>');
+        out.write(FROM, 0, matched);
+
+        quotes = 0;
+        matched = 0;
+        lineStart = false;
+    }
+}
@@ -0,0 +1,141 @@
+package export;
+
+import sync.MessageSink;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Writes messages into one mbox file in the mboxrd variant, optionally gzip-compressed on all cores with
+ * {@link ParallelGzipOutputStream}. Messages are streamed into the file as they arrive; a message that is aborted
+ * is cut off again, so the file only ever holds complete messages.
+ * <p>
+ * An mbox has no index, so {@link #contains(String)} only knows the messages committed through this sink. An
+ * existing file is emptied on opening, every export rebuilds the archive instead of appending duplicates.
+ */
+public final class MboxSink implements MessageSink, Closeable {
+    private static final DateTimeFormatter ASCTIME = DateTimeFormatter.ofPattern("EEE MMM ppd HH:mm:ss yyyy", Locale.US);
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path file;
+    private final FileChannel channel;
+    /**
+     * {@code null} if the file isn't compressed
+     */
+    private final ParallelGzipOutputStream gzip;
+    private final OutputStream archive;
+
+    /**
+     * Position of the message being written in an uncompressed file
+     */
+    private long messageStart;
+    /**
+     * Unique id of the message being written, {@code null} if none
+     */
+    private String writing;
+    private final Set<String> committed = new HashSet<>();
+
+    /**
+     * @param file The mbox, created if it doesn't exist and emptied if it does.
+     * @param compressed {@code true} to write gzip members, e.g. for a {@code .mbox.gz} file.
+     * @throws IOException If the file couldn't be opened.
+     */
+    public MboxSink(Path file, boolean compressed) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if(parent != null) Files.createDirectories(parent);
+
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+
+        this.gzip = compressed ? new ParallelGzipOutputStream(channel) : null;
+        this.archive = compressed ? gzip : new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+    }
+
+    @Override
+    public OutputStream open(String uid) throws IOException {
+        if(gzip != null) {
+            gzip.mark();
+        } else {
+            archive.flush();
+            messageStart = channel.position();
+        }
+        writing = uid;
+
+        String separator = "From MAILER-DAEMON " + ASCTIME.format(ZonedDateTime.now(ZoneOffset.UTC)) + "\n";
+        archive.write(separator.getBytes(StandardCharsets.US_ASCII));
+
+        //closing the message must not close the archive
+        return new MboxEscapingOutputStream(new FilterOutputStream(archive) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() {}
+        });
+    }
+
+    @Override
+    public void commit(String uid, long size) {
+        writing = null;
+        committed.add(uid);
+    }
+
+    @Override
+    public void abort(String uid) throws IOException {
+        if(!uid.equals(writing)) return;
+
+        writing = null;
+        if(gzip != null) {
+            gzip.reset();
+        } else {
+            archive.flush();
+            channel.truncate(messageStart);
+            channel.position(messageStart);
+        }
+    }
+
+    @Override
+    public boolean contains(String uid) {
+        return committed.contains(uid);
+    }
+
+    /**
+     * Writes the buffered messages, compressing them first, and syncs the file.
+     */
+    @Override
+    public void force() throws IOException {
+        archive.flush();
+        channel.force(false);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            archive.close();
+        } finally {
+            channel.close();
+        }
+    }
+}
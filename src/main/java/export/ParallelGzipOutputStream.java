@@ -0,0 +1,227 @@
+package export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip stream that compresses on many cores. The data is cut into chunks and every chunk is deflated into a gzip
+ * member of its own on a {@link ForkJoinPool}; the members are written in order, and concatenated members are
+ * a valid gzip file (RFC 1952). At most {@code maxPending} chunks are in flight, so memory stays bounded no matter
+ * how much is written.
+ * <p>
+ * The stream can go back to a {@link #mark()}, e.g. to drop a message that failed half-way. Chunks written since
+ * are cut off the file and the part of the marked chunk before the mark is kept.
+ * <p>
+ * The channel is written from its current position and is not closed with the stream.
+ */
+public final class ParallelGzipOutputStream extends OutputStream {
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final FileChannel channel;
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+    private final int maxPending;
+    private final int level;
+
+    /**
+     * Chunks being compressed, in file order
+     */
+    private final Deque<Chunk> pending = new ArrayDeque<>();
+
+    private byte[] buffer;
+    private int count;
+    /**
+     * Sequence number of the chunk in {@link #buffer}
+     */
+    private long sequence;
+
+    /**
+     * Chunk and offset of the mark, {@code -1} if there is none
+     */
+    private long markSequence = -1;
+    private int markOffset;
+    /**
+     * Data of the marked chunk before the mark, kept once the chunk is submitted
+     */
+    private byte[] markPrefix;
+    /**
+     * File position the marked chunk was written to, {@code -1} until it is written
+     */
+    private long markPosition = -1;
+
+    private boolean closed;
+
+    /**
+     * Compresses on the common pool with twice as many chunks in flight as it has threads.
+     * @param channel Channel to write the gzip members to.
+     */
+    public ParallelGzipOutputStream(FileChannel channel) {
+        this(channel, ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE, 2 * ForkJoinPool.commonPool().getParallelism(),
+                Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public ParallelGzipOutputStream(FileChannel channel, ForkJoinPool pool, int chunkSize, int maxPending, int level) {
+        if(chunkSize < 1 || maxPending < 1) throw new IllegalArgumentException("Chunk size and pending chunks have to be positive");
+
+        this.channel = channel;
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+        this.maxPending = maxPending;
+        this.level = level;
+        this.buffer = new byte[chunkSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if(count == buffer.length) submit();
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if(count == buffer.length) submit();
+
+            int n = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Remembers the current position, replacing an earlier mark.
+     */
+    public void mark() {
+        markSequence = sequence;
+        markOffset = count;
+        markPrefix = null;
+        markPosition = -1;
+    }
+
+    /**
+     * Drops everything written since the last {@link #mark()}.
+     * @throws IOException If the file couldn't be cut back.
+     * @throws IllegalStateException If there is no mark.
+     */
+    public void reset() throws IOException {
+        if(markSequence < 0) throw new IllegalStateException("No mark");
+
+        if(markSequence != sequence) {
+            drain();
+            channel.truncate(markPosition);
+            channel.position(markPosition);
+
+            System.arraycopy(markPrefix, 0, buffer, 0, markOffset);
+            sequence = markSequence;
+            markPrefix = null;
+            markPosition = -1;
+        }
+        count = markOffset;
+    }
+
+    /**
+     * Compresses the buffered data and writes all members. Forcing the channel is up to the caller.
+     */
+    @Override
+    public void flush() throws IOException {
+        if(count > 0) submit();
+        drain();
+    }
+
+    /**
+     * Writes the remaining data. The channel stays open.
+     */
+    @Override
+    public void close() throws IOException {
+        if(closed) return;
+
+        closed = true;
+        flush();
+    }
+
+    private void submit() throws IOException {
+        if(pending.size() >= maxPending) writeOldest();
+
+        byte[] data = buffer;
+        int length = count;
+        if(sequence == markSequence) markPrefix = Arrays.copyOf(data, markOffset);
+
+        pending.add(new Chunk(sequence, CompletableFuture.supplyAsync(() -> compress(data, length, level), pool)));
+        buffer = new byte[chunkSize];
+        count = 0;
+        sequence++;
+    }
+
+    private void drain() throws IOException {
+        while (!pending.isEmpty()) writeOldest();
+    }
+
+    private void writeOldest() throws IOException {
+        Chunk chunk = pending.poll();
+
+        ByteBuffer member;
+        try {
+            member = chunk.member.join();
+        } catch (CompletionException e) {
+            throw new IOException("Compression failed", e.getCause());
+        }
+
+        if(chunk.sequence == markSequence) markPosition = channel.position();
+        while (member.hasRemaining()) channel.write(member);
+    }
+
+    /**
+     * Deflates one chunk into a complete gzip member.
+     */
+    private static ByteBuffer compress(byte[] data, int length, int level) {
+        Deflater deflater = new Deflater(level, true);
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+
+        byte[] out = new byte[HEADER.length + length + length / 1000 + 64];
+        System.arraycopy(HEADER, 0, out, 0, HEADER.length);
+        int size = HEADER.length;
+
+        try {
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            while (!deflater.finished()) {
+                if(size == out.length) out = Arrays.copyOf(out, out.length * 2);
+                size += deflater.deflate(out, size, out.length - size);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        if(out.length - size < 8) out = Arrays.copyOf(out, size + 8);
+        ByteBuffer member = ByteBuffer.wrap(out, 0, size + 8);
+        member.order(ByteOrder.LITTLE_ENDIAN).putInt(size, (int) crc.getValue()).putInt(size + 4, length);
+
+        return member;
+    }
+
+    private static final class Chunk {
+        private final long sequence;
+        private final CompletableFuture<ByteBuffer> member;
+
+        Chunk(long sequence, CompletableFuture<ByteBuffer> member) {
+            this.sequence = sequence;
+            this.member = member;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package fetch;
+
+import sync.IncrementalSync;
+import util.Utility;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Connection settings of one mailbox.
+ */
+public final class AccountConfig {
+    private final String host;
+    private final int port;
+    /**
+     * Type of connection, as in the socket selector (1-4)
+     */
+    private final int socketType;
+    private final String username;
+    private final String password;
+
+    public AccountConfig(String host, int port, int socketType, String username, String password) {
+        if(socketType < 1 || socketType > 4) throw new IllegalArgumentException("Unknown socket type: " + socketType);
+
+        this.host = host;
+        this.port = port;
+        this.socketType = socketType;
+        this.username = username;
+        this.password = password;
+    }
+
+    /**
+     * Reads an account list. Every non-empty line that doesn't start with {@code #} holds one account as
+     * {@code host port type username password}, separated by whitespace.
+     * @param file File to read.
+     * @return The accounts in file order.
+     * @throws IOException If the file couldn't be read or a line is malformed.
+     */
+    public static List<AccountConfig> load(Path file) throws IOException {
+        List<AccountConfig> accounts = new ArrayList<>();
+        int lineNumber = 0;
+
+        for (String line : Files.readAllLines(file)) {
+            lineNumber++;
+            line = line.trim();
+            if(line.isEmpty() || line.startsWith("#")) continue;
+
+            String[] tokens = line.split("\\s+");
+            if(tokens.length != 5 || !Utility.isPositiveInteger(tokens[1]) || !Utility.checkIntegerInBounds(1, 4, tokens[2]))
+                throw new IOException(file + ":" + lineNumber + ": expected \"host port type username password\"");
+
+            accounts.add(new AccountConfig(tokens[0], Integer.parseInt(tokens[1]), Integer.parseInt(tokens[2]),
+                    tokens[3], tokens[4]));
+        }
+
+        return accounts;
+    }
+
+    /**
+     * @return Key of the account in the sync state and the message store.
+     */
+    public String accountKey() {
+        return IncrementalSync.accountKey(username, host, port);
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getSocketType() {
+        return socketType;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+}
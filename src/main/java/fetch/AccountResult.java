@@ -0,0 +1,69 @@
+package fetch;
+
+/**
+ * Outcome of fetching one account.
+ */
+public final class AccountResult {
+    private final String account;
+    private final int messages;
+    private final long bytes;
+    /**
+     * Number of missing messages the scheduler left for a later run
+     */
+    private final int deferred;
+    /**
+     * Number of messages deleted from the server by the retention policy
+     */
+    private final int deleted;
+    private final long durationNanos;
+    /**
+     * Reason of the failure, {@code null} if the account was fetched completely
+     */
+    private final String error;
+
+    public AccountResult(String account, int messages, long bytes, long durationNanos, String error) {
+        this(account, messages, bytes, 0, 0, durationNanos, error);
+    }
+
+    public AccountResult(String account, int messages, long bytes, int deferred, int deleted, long durationNanos, String error) {
+        this.account = account;
+        this.messages = messages;
+        this.bytes = bytes;
+        this.deferred = deferred;
+        this.deleted = deleted;
+        this.durationNanos = durationNanos;
+        this.error = error;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    public String getAccount() {
+        return account;
+    }
+
+    public int getMessages() {
+        return messages;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public int getDeferred() {
+        return deferred;
+    }
+
+    public int getDeleted() {
+        return deleted;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
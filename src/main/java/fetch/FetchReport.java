@@ -0,0 +1,110 @@
+package fetch;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Aggregated outcome of a multi-account fetch.
+ */
+public final class FetchReport {
+    private final List<AccountResult> results;
+    private final long elapsedNanos;
+
+    public FetchReport(List<AccountResult> results, long elapsedNanos) {
+        this.results = results;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public List<AccountResult> getResults() {
+        return results;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public long getMessages() {
+        return results.stream().mapToLong(AccountResult::getMessages).sum();
+    }
+
+    public long getBytes() {
+        return results.stream().mapToLong(AccountResult::getBytes).sum();
+    }
+
+    public long getDeferred() {
+        return results.stream().mapToLong(AccountResult::getDeferred).sum();
+    }
+
+    public long getDeleted() {
+        return results.stream().mapToLong(AccountResult::getDeleted).sum();
+    }
+
+    public long getFailedAccounts() {
+        return results.stream().filter(result -> !result.isSuccess()).count();
+    }
+
+    public double messagesPerSecond() {
+        return elapsedNanos == 0 ? 0 : getMessages() / (elapsedNanos / 1e9);
+    }
+
+    public double bytesPerSecond() {
+        return elapsedNanos == 0 ? 0 : getBytes() / (elapsedNanos / 1e9);
+    }
+
+    /**
+     * @return The totals and the result of every account as a single line of JSON.
+     */
+    public String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"accounts\":").append(results.size())
+                .append(",\"failed\":").append(getFailedAccounts())
+                .append(",\"messages\":").append(getMessages())
+                .append(",\"bytes\":").append(getBytes())
+                .append(",\"deferred\":").append(getDeferred())
+                .append(",\"deleted\":").append(getDeleted())
+                .append(",\"duration_ms\":").append(elapsedNanos / 1_000_000)
+                .append(",\"messages_per_second\":").append(String.format(Locale.ROOT, "%.1f", messagesPerSecond()))
+                .append(",\"bytes_per_second\":").append(String.format(Locale.ROOT, "%.0f", bytesPerSecond()))
+                .append(",\"results\":[");
+
+        for (int i = 0; i < results.size(); i++) {
+            AccountResult result = results.get(i);
+            if(i > 0) sb.append(",");
+            sb.append("{\"account\":").append(quote(result.getAccount()))
+                    .append(",\"messages\":").append(result.getMessages())
+                    .append(",\"bytes\":").append(result.getBytes())
+                    .append(",\"deferred\":").append(result.getDeferred())
+                    .append(",\"deleted\":").append(result.getDeleted())
+                    .append(",\"duration_ms\":").append(result.getDurationNanos() / 1_000_000)
+                    .append(",\"error\":").append(result.isSuccess() ? "null" : quote(result.getError())).append("}");
+        }
+
+        return sb.append("]}").toString();
+    }
+
+    private static String quote(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c){
+                case '"', '\\' -> sb.append('\\').append(c);
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if(c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+                }
+            }
+        }
+
+        return sb.append('"').toString();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d account(s), %d failed, %d message(s), %.2fMB in %.2fs (%.1f msg/s, %.2fMB/s)",
+                results.size(), getFailedAccounts(), getMessages(), getBytes() / 1e6, elapsedNanos / 1e9,
+                messagesPerSecond(), bytesPerSecond() / 1e6);
+    }
+}
@@ -0,0 +1,436 @@
+package fetch;
+
+import animation.ProgressRenderer;
+import client.Client;
+import client.JavaMail;
+import export.ExportFormat;
+import nio.NioPop3Engine;
+import store.MessageStore;
+import sync.DownloadJournal;
+import sync.DownloadScheduler;
+import sync.IncrementalSync;
+import sync.MessageSink;
+import sync.RetentionPolicy;
+import sync.RetentionResult;
+import sync.SyncResult;
+import sync.SyncState;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Fetches the new messages of many accounts in parallel, each POP3 session on its own thread.
+ * <p>
+ * On a runtime with virtual threads every account gets a virtual thread and a semaphore bounds the number of open
+ * sessions. Older runtimes fall back to a fixed pool of platform threads of the same size. With
+ * {@link #nonBlocking(boolean)} the sessions run on one {@link NioPop3Engine} instead, and the account threads only
+ * wait for them.
+ */
+public final class MultiAccountFetcher {
+    public static final int DEFAULT_CONCURRENCY = 64;
+
+    private final Path dataDirectory;
+    private final int concurrency;
+
+    /**
+     * Directory the messages are written to as {@code .eml} files, {@code null} to use the message store
+     */
+    private Path exportDirectory;
+    private ExportFormat exportFormat = ExportFormat.EML;
+    /**
+     * Whether messages fetched in earlier runs are fetched again
+     */
+    private boolean refetch;
+    /**
+     * Whether plain connections are upgraded with {@code STLS}
+     */
+    private boolean startTls;
+    /**
+     * Policy deleting stored messages from the server after the fetch, {@code null} to keep all
+     */
+    private RetentionPolicy retention;
+    /**
+     * Order and byte budgets of the fetch, {@code null} to fetch everything in server order
+     */
+    private DownloadScheduler scheduler;
+    /**
+     * Whether the sessions run on a {@link NioPop3Engine} instead of a blocking client each
+     */
+    private boolean nonBlocking;
+
+    /**
+     * Live counters over all accounts, updated after every stored message
+     */
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+
+    public MultiAccountFetcher(Path dataDirectory, int concurrency) {
+        if(concurrency < 1) throw new IllegalArgumentException("Concurrency has to be at least 1");
+
+        this.dataDirectory = dataDirectory;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Writes the messages as files into a directory per account instead of the message store. Every message is
+     * streamed into its file and renamed once complete.
+     * @param exportDirectory Parent directory of the account directories.
+     * @return This fetcher.
+     */
+    public MultiAccountFetcher exportTo(Path exportDirectory) {
+        this.exportDirectory = exportDirectory;
+        return this;
+    }
+
+    /**
+     * @param exportFormat Layout of the archive of every account, {@link ExportFormat#EML} by default. Only used
+     *                     with {@link #exportTo(Path)}.
+     * @return This fetcher.
+     */
+    public MultiAccountFetcher exportFormat(ExportFormat exportFormat) {
+        this.exportFormat = exportFormat;
+        return this;
+    }
+
+    /**
+     * @param refetch {@code true} to fetch every message on the server, not only the ones missing since the last
+     *                run.
+     * @return This fetcher.
+     */
+    public MultiAccountFetcher refetch(boolean refetch) {
+        this.refetch = refetch;
+        return this;
+    }
+
+    /**
+     * @param startTls {@code true} to upgrade the plain connections (type 1) to TLS with {@code STLS}.
+     * @return This fetcher.
+     */
+    public MultiAccountFetcher startTls(boolean startTls) {
+        this.startTls = startTls;
+        return this;
+    }
+
+    /**
+     * Fetches in the order of a scheduler and within its budgets, the run budget is shared by all accounts.
+     * @param scheduler Scheduler, {@code null} to fetch everything in server order.
+     * @return This fetcher.
+     */
+    public MultiAccountFetcher schedule(DownloadScheduler scheduler) {
+        this.scheduler = scheduler;
+        return this;
+    }
+
+    /**
+     * Deletes messages from the server once they are stored, in the same session as the fetch.
+     * @param retention Policy choosing the messages, {@code null} to keep all.
+     * @return This fetcher.
+     */
+    public MultiAccountFetcher retention(RetentionPolicy retention) {
+        this.retention = retention;
+        return this;
+    }
+
+    /**
+     * Runs all sessions on one {@link NioPop3Engine} instead of a blocking client per account. The messages go
+     * through the same sync state, download journal and sink. Only the socket modes 1 and 2 are supported, without
+     * {@code STLS}, retention and scheduling.
+     * @param nonBlocking {@code true} to use the non-blocking engine.
+     * @return This fetcher.
+     */
+    public MultiAccountFetcher nonBlocking(boolean nonBlocking) {
+        this.nonBlocking = nonBlocking;
+        return this;
+    }
+
+    /**
+     * Fetches all accounts and waits until every session is finished.
+     * @param accounts Accounts to fetch.
+     * @return Report with the result of every account, in the order of the given list.
+     * @throws InterruptedException If the calling thread was interrupted while waiting.
+     * @throws IOException If the non-blocking engine couldn't be started.
+     * @throws IllegalStateException If the non-blocking engine is combined with an option it doesn't support.
+     */
+    public FetchReport fetchAll(List<AccountConfig> accounts) throws InterruptedException, IOException {
+        if(nonBlocking && (startTls || retention != null || scheduler != null))
+            throw new IllegalStateException("The non-blocking engine supports neither STLS nor retention nor scheduling");
+
+        Semaphore permits = new Semaphore(concurrency);
+        long start = System.nanoTime();
+        List<Future<AccountResult>> futures = new ArrayList<>(accounts.size());
+
+        NioPop3Engine engine = nonBlocking ? new NioPop3Engine() : null;
+        ExecutorService executor = newExecutor();
+        try {
+            for (AccountConfig account : accounts) {
+                futures.add(executor.submit(() -> {
+                    permits.acquire();
+                    try {
+                        return engine == null ? fetch(account) : fetch(account, engine);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+
+            List<AccountResult> results = new ArrayList<>(accounts.size());
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    results.add(new AccountResult(accounts.get(i).accountKey(), 0, 0, 0, String.valueOf(e.getCause())));
+                }
+            }
+
+            return new FetchReport(results, System.nanoTime() - start);
+        } finally {
+            executor.shutdownNow();
+            //fails the sessions that are still open, which lets their account threads finish
+            if(engine != null) engine.close();
+        }
+    }
+
+    /**
+     * @return Number of messages stored so far, over all accounts.
+     */
+    public long getMessages() {
+        return messages.sum();
+    }
+
+    /**
+     * @return Number of bytes stored so far, over all accounts.
+     */
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    private AccountResult fetch(AccountConfig account) {
+        String key = account.accountKey();
+        long start = System.nanoTime();
+        Client client = new Client(account.getSocketType(), JavaMail.newInstance());
+        client.setStartTls(startTls);
+        ProgressRenderer.Task progress = ProgressRenderer.shared().task(key + " ").start();
+
+        try {
+            client.connect(account.getHost(), account.getPort());
+            if(!client.authenticate(account.getUsername(), account.getPassword()))
+                return new AccountResult(key, 0, 0, System.nanoTime() - start, "Credentials don't match");
+
+            SyncState state = SyncState.load(dataDirectory.resolve("sync"), key);
+            if(refetch) state.retainAll(List.of());
+
+            MessageSink sink = openSink(key);
+            try (DownloadJournal journal = DownloadJournal.open(dataDirectory.resolve("sync"), key)) {
+                SyncResult result = new IncrementalSync(client, state, new CountingSink(sink), journal).schedule(scheduler).run();
+                RetentionResult deleted = retention == null ? null : client.applyRetention(retention, sink);
+
+                return new AccountResult(key, result.getFetched(), result.getBytes(), result.getDeferred(),
+                        deleted == null ? 0 : deleted.getDeleted(), System.nanoTime() - start, null);
+            } finally {
+                if(sink instanceof Closeable) ((Closeable) sink).close();
+            }
+        } catch (IOException | RuntimeException e) {
+            return new AccountResult(key, 0, 0, System.nanoTime() - start, String.valueOf(e));
+        } finally {
+            client.shutdownClient();
+            progress.stop();
+        }
+    }
+
+    /**
+     * Fetches an account on the non-blocking engine with the sync state and the journal of {@link IncrementalSync}:
+     * the engine skips what is stored already and every committed message is journaled. The state is only touched by
+     * the event loop until the session is over. The journal is written and synced on the account thread once the
+     * session is over, forcing the sink on the event loop would stall every other session; a run that dies during
+     * the session fetches its messages again.
+     */
+    private AccountResult fetch(AccountConfig account, NioPop3Engine engine) {
+        String key = account.accountKey();
+        long start = System.nanoTime();
+        ProgressRenderer.Task progress = ProgressRenderer.shared().task(key + " ").start();
+
+        try {
+            SyncState state = SyncState.load(dataDirectory.resolve("sync"), key);
+            if(refetch) state.retainAll(List.of());
+
+            MessageSink sink = openSink(key);
+            try (DownloadJournal journal = DownloadJournal.open(dataDirectory.resolve("sync"), key)) {
+                //stored by a run that died before saving the state, checked here as it reads the messages back
+                for (String uid : journal.getEntries().keySet())
+                    if(!state.contains(uid) && journal.isStored(uid, sink)) state.add(uid);
+
+                Set<String> present = new HashSet<>();
+                Predicate<String> wanted = uid -> {
+                    present.add(uid);
+                    return !state.contains(uid);
+                };
+
+                SyncResult result;
+                JournalingSink journaling = new JournalingSink(new CountingSink(sink), state);
+                try {
+                    //not interruptible, the session has to be over before the state and the journal are closed
+                    result = engine.fetch(account, wanted, journaling).join();
+                    state.retainAll(present);
+                } catch (CompletionException e) {
+                    throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                } finally {
+                    journaling.appendTo(journal);
+                    journal.sync(sink);
+                    state.save();
+                    journal.clear();
+                }
+
+                return new AccountResult(key, result.getFetched(), result.getBytes(), System.nanoTime() - start, null);
+            } finally {
+                if(sink instanceof Closeable) ((Closeable) sink).close();
+            }
+        } catch (IOException | RuntimeException e) {
+            return new AccountResult(key, 0, 0, System.nanoTime() - start, String.valueOf(e));
+        } finally {
+            progress.stop();
+        }
+    }
+
+    private MessageSink openSink(String key) throws IOException {
+        if(exportDirectory != null) return exportFormat.open(exportDirectory, SyncState.safeName(key));
+
+        return MessageStore.open(SyncState.resolve(dataDirectory.resolve("store"), key, ""), key);
+    }
+
+    private ExecutorService newExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(concurrency, runnable -> {
+                Thread thread = new Thread(runnable, "fetcher");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Forwards to the store and updates the live counters on every commit.
+     */
+    private final class CountingSink implements MessageSink {
+        private final MessageSink delegate;
+
+        CountingSink(MessageSink delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public OutputStream open(String uid) throws IOException {
+            return delegate.open(uid);
+        }
+
+        @Override
+        public void commit(String uid, long size) throws IOException {
+            delegate.commit(uid, size);
+            messages.increment();
+            bytes.add(size);
+        }
+
+        @Override
+        public void abort(String uid) throws IOException {
+            delegate.abort(uid);
+        }
+
+        @Override
+        public void force() throws IOException {
+            delegate.force();
+        }
+
+        @Override
+        public boolean contains(String uid) {
+            return delegate.contains(uid);
+        }
+
+        @Override
+        public InputStream openCommitted(String uid) throws IOException {
+            return delegate.openCommitted(uid);
+        }
+    }
+
+    /**
+     * Records every committed message in the sync state and remembers its journal entry, as {@link IncrementalSync}
+     * does for the blocking clients. The entries are only appended to the journal by {@link #appendTo(DownloadJournal)}
+     * after the session, as appending may force the sink. A session writes one message at a time.
+     */
+    private static final class JournalingSink implements MessageSink {
+        private final MessageSink delegate;
+        private final SyncState state;
+        private final CRC32C checksum = new CRC32C();
+        private final Map<String, DownloadJournal.Entry> committed = new LinkedHashMap<>();
+
+        JournalingSink(MessageSink delegate, SyncState state) {
+            this.delegate = delegate;
+            this.state = state;
+        }
+
+        /**
+         * Appends the entries of the messages committed so far. Must not be called while the session is running.
+         * @param journal The journal of the account.
+         * @throws IOException If writing or syncing was not possible.
+         */
+        void appendTo(DownloadJournal journal) throws IOException {
+            for (Map.Entry<String, DownloadJournal.Entry> entry : committed.entrySet())
+                journal.append(entry.getKey(), entry.getValue().getSize(), entry.getValue().getChecksum(), delegate);
+            committed.clear();
+        }
+
+        @Override
+        public OutputStream open(String uid) throws IOException {
+            checksum.reset();
+            return new CheckedOutputStream(delegate.open(uid), checksum);
+        }
+
+        @Override
+        public void commit(String uid, long size) throws IOException {
+            delegate.commit(uid, size);
+            committed.put(uid, new DownloadJournal.Entry(size, (int) checksum.getValue()));
+            state.add(uid);
+        }
+
+        @Override
+        public void abort(String uid) throws IOException {
+            delegate.abort(uid);
+        }
+
+        @Override
+        public void force() throws IOException {
+            delegate.force();
+        }
+
+        @Override
+        public boolean contains(String uid) {
+            return delegate.contains(uid);
+        }
+
+        @Override
+        public InputStream openCommitted(String uid) throws IOException {
+            return delegate.openCommitted(uid);
+        }
+    }
+}
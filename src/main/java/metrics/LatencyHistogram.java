@@ -0,0 +1,93 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with power-of-two buckets from 1 µs to about 67 s. Recording is a bucket lookup and
+ * a few atomic additions, so it is cheap enough to stay on all the time. Readers may see a snapshot that is off by
+ * the values recorded while reading.
+ */
+public final class LatencyHistogram {
+    /**
+     * Number of finite buckets, bucket {@code i} holds values up to {@code 2^i} µs
+     */
+    public static final int BUCKETS = 27;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS + 1);
+    private final LongAdder sumNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * @param nanos Duration to add, negative values are counted as 0.
+     */
+    public void record(long nanos) {
+        if(nanos < 0) nanos = 0;
+
+        counts.incrementAndGet(bucket(nanos));
+        sumNanos.add(nanos);
+        if(nanos > maxNanos.get()) maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * @return Number of recorded values.
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i <= BUCKETS; i++) count += counts.get(i);
+
+        return count;
+    }
+
+    /**
+     * @param bucket Bucket from 0 to {@link #BUCKETS}, the last one holds everything above the finite buckets.
+     * @return Number of values in that bucket.
+     */
+    public long getBucketCount(int bucket) {
+        return counts.get(bucket);
+    }
+
+    public long getSumNanos() {
+        return sumNanos.sum();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * Estimates a quantile by the upper bound of the bucket it falls into.
+     * @param quantile Quantile between 0 and 1.
+     * @return Upper bound in nanoseconds, the maximum for the overflow bucket, 0 if nothing was recorded.
+     */
+    public long quantileNanos(double quantile) {
+        long count = getCount();
+        if(count == 0) return 0;
+
+        long rank = (long) Math.ceil(quantile * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if(seen >= rank) return Math.min(upperBoundNanos(i), getMaxNanos());
+        }
+
+        return getMaxNanos();
+    }
+
+    /**
+     * @param bucket Finite bucket.
+     * @return Largest duration in nanoseconds counted in that bucket.
+     */
+    public static long upperBoundNanos(int bucket) {
+        return 1000L << bucket;
+    }
+
+    private static int bucket(long nanos) {
+        long micros = (nanos + 999) / 1000;
+        if(micros <= 1) return 0;
+
+        //smallest i with micros <= 2^i
+        return Math.min(64 - Long.numberOfLeadingZeros(micros - 1), BUCKETS);
+    }
+}
@@ -0,0 +1,33 @@
+package metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read from a connection into {@link Metrics#bytesRead()}.
+ */
+public final class MeteredInputStream extends FilterInputStream {
+    private final Metrics metrics;
+
+    public MeteredInputStream(InputStream in, Metrics metrics) {
+        super(in);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if(b >= 0) metrics.addBytesRead(1);
+
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = in.read(b, off, len);
+        if(read > 0) metrics.addBytesRead(read);
+
+        return read;
+    }
+}
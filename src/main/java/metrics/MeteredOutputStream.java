@@ -0,0 +1,29 @@
+package metrics;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Counts the bytes written to a connection into {@link Metrics#bytesWritten()}.
+ */
+public final class MeteredOutputStream extends FilterOutputStream {
+    private final Metrics metrics;
+
+    public MeteredOutputStream(OutputStream out, Metrics metrics) {
+        super(out);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        metrics.addBytesWritten(1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        metrics.addBytesWritten(len);
+    }
+}
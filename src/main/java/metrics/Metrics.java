@@ -0,0 +1,187 @@
+package metrics;
+
+import client.RequestTyp;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency and throughput of the mail client: one {@link LatencyHistogram} per POP3 command and per {@link Phase},
+ * and the bytes moved over the connections.
+ * <p>
+ * A command is timed from sending it until its response is complete, on the JavaMail types around the call that
+ * issues it. The counters can be exported as a JSON snapshot and in the Prometheus text format, e.g. for the
+ * textfile collector of a local node exporter.
+ */
+public final class Metrics {
+    public static final String JSON_FILE = "metrics.json";
+    public static final String PROMETHEUS_FILE = "metrics.prom";
+
+    private static final Metrics GLOBAL = new Metrics();
+
+    private final Map<RequestTyp, LatencyHistogram> commands = new EnumMap<>(RequestTyp.class);
+    private final Map<Phase, LatencyHistogram> phases = new EnumMap<>(Phase.class);
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+
+    public Metrics() {
+        //all histograms exist up front, so recording never has to synchronize
+        for (RequestTyp requestTyp : RequestTyp.values()) commands.put(requestTyp, new LatencyHistogram());
+        for (Phase phase : Phase.values()) phases.put(phase, new LatencyHistogram());
+    }
+
+    /**
+     * @return The instance shared by all clients of this process.
+     */
+    public static Metrics global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Records a command that started at the given time and completed now.
+     * @param requestTyp Command.
+     * @param startNanos {@link System#nanoTime()} when the command was sent.
+     */
+    public void record(RequestTyp requestTyp, long startNanos) {
+        commands.get(requestTyp).record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Records a phase that started at the given time and completed now.
+     * @param phase Phase.
+     * @param startNanos {@link System#nanoTime()} when the phase started.
+     */
+    public void record(Phase phase, long startNanos) {
+        phases.get(phase).record(System.nanoTime() - startNanos);
+    }
+
+    public void addBytesRead(long bytes) {
+        bytesRead.add(bytes);
+    }
+
+    public void addBytesWritten(long bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    public LatencyHistogram command(RequestTyp requestTyp) {
+        return commands.get(requestTyp);
+    }
+
+    public LatencyHistogram phase(Phase phase) {
+        return phases.get(phase);
+    }
+
+    public long bytesRead() {
+        return bytesRead.sum();
+    }
+
+    public long bytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    /**
+     * @return Counts, sums and estimated percentiles of every histogram that recorded something, and the byte
+     * counters, as JSON.
+     */
+    public String toJson() {
+        StringBuilder sb = new StringBuilder("{\n  \"commands\": {");
+        appendJson(sb, commands);
+        sb.append("\n  },\n  \"phases\": {");
+        appendJson(sb, phases);
+        sb.append("\n  },\n  \"bytes\": {\"read\": ").append(bytesRead()).append(", \"written\": ")
+                .append(bytesWritten()).append("}\n}\n");
+
+        return sb.toString();
+    }
+
+    /**
+     * @return All histograms that recorded something and the byte counters in the Prometheus text format.
+     */
+    public String toPrometheus() {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("# HELP pop3_command_duration_seconds Time from sending a POP3 command until its response is complete.\n");
+        sb.append("# TYPE pop3_command_duration_seconds histogram\n");
+        commands.forEach((requestTyp, histogram) ->
+                appendPrometheus(sb, "pop3_command_duration_seconds", "command", requestTyp.name(), histogram));
+
+        sb.append("# HELP mail_client_phase_duration_seconds Duration of connection setup and sign-in.\n");
+        sb.append("# TYPE mail_client_phase_duration_seconds histogram\n");
+        phases.forEach((phase, histogram) ->
+                appendPrometheus(sb, "mail_client_phase_duration_seconds", "phase", phase.label(), histogram));
+
+        sb.append("# HELP mail_client_bytes_total Bytes transferred over mail-server connections.\n");
+        sb.append("# TYPE mail_client_bytes_total counter\n");
+        sb.append("mail_client_bytes_total{direction=\"read\"} ").append(bytesRead()).append("\n");
+        sb.append("mail_client_bytes_total{direction=\"written\"} ").append(bytesWritten()).append("\n");
+
+        return sb.toString();
+    }
+
+    /**
+     * Writes {@link #JSON_FILE} and {@link #PROMETHEUS_FILE} into the given directory. Each file is replaced
+     * atomically, so a scraper never reads a partial export.
+     * @param directory Target directory, created if it doesn't exist.
+     * @throws IOException If writing was not possible.
+     */
+    public void export(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        write(directory.resolve(JSON_FILE), toJson());
+        write(directory.resolve(PROMETHEUS_FILE), toPrometheus());
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.writeString(temp, content, StandardCharsets.UTF_8);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static <K extends Enum<K>> void appendJson(StringBuilder sb, Map<K, LatencyHistogram> histograms) {
+        boolean first = true;
+        for (Map.Entry<K, LatencyHistogram> entry : histograms.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            long count = histogram.getCount();
+            if(count == 0) continue;
+
+            sb.append(first ? "\n" : ",\n").append("    \"").append(entry.getKey().name()).append("\": {")
+                    .append("\"count\": ").append(count)
+                    .append(", \"sum_ms\": ").append(millis(histogram.getSumNanos()))
+                    .append(", \"p50_ms\": ").append(millis(histogram.quantileNanos(0.5)))
+                    .append(", \"p90_ms\": ").append(millis(histogram.quantileNanos(0.9)))
+                    .append(", \"p99_ms\": ").append(millis(histogram.quantileNanos(0.99)))
+                    .append(", \"max_ms\": ").append(millis(histogram.getMaxNanos())).append("}");
+            first = false;
+        }
+    }
+
+    private static void appendPrometheus(StringBuilder sb, String name, String label, String value, LatencyHistogram histogram) {
+        long count = histogram.getCount();
+        if(count == 0) return;
+
+        String labels = label + "=\"" + value + "\"";
+        long cumulative = 0;
+        for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+            cumulative += histogram.getBucketCount(i);
+            sb.append(name).append("_bucket{").append(labels).append(",le=\"")
+                    .append(seconds(LatencyHistogram.upperBoundNanos(i))).append("\"} ").append(cumulative).append("\n");
+        }
+        sb.append(name).append("_bucket{").append(labels).append(",le=\"+Inf\"} ").append(count).append("\n");
+        sb.append(name).append("_sum{").append(labels).append("} ").append(seconds(histogram.getSumNanos())).append("\n");
+        sb.append(name).append("_count{").append(labels).append("} ").append(count).append("\n");
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.6f", nanos / 1e9);
+    }
+}
@@ -0,0 +1,31 @@
+package metrics;
+
+/**
+ * Steps of a session that are timed apart from the POP3 commands.
+ */
+public enum Phase {
+    /**
+     * Opening the TCP connection. On the JavaMail types this includes handshake and sign-in, which JavaMail
+     * doesn't report separately.
+     */
+    CONNECT,
+    /**
+     * Full TLS handshake
+     */
+    TLS_HANDSHAKE,
+    /**
+     * Abbreviated TLS handshake resuming a cached session
+     */
+    TLS_RESUMPTION,
+    /**
+     * Sign-in from the first command to the accepted password
+     */
+    LOGIN;
+
+    /**
+     * @return Name used as label in the exports.
+     */
+    public String label() {
+        return name().toLowerCase();
+    }
+}
@@ -0,0 +1,28 @@
+package mime;
+
+/**
+ * Text of a message as the search index takes it.
+ */
+public final class DecodedText {
+    private final String from;
+    private final String subject;
+    private final String text;
+
+    public DecodedText(String from, String subject, String text) {
+        this.from = from;
+        this.subject = subject;
+        this.text = text;
+    }
+
+    public String getFrom() {
+        return from;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public String getText() {
+        return text;
+    }
+}
@@ -0,0 +1,160 @@
+package mime;
+
+import store.MessageBuffer;
+
+import javax.mail.MessagingException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Decodes fetched messages on a pool of worker threads while the fetching thread goes on reading from the network.
+ * Parsing MIME and decoding base64, quoted-printable and charsets is CPU-bound, the fetch is bound by the network;
+ * with the pipeline both run at the same time instead of taking turns.
+ * <p>
+ * The decoded results are handed to the handler in the order the messages were submitted, on the thread that calls
+ * {@link #submit(String, MessageBuffer)} and {@link #finish()}, so the handler doesn't have to be thread-safe. At
+ * most {@code capacity} messages are in flight: once the limit is reached, {@link #submit(String, MessageBuffer)}
+ * waits for the oldest one, which holds the fetcher back instead of buffering an unbounded backlog. The raw messages
+ * are released as soon as they are decoded; their memory is capped by their {@code BufferPool}.
+ * @param <T> Type of the decoded messages.
+ */
+public final class DecodingPipeline<T> implements Closeable {
+
+    /**
+     * Turns a raw RFC 822 message into its decoded form. Runs on the worker threads.
+     */
+    @FunctionalInterface
+    public interface Decoder<T> {
+        /**
+         * @param uid Key the message was submitted with.
+         * @param raw The raw message, released once the decoder returns.
+         * @return The decoded message, {@code null} to skip it.
+         * @throws MessagingException If the message couldn't be parsed.
+         * @throws IOException If reading or writing a part failed.
+         */
+        T decode(String uid, MessageBuffer raw) throws MessagingException, IOException;
+    }
+
+    /**
+     * Receives the decoded messages in submission order.
+     */
+    @FunctionalInterface
+    public interface Handler<T> {
+        void accept(String uid, T decoded) throws IOException;
+    }
+
+    private final ExecutorService workers;
+    private final int capacity;
+    private final Decoder<T> decoder;
+    private final Handler<T> handler;
+
+    /**
+     * Messages being decoded or waiting for the handler, oldest first
+     */
+    private final Deque<Pending<T>> pending = new ArrayDeque<>();
+
+    /**
+     * Decodes on one worker per core with twice as many messages in flight.
+     */
+    public DecodingPipeline(Decoder<T> decoder, Handler<T> handler) {
+        this(Runtime.getRuntime().availableProcessors(), 2 * Runtime.getRuntime().availableProcessors(), decoder, handler);
+    }
+
+    public DecodingPipeline(int workers, int capacity, Decoder<T> decoder, Handler<T> handler) {
+        if(workers < 1 || capacity < 1) throw new IllegalArgumentException("Workers and capacity have to be positive");
+
+        this.workers = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "mime-decoder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.capacity = capacity;
+        this.decoder = decoder;
+        this.handler = handler;
+    }
+
+    /**
+     * Hands a message to the workers. Results that are ready are passed to the handler first; if the pipeline is
+     * full, this waits for the oldest message.
+     * @param uid Key of the message, passed to decoder and handler.
+     * @param raw The raw message, closed for writing. The pipeline releases it.
+     * @throws IOException If decoding an earlier message or its handler failed.
+     */
+    public void submit(String uid, MessageBuffer raw) throws IOException {
+        try {
+            while (pending.size() >= capacity || (!pending.isEmpty() && pending.peek().result.isDone())) deliver();
+        } catch (IOException | RuntimeException e) {
+            raw.release();
+            throw e;
+        }
+
+        pending.add(new Pending<>(uid, raw, workers.submit(() -> {
+            try {
+                return decoder.decode(uid, raw);
+            } finally {
+                raw.release();
+            }
+        })));
+    }
+
+    /**
+     * Waits until every submitted message was decoded and handled.
+     * @throws IOException If decoding a message or its handler failed.
+     */
+    public void finish() throws IOException {
+        while (!pending.isEmpty()) deliver();
+    }
+
+    /**
+     * @return Number of messages submitted and not yet handled.
+     */
+    public int getPending() {
+        return pending.size();
+    }
+
+    /**
+     * Stops the workers. Messages that weren't handled yet are dropped and released.
+     */
+    @Override
+    public void close() {
+        workers.shutdownNow();
+        for (Pending<T> message : pending) message.raw.release();
+        pending.clear();
+    }
+
+    private void deliver() throws IOException {
+        Pending<T> oldest = pending.poll();
+
+        T decoded;
+        try {
+            decoded = oldest.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while decoding " + oldest.uid);
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException("Decoding " + oldest.uid + " failed", e.getCause());
+        }
+
+        handler.accept(oldest.uid, decoded);
+    }
+
+    private static final class Pending<T> {
+        private final String uid;
+        private final MessageBuffer raw;
+        private final Future<T> result;
+
+        Pending(String uid, MessageBuffer raw, Future<T> result) {
+            this.uid = uid;
+            this.raw = raw;
+            this.result = result;
+        }
+    }
+}
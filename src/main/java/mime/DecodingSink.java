@@ -0,0 +1,82 @@
+package mime;
+
+import org.apache.commons.io.output.TeeOutputStream;
+import store.BufferPool;
+import store.MessageBuffer;
+import sync.MessageSink;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Stores messages in another sink and hands every committed message to a {@link DecodingPipeline}, e.g. to index
+ * it while the sync goes on fetching. A full pipeline blocks the commit and with it the fetch. The copies are taken
+ * from a {@link BufferPool}, so large messages are copied to disk instead of the heap.
+ */
+public final class DecodingSink implements MessageSink {
+    private final MessageSink delegate;
+    private final DecodingPipeline<?> pipeline;
+    private final BufferPool buffers;
+
+    /**
+     * Copy of the message being written
+     */
+    private MessageBuffer copy;
+
+    public DecodingSink(MessageSink delegate, DecodingPipeline<?> pipeline) {
+        this(delegate, pipeline, BufferPool.shared());
+    }
+
+    public DecodingSink(MessageSink delegate, DecodingPipeline<?> pipeline, BufferPool buffers) {
+        this.delegate = delegate;
+        this.pipeline = pipeline;
+        this.buffers = buffers;
+    }
+
+    @Override
+    public OutputStream open(String uid) throws IOException {
+        OutputStream out = delegate.open(uid);
+        if(copy != null) copy.release();
+        copy = buffers.newBuffer();
+
+        return new TeeOutputStream(out, copy);
+    }
+
+    @Override
+    public void commit(String uid, long size) throws IOException {
+        MessageBuffer raw = copy;
+        copy = null;
+        try {
+            delegate.commit(uid, size);
+            raw.close();
+        } catch (IOException | RuntimeException e) {
+            raw.release();
+            throw e;
+        }
+
+        pipeline.submit(uid, raw);
+    }
+
+    @Override
+    public void abort(String uid) throws IOException {
+        if(copy != null) copy.release();
+        copy = null;
+        delegate.abort(uid);
+    }
+
+    @Override
+    public void force() throws IOException {
+        delegate.force();
+    }
+
+    @Override
+    public boolean contains(String uid) {
+        return delegate.contains(uid);
+    }
+
+    @Override
+    public InputStream openCommitted(String uid) throws IOException {
+        return delegate.openCommitted(uid);
+    }
+}
@@ -0,0 +1,189 @@
+package nio;
+
+import fetch.AccountConfig;
+import sync.MessageSink;
+import sync.SyncResult;
+
+import javax.net.ssl.SSLContext;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Non-blocking POP3 engine. Any number of sessions are multiplexed on one {@link Selector} and driven by a
+ * single event-loop thread, so thousands of mailbox polls can be open at the same time without a thread per
+ * connection. Every session holds a receive and a send buffer of a few kilobytes (four packet buffers with TLS),
+ * independent of the size of the messages.
+ * <p>
+ * Only the socket modes are supported: 1 for plain connections and 2 for TLS through an {@link javax.net.ssl.SSLEngine}.
+ * Messages are handed to the sink on the event loop, so a sink must not block for long and is only ever called by
+ * that thread.
+ */
+public final class NioPop3Engine implements Closeable {
+    public static final long DEFAULT_TIMEOUT_MILLIS = 60_000;
+
+    private final SSLContext sslContext;
+    private final long timeoutNanos;
+    private final Selector selector;
+    private final Thread eventLoop;
+    /**
+     * Sessions submitted by other threads, registered by the event loop on its next turn
+     */
+    private final Queue<Pop3Session> pending = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+    private final AtomicInteger activeSessions = new AtomicInteger();
+
+    /**
+     * Creates an engine using the default {@link SSLContext} of the JVM for TLS connections.
+     * @throws IOException If the selector couldn't be opened.
+     */
+    public NioPop3Engine() throws IOException {
+        this(defaultContext(), DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param sslContext Context for TLS connections.
+     * @param timeoutMillis Time a session may wait for the server before it fails.
+     * @throws IOException If the selector couldn't be opened.
+     */
+    public NioPop3Engine(SSLContext sslContext, long timeoutMillis) throws IOException {
+        this.sslContext = sslContext;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.selector = Selector.open();
+
+        eventLoop = new Thread(this::run, "pop3-event-loop");
+        eventLoop.setDaemon(true);
+        eventLoop.start();
+    }
+
+    /**
+     * Starts a session that logs in, retrieves the wanted messages and quits. The host name is resolved on the
+     * calling thread, everything else happens on the event loop.
+     * @param account Mailbox to poll, with socket type 1 or 2.
+     * @param wanted Decides by unique id which messages are retrieved, e.g. those missing from a {@link sync.SyncState}.
+     * @param sink Destination of the retrieved messages.
+     * @return Future completed with the result of the session, or with the error that ended it.
+     * @throws IllegalArgumentException If the account uses one of the JavaMail modes.
+     * @throws IllegalStateException If the engine was closed.
+     */
+    public CompletableFuture<SyncResult> fetch(AccountConfig account, Predicate<String> wanted, MessageSink sink) {
+        switch (account.getSocketType()){
+            case 1, 2 -> {
+            }
+            case 3, 4 -> throw new IllegalArgumentException("JavaMail connections aren't supported by the non-blocking engine");
+            default -> throw new IllegalArgumentException("Unknown socket type: " + account.getSocketType());
+        }
+        if(!running) throw new IllegalStateException("Engine is closed");
+
+        Pop3Session session = new Pop3Session(account, wanted, sink, sslContext);
+        activeSessions.incrementAndGet();
+        session.getFuture().whenComplete((result, error) -> activeSessions.decrementAndGet());
+        pending.add(session);
+        selector.wakeup();
+
+        return session.getFuture();
+    }
+
+    /**
+     * @return Number of sessions that were started and haven't finished yet.
+     */
+    public int getActiveSessions() {
+        return activeSessions.get();
+    }
+
+    /**
+     * Stops the event loop. Sessions that are still open fail.
+     */
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+
+        try {
+            eventLoop.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select(1000);
+                register();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    Pop3Session session = (Pop3Session) key.attachment();
+                    try {
+                        session.handle();
+                    } catch (Exception e) {
+                        session.fail(e);
+                    }
+                }
+
+                expire();
+            }
+        } catch (IOException | RuntimeException e) {
+            running = false;
+        } finally {
+            shutdown();
+        }
+    }
+
+    private void register() {
+        Pop3Session session;
+        while ((session = pending.poll()) != null) {
+            try {
+                session.start(selector);
+            } catch (IOException | RuntimeException e) {
+                session.fail(e);
+            }
+        }
+    }
+
+    /**
+     * Fails the sessions that didn't hear from the server within the timeout.
+     */
+    private void expire() {
+        long now = System.nanoTime();
+        for (SelectionKey key : selector.keys()) {
+            Pop3Session session = (Pop3Session) key.attachment();
+            if(now - session.getLastActivity() > timeoutNanos)
+                session.fail(new SocketTimeoutException("Server didn't answer within " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms"));
+        }
+    }
+
+    private void shutdown() {
+        for (SelectionKey key : selector.keys()) ((Pop3Session) key.attachment()).fail(new IOException("Engine was closed"));
+
+        Pop3Session session;
+        while ((session = pending.poll()) != null) session.fail(new IOException("Engine was closed"));
+
+        try {
+            selector.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static SSLContext defaultContext() {
+        try {
+            return SSLContext.getDefault();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
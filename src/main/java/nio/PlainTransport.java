@@ -0,0 +1,61 @@
+package nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Unencrypted transport, the channel reads and writes the session buffers directly.
+ */
+final class PlainTransport implements Transport {
+    static final int RECEIVE_BUFFER_SIZE = 16 * 1024;
+    static final int SEND_BUFFER_SIZE = 1024;
+
+    private final SocketChannel channel;
+    private final ByteBuffer appIn = ByteBuffer.allocate(RECEIVE_BUFFER_SIZE);
+    private ByteBuffer appOut = ByteBuffer.allocate(SEND_BUFFER_SIZE);
+
+    PlainTransport(SocketChannel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public ByteBuffer appIn() {
+        return appIn;
+    }
+
+    @Override
+    public ByteBuffer appOut() {
+        return appOut;
+    }
+
+    @Override
+    public void appOut(ByteBuffer buffer) {
+        appOut = buffer;
+    }
+
+    @Override
+    public boolean read() throws IOException {
+        return channel.read(appIn) >= 0;
+    }
+
+    @Override
+    public boolean flush() throws IOException {
+        appOut.flip();
+        try {
+            channel.write(appOut);
+        } finally {
+            appOut.compact();
+        }
+
+        return appOut.position() == 0;
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package nio;
+
+import client.DotUnstuffer;
+import client.IllegalResponseException;
+import client.RequestTyp;
+import client.ResponseLine;
+import fetch.AccountConfig;
+import sync.MessageSink;
+import sync.SyncResult;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
+
+/**
+ * State machine of one POP3 session driven by {@link NioPop3Engine}. The session logs in, lists the unique ids,
+ * retrieves every message accepted by the filter into the sink and quits. All methods run on the event loop.
+ * <p>
+ * Responses are parsed straight from the receive buffer of the transport: status lines and the lines of
+ * {@code CAPA} and {@code UIDL} bodies into a reusable {@link ResponseLine}, message bodies through a
+ * {@link DotUnstuffer} into the sink. Apart from the sink nothing grows with the size of a message.
+ */
+final class Pop3Session {
+    /**
+     * Number of {@code RETR} commands sent ahead if the server supports pipelining
+     */
+    static final int PIPELINE_WINDOW = 64;
+
+    private enum State {CONNECTING, GREETING, CAPA, USER, PASS, UIDL, RETR, QUIT, DONE}
+
+    /**
+     * How the bytes after the status line of the current response are read
+     */
+    private enum Mode {STATUS, LINES, BODY}
+
+    private final AccountConfig account;
+    private final InetSocketAddress address;
+    private final Predicate<String> wanted;
+    private final MessageSink sink;
+    private final SSLContext sslContext;
+    private final CompletableFuture<SyncResult> future = new CompletableFuture<>();
+
+    private SocketChannel channel;
+    private SelectionKey key;
+    private Transport transport;
+
+    private State state = State.CONNECTING;
+    private Mode mode = Mode.STATUS;
+    private final ResponseLine line = new ResponseLine();
+    /**
+     * {@code true} while the line buffer holds the beginning of a line that isn't complete yet
+     */
+    private boolean partialLine;
+    private final DotUnstuffer unstuffer = new DotUnstuffer();
+    private boolean pipelining;
+
+    private int total;
+    /**
+     * Message numbers and unique ids of the messages to retrieve, in server order
+     */
+    private final List<Integer> numbers = new ArrayList<>();
+    private final List<String> uids = new ArrayList<>();
+    private int sent;
+    private int received;
+    private OutputStream out;
+
+    private final List<String> fetched = new ArrayList<>();
+    private long bytes;
+    private long lastActivity = System.nanoTime();
+
+    Pop3Session(AccountConfig account, Predicate<String> wanted, MessageSink sink, SSLContext sslContext) {
+        this.account = account;
+        this.address = new InetSocketAddress(account.getHost(), account.getPort());
+        this.wanted = wanted;
+        this.sink = sink;
+        this.sslContext = sslContext;
+    }
+
+    CompletableFuture<SyncResult> getFuture() {
+        return future;
+    }
+
+    long getLastActivity() {
+        return lastActivity;
+    }
+
+    /**
+     * Opens the channel and starts connecting.
+     * @param selector Selector of the event loop.
+     * @throws IOException If the channel couldn't be opened.
+     */
+    void start(Selector selector) throws IOException {
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+
+        if(channel.connect(address)) connected();
+    }
+
+    /**
+     * Handles a readiness event of the channel.
+     * @throws IOException If the connection failed or the server misbehaved.
+     */
+    void handle() throws IOException {
+        if(key.isConnectable()){
+            if(!channel.finishConnect()) return;
+            connected();
+        }
+
+        if(key.isValid() && key.isReadable()){
+            lastActivity = System.nanoTime();
+            boolean open = transport.read();
+            consume();
+            if(!open && state != State.DONE) throw new EOFException("Server closed the connection");
+        }
+
+        if(key.isValid()) flush();
+    }
+
+    /**
+     * Ends the session with an error. Partially written messages are discarded.
+     * @param cause Reason of the failure.
+     */
+    void fail(Throwable cause) {
+        if(state == State.DONE) return;
+        state = State.DONE;
+
+        if(out != null){
+            try {
+                out.close();
+                sink.abort(uids.get(received));
+            } catch (IOException e) {
+                cause.addSuppressed(e);
+            }
+            out = null;
+        }
+
+        close();
+        future.completeExceptionally(cause);
+    }
+
+    private void connected() throws IOException {
+        switch (account.getSocketType()){
+            case 1 -> transport = new PlainTransport(channel);
+            case 2 -> {
+                SSLEngine engine = sslContext.createSSLEngine(account.getHost(), account.getPort());
+                engine.setUseClientMode(true);
+                SSLParameters parameters = engine.getSSLParameters();
+                parameters.setEndpointIdentificationAlgorithm("HTTPS");
+                engine.setSSLParameters(parameters);
+                transport = new TlsTransport(channel, engine);
+            }
+            default -> throw new IllegalArgumentException("Unknown socket type: " + account.getSocketType());
+        }
+
+        state = State.GREETING;
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    private void flush() throws IOException {
+        boolean done = transport.flush();
+        key.interestOps(done ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * Processes everything in the receive buffer.
+     */
+    private void consume() throws IOException {
+        ByteBuffer in = transport.appIn();
+        in.flip();
+        try {
+            while (in.hasRemaining() && state != State.DONE) {
+                if(mode == Mode.BODY){
+                    int consumed = unstuffer.feed(in.array(), in.arrayOffset() + in.position(), in.remaining(), out);
+                    in.position(in.position() + consumed);
+                    if(!unstuffer.isDone()) break;
+
+                    messageReceived();
+                    continue;
+                }
+
+                if(!nextLine(in)) break;
+
+                if(mode == Mode.LINES){
+                    if(line.isTerminator()){
+                        mode = Mode.STATUS;
+                        bodyReceived();
+                    }
+                    else bodyLine();
+                }
+                else statusReceived(line.isOk());
+            }
+        } finally {
+            in.compact();
+        }
+    }
+
+    /**
+     * Moves the next line of the buffer into {@link #line}.
+     * @return {@code false} if the line isn't complete yet, its beginning is kept in {@link #line}.
+     */
+    private boolean nextLine(ByteBuffer in) {
+        byte[] array = in.array();
+        int start = in.arrayOffset() + in.position();
+        int end = in.arrayOffset() + in.limit();
+
+        if(!partialLine) line.set(array, start, 0);
+
+        for (int i = start; i < end; i++) {
+            if(array[i] != '\n') continue;
+
+            line.append(array, start, i - start);
+            line.stripCr();
+            in.position(i + 1 - in.arrayOffset());
+            partialLine = false;
+            return true;
+        }
+
+        line.append(array, start, end - start);
+        in.position(in.limit());
+        partialLine = true;
+        return false;
+    }
+
+    private void statusReceived(boolean ok) throws IOException {
+        switch (state){
+            case GREETING -> {
+                if(!ok) throw new IOException("Server rejected the connection: " + line.text());
+                state = State.CAPA;
+                send(RequestTyp.CAPA, null);
+            }
+            case CAPA -> {
+                if(ok) mode = Mode.LINES;
+                else login();
+            }
+            case USER -> {
+                if(!ok) throw new IOException("Authentication failed: " + line.text());
+                state = State.PASS;
+                send(RequestTyp.PASS, account.getPassword());
+            }
+            case PASS -> {
+                if(!ok) throw new IOException("Authentication failed: " + line.text());
+                state = State.UIDL;
+                send(RequestTyp.UIDL, null);
+            }
+            case UIDL -> {
+                if(!ok) throw new IOException("Server doesn't support UIDL");
+                mode = Mode.LINES;
+            }
+            case RETR -> {
+                if(ok){
+                    out = sink.open(uids.get(received));
+                    unstuffer.reset();
+                    mode = Mode.BODY;
+                }
+                //the message was deleted by another session in the meantime
+                else next();
+            }
+            case QUIT -> finish();
+            default -> throw new IllegalResponseException("Server sent a response nobody asked for");
+        }
+    }
+
+    private void bodyLine() {
+        switch (state){
+            case CAPA -> {
+                if(line.fieldEquals(0, "PIPELINING")) pipelining = true;
+            }
+            case UIDL -> {
+                total++;
+                String uid = line.fieldAt(1);
+                if(uid == null) throw new IllegalResponseException("Server delivered unexpected response! " + line);
+                if(wanted.test(uid)){
+                    numbers.add((int) line.numberAt(0));
+                    uids.add(uid);
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    private void bodyReceived() throws IOException {
+        switch (state){
+            case CAPA -> login();
+            case UIDL -> {
+                state = State.RETR;
+                requestMessages();
+            }
+            default -> {
+            }
+        }
+    }
+
+    private void messageReceived() throws IOException {
+        mode = Mode.STATUS;
+        out.close();
+        out = null;
+
+        String uid = uids.get(received);
+        sink.commit(uid, unstuffer.getWritten());
+        fetched.add(uid);
+        bytes += unstuffer.getWritten();
+
+        next();
+    }
+
+    private void login() throws IOException {
+        state = State.USER;
+        send(RequestTyp.USER, account.getUsername());
+    }
+
+    /**
+     * Continues with the next message after one was received or skipped.
+     */
+    private void next() throws IOException {
+        received++;
+        requestMessages();
+    }
+
+    /**
+     * Sends {@code RETR} commands until the window is full, or {@code QUIT} once everything was received.
+     */
+    private void requestMessages() throws IOException {
+        if(received == numbers.size()){
+            state = State.QUIT;
+            send(RequestTyp.QUIT, null);
+            return;
+        }
+
+        int window = pipelining ? PIPELINE_WINDOW : 1;
+        while (sent < numbers.size() && sent - received < window) {
+            send(RequestTyp.RETR, String.valueOf(numbers.get(sent++)));
+        }
+    }
+
+    private void finish() {
+        state = State.DONE;
+        close();
+        future.complete(new SyncResult(total, fetched, bytes));
+    }
+
+    private void close() {
+        if(key != null) key.cancel();
+        if(transport != null) transport.close();
+        else if(channel != null){
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Appends a command to the send buffer. It is written with the next flush.
+     */
+    private void send(RequestTyp requestTyp, String argument) {
+        String command = argument == null ? requestTyp.name() + "\r\n" : requestTyp.name() + " " + argument + "\r\n";
+        byte[] encoded = command.getBytes(StandardCharsets.UTF_8);
+
+        ByteBuffer buffer = transport.appOut();
+        if(buffer.remaining() < encoded.length){
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + encoded.length));
+            buffer.flip();
+            larger.put(buffer);
+            transport.appOut(buffer = larger);
+        }
+        buffer.put(encoded);
+    }
+}
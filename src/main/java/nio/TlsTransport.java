@@ -0,0 +1,171 @@
+package nio;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * TLS transport on top of an {@link SSLEngine} in client mode. The handshake is driven by the same read and
+ * flush calls as the application data, so the session doesn't notice it apart from the greeting arriving later.
+ * <p>
+ * Delegated tasks of the engine run on the event loop. They only occur during the handshake and are short for
+ * the usual key sizes.
+ */
+final class TlsTransport implements Transport {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SocketChannel channel;
+    private final SSLEngine engine;
+    private ByteBuffer netIn;
+    private ByteBuffer netOut;
+    private ByteBuffer appIn;
+    private ByteBuffer appOut = ByteBuffer.allocate(PlainTransport.SEND_BUFFER_SIZE);
+
+    TlsTransport(SocketChannel channel, SSLEngine engine) throws SSLException {
+        this.channel = channel;
+        this.engine = engine;
+
+        int packetSize = engine.getSession().getPacketBufferSize();
+        netIn = ByteBuffer.allocate(packetSize);
+        netOut = ByteBuffer.allocate(packetSize);
+        appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+
+        engine.beginHandshake();
+    }
+
+    @Override
+    public ByteBuffer appIn() {
+        return appIn;
+    }
+
+    @Override
+    public ByteBuffer appOut() {
+        return appOut;
+    }
+
+    @Override
+    public void appOut(ByteBuffer buffer) {
+        appOut = buffer;
+    }
+
+    @Override
+    public boolean read() throws IOException {
+        //a full buffer without a complete record, happens if the session grew its packet size
+        if(!netIn.hasRemaining()) netIn = grow(netIn, engine.getSession().getPacketBufferSize());
+
+        int read = channel.read(netIn);
+        unwrap();
+
+        return read >= 0;
+    }
+
+    @Override
+    public boolean flush() throws IOException {
+        unwrap();
+
+        appOut.flip();
+        try {
+            while (appOut.hasRemaining() && !isHandshaking()) {
+                SSLEngineResult result = wrap(appOut);
+                if(result.getStatus() == SSLEngineResult.Status.CLOSED) throw new SSLException("TLS connection was closed");
+            }
+        } finally {
+            appOut.compact();
+        }
+
+        netOut.flip();
+        try {
+            channel.write(netOut);
+        } finally {
+            netOut.compact();
+        }
+
+        return netOut.position() == 0 && appOut.position() == 0;
+    }
+
+    @Override
+    public void close() {
+        try {
+            engine.closeOutbound();
+            while (!engine.isOutboundDone()) wrap(EMPTY);
+
+            netOut.flip();
+            channel.write(netOut);
+        } catch (IOException ignored) {
+        }
+
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Decrypts the received records and advances the handshake as far as possible without new input.
+     */
+    private void unwrap() throws IOException {
+        netIn.flip();
+        try {
+            while (true){
+                switch (engine.getHandshakeStatus()){
+                    case NEED_TASK -> {
+                        Runnable task;
+                        while ((task = engine.getDelegatedTask()) != null) task.run();
+                        continue;
+                    }
+                    case NEED_WRAP -> {
+                        if(wrap(EMPTY).bytesProduced() == 0) return;
+                        continue;
+                    }
+                    default -> {
+                    }
+                }
+
+                if(!netIn.hasRemaining()) return;
+
+                SSLEngineResult result = engine.unwrap(netIn, appIn);
+                switch (result.getStatus()){
+                    case BUFFER_UNDERFLOW, CLOSED -> {
+                        return;
+                    }
+                    case BUFFER_OVERFLOW -> appIn = grow(appIn, engine.getSession().getApplicationBufferSize());
+                    default -> {
+                        if(result.bytesConsumed() == 0 && result.bytesProduced() == 0
+                                && result.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NEED_TASK
+                                && result.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NEED_WRAP) return;
+                    }
+                }
+            }
+        } finally {
+            netIn.compact();
+        }
+    }
+
+    private SSLEngineResult wrap(ByteBuffer src) throws SSLException {
+        while (true){
+            SSLEngineResult result = engine.wrap(src, netOut);
+            if(result.getStatus() != SSLEngineResult.Status.BUFFER_OVERFLOW) return result;
+
+            netOut = grow(netOut, engine.getSession().getPacketBufferSize());
+        }
+    }
+
+    private boolean isHandshaking() {
+        SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+        return status != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING && status != SSLEngineResult.HandshakeStatus.FINISHED;
+    }
+
+    /**
+     * Enlarges a buffer in write mode, keeping its content.
+     */
+    private static ByteBuffer grow(ByteBuffer buffer, int minimumFree) {
+        ByteBuffer larger = ByteBuffer.allocate(buffer.position() + Math.max(minimumFree, buffer.capacity()));
+        buffer.flip();
+        larger.put(buffer);
+
+        return larger;
+    }
+}
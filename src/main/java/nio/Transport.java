@@ -0,0 +1,45 @@
+package nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Byte pipe between a POP3 session and its non-blocking channel. Both buffers are heap buffers in write mode:
+ * the session appends commands to {@link #appOut()} and drains the received plain text from {@link #appIn()}.
+ */
+interface Transport {
+    /**
+     * @return Received plain text, position at the end of the data.
+     */
+    ByteBuffer appIn();
+
+    /**
+     * @return Plain text waiting to be sent, position at the end of the data.
+     */
+    ByteBuffer appOut();
+
+    /**
+     * Replaces the send buffer, used when a batch of commands doesn't fit.
+     * @param buffer New buffer holding the pending data in write mode.
+     */
+    void appOut(ByteBuffer buffer);
+
+    /**
+     * Reads what the channel has to offer without blocking.
+     * @return {@code false} if the peer closed the connection.
+     * @throws IOException If reading or decrypting failed.
+     */
+    boolean read() throws IOException;
+
+    /**
+     * Writes as much pending data as the channel accepts without blocking.
+     * @return {@code true} if nothing is left to write.
+     * @throws IOException If writing or encrypting failed.
+     */
+    boolean flush() throws IOException;
+
+    /**
+     * Closes the channel, after a best-effort attempt to end the connection cleanly.
+     */
+    void close();
+}
@@ -0,0 +1,232 @@
+package search;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Immutable part of a {@link SearchIndex}, written once per flush. A segment holds the documents with the ids
+ * {@code baseDoc} to {@code baseDoc + documents - 1} and the posting lists of their terms.
+ * <p>
+ * Layout: magic {@code SIDX}, version, base document, document count, the documents (uid, from, subject), term
+ * count and then per term in sorted order the term, its document frequency, the byte length of its posting list
+ * and the list itself. Posting lists are delta-encoded var-ints, the first entry relative to the base document.
+ * Strings are stored as a 16-bit length and UTF-8 bytes.
+ * <p>
+ * The file is memory-mapped; the term dictionary is kept on the heap, posting lists are decoded from the mapping
+ * on demand.
+ */
+final class IndexSegment {
+    private static final int MAGIC = 0x53494458; //"SIDX"
+    private static final int VERSION = 1;
+    private static final int MAX_STRING_BYTES = 0xFFFF;
+
+    private final Path file;
+    private final int baseDoc;
+    private final SearchHit[] documents;
+    private final String[] terms;
+    private final int[] offsets;
+    private final int[] frequencies;
+    private final MappedByteBuffer buffer;
+
+    private IndexSegment(Path file) throws IOException {
+        this.file = file;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if(buffer.getInt() != MAGIC || buffer.getInt() != VERSION) throw new IOException("Unknown index-segment format: " + file);
+
+        baseDoc = buffer.getInt();
+        documents = new SearchHit[buffer.getInt()];
+        for (int i = 0; i < documents.length; i++)
+            documents[i] = new SearchHit(readString(), readString(), readString());
+
+        int termCount = buffer.getInt();
+        terms = new String[termCount];
+        offsets = new int[termCount];
+        frequencies = new int[termCount];
+        for (int i = 0; i < termCount; i++) {
+            terms[i] = readString();
+            frequencies[i] = readVarInt(buffer);
+            int length = readVarInt(buffer);
+            offsets[i] = buffer.position();
+            buffer.position(buffer.position() + length);
+        }
+    }
+
+    /**
+     * Maps an existing segment file.
+     * @param file Segment file.
+     * @return The segment.
+     * @throws IOException If the file is corrupt or couldn't be read.
+     */
+    static IndexSegment open(Path file) throws IOException {
+        try {
+            return new IndexSegment(file);
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt index segment: " + file, e);
+        }
+    }
+
+    /**
+     * Writes a segment. The file is replaced atomically, readers never see a half-written segment.
+     * @param file Target file.
+     * @param baseDoc Id of the first document.
+     * @param documents Documents in id order.
+     * @param postings Sorted document ids per term, all within the range of the documents.
+     * @return The written segment.
+     * @throws IOException If writing was not possible.
+     */
+    static IndexSegment write(Path file, int baseDoc, List<SearchHit> documents, SortedMap<String, int[]> postings) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(baseDoc);
+            out.writeInt(documents.size());
+            for (SearchHit document : documents) {
+                writeString(out, document.getUid());
+                writeString(out, document.getFrom());
+                writeString(out, document.getSubject());
+            }
+
+            out.writeInt(postings.size());
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream(256);
+            for (Map.Entry<String, int[]> entry : postings.entrySet()) {
+                int[] docs = entry.getValue();
+                encoded.reset();
+                int previous = baseDoc;
+                for (int doc : docs) {
+                    writeVarInt(encoded, doc - previous);
+                    previous = doc;
+                }
+
+                writeString(out, entry.getKey());
+                writeVarInt(out, docs.length);
+                writeVarInt(out, encoded.size());
+                encoded.writeTo(out);
+            }
+        }
+
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new IndexSegment(file);
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    int getBaseDoc() {
+        return baseDoc;
+    }
+
+    int getDocumentCount() {
+        return documents.length;
+    }
+
+    /**
+     * @param doc Global document id within this segment.
+     * @return The document.
+     */
+    SearchHit document(int doc) {
+        return documents[doc - baseDoc];
+    }
+
+    /**
+     * @return The sorted terms of this segment.
+     */
+    String[] terms() {
+        return terms;
+    }
+
+    /**
+     * @param term Term to look up.
+     * @return Sorted ids of the documents containing the term, empty if none.
+     */
+    int[] postings(String term) {
+        int i = Arrays.binarySearch(terms, term);
+        return i < 0 ? new int[0] : decode(i);
+    }
+
+    /**
+     * @param prefix Beginning of the terms to look up.
+     * @return Sorted ids of the documents containing any term with the prefix, without duplicates.
+     */
+    int[] prefixPostings(String prefix) {
+        int i = Arrays.binarySearch(terms, prefix);
+        if(i < 0) i = -i - 1;
+
+        int[] union = new int[0];
+        for (; i < terms.length && terms[i].startsWith(prefix); i++) union = SearchIndex.union(union, decode(i));
+
+        return union;
+    }
+
+    private int[] decode(int term) {
+        int[] docs = new int[frequencies[term]];
+        int position = offsets[term];
+        int previous = baseDoc;
+
+        for (int i = 0; i < docs.length; i++) {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = buffer.get(position++);
+                value |= (b & 0x7F) << shift;
+                if((b & 0x80) == 0) break;
+            }
+            previous += value;
+            docs[i] = previous;
+        }
+
+        return docs;
+    }
+
+    private String readString() {
+        byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, MAX_STRING_BYTES);
+        //don't cut a multi-byte character in half
+        while (length < bytes.length && length > 0 && (bytes[length] & 0xC0) == 0x80) length--;
+
+        out.writeShort(length);
+        out.write(bytes, 0, length);
+    }
+
+    private static void writeVarInt(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0){
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(MappedByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0) return value;
+        }
+    }
+
+}
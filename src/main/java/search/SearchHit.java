@@ -0,0 +1,28 @@
+package search;
+
+/**
+ * Indexed message as returned by a search.
+ */
+public final class SearchHit {
+    private final String uid;
+    private final String from;
+    private final String subject;
+
+    public SearchHit(String uid, String from, String subject) {
+        this.uid = uid;
+        this.from = from;
+        this.subject = subject;
+    }
+
+    public String getUid() {
+        return uid;
+    }
+
+    public String getFrom() {
+        return from;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+}
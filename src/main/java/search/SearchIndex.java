@@ -0,0 +1,325 @@
+package search;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Local full-text index over downloaded messages, answering searches without a connection to the server.
+ * <p>
+ * Every message gets a document id in the order it was added. New messages are collected on the heap and written
+ * by {@link #flush()} as an immutable {@link IndexSegment}, so adding to a large index never rewrites it. Once
+ * there are more than {@link #MAX_SEGMENTS} segments they are merged into one, which keeps the number of files a
+ * search has to look at bounded.
+ * <p>
+ * A query matches the messages containing all of its terms; a term ending in {@code *} matches every term with
+ * that prefix. Hits are returned newest first. The index has a single user, it is not thread-safe.
+ */
+public final class SearchIndex implements Closeable {
+    public static final int MAX_SEGMENTS = 8;
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("^segment-(\\d+)\\.idx$");
+    private static final int[] NONE = new int[0];
+
+    private final Path directory;
+    private final List<IndexSegment> segments = new ArrayList<>();
+    private final Set<String> uids = new HashSet<>();
+    private int nextDoc;
+    private int nextSegment;
+
+    /**
+     * Messages added since the last flush, starting at document {@link #pendingBase}
+     */
+    private final List<SearchHit> pendingDocs = new ArrayList<>();
+    private final TreeMap<String, Postings> pendingPostings = new TreeMap<>();
+    private int pendingBase;
+
+    private SearchIndex(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Opens the index in the given directory, creating it if it doesn't exist.
+     * @param directory Directory of the index.
+     * @return The opened index.
+     * @throws IOException If a segment is corrupt or couldn't be read.
+     */
+    public static SearchIndex open(Path directory) throws IOException {
+        SearchIndex index = new SearchIndex(Files.createDirectories(directory));
+        index.load();
+
+        return index;
+    }
+
+    private void load() throws IOException {
+        TreeMap<Integer, Path> files = new TreeMap<>();
+        try (Stream<Path> list = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) list::iterator) {
+                Matcher matcher = SEGMENT_NAME.matcher(file.getFileName().toString());
+                if(matcher.matches()) files.put(Integer.parseInt(matcher.group(1)), file);
+                else if(file.getFileName().toString().endsWith(".tmp")) Files.delete(file);
+            }
+        }
+
+        for (Map.Entry<Integer, Path> file : files.entrySet()) {
+            IndexSegment segment = IndexSegment.open(file.getValue());
+
+            //a merged segment whose sources weren't deleted before a crash supersedes them
+            while (!segments.isEmpty() && segments.get(segments.size() - 1).getBaseDoc() >= segment.getBaseDoc())
+                Files.deleteIfExists(segments.remove(segments.size() - 1).getFile());
+            nextDoc = segment.getBaseDoc();
+
+            segments.add(segment);
+            nextDoc += segment.getDocumentCount();
+            nextSegment = file.getKey() + 1;
+        }
+
+        for (IndexSegment segment : segments)
+            for (int doc = segment.getBaseDoc(); doc < segment.getBaseDoc() + segment.getDocumentCount(); doc++)
+                uids.add(segment.document(doc).getUid());
+        pendingBase = nextDoc;
+    }
+
+    /**
+     * @param uid Unique id of the message.
+     * @return {@code true} if the message was added, flushed or not.
+     */
+    public boolean contains(String uid) {
+        return uids.contains(uid);
+    }
+
+    /**
+     * Adds a message. It is searchable right away and written to disk on the next {@link #flush()}.
+     * @param uid Unique id of the message.
+     * @param from Sender as shown in search results.
+     * @param subject Subject as shown in search results.
+     * @param text Text to index next to sender and subject, e.g. from {@link client.JavaMail#extractText(javax.mail.Part)}.
+     * @return {@code false} if the message was already indexed.
+     */
+    public boolean add(String uid, String from, String subject, CharSequence text) {
+        if(!uids.add(uid)) return false;
+
+        SearchHit document = new SearchHit(uid, from == null ? "" : from, subject == null ? "" : subject);
+        int doc = nextDoc++;
+        pendingDocs.add(document);
+
+        Consumer<String> postings = term -> pendingPostings.computeIfAbsent(term, t -> new Postings()).add(doc);
+        Tokenizer.tokenize(document.getFrom(), postings);
+        Tokenizer.tokenize(document.getSubject(), postings);
+        Tokenizer.tokenize(text, postings);
+
+        return true;
+    }
+
+    /**
+     * Writes the messages added since the last flush as a new segment and merges the segments if there are too
+     * many.
+     * @throws IOException If writing was not possible. The added messages stay pending in that case.
+     */
+    public void flush() throws IOException {
+        if(pendingDocs.isEmpty()) return;
+
+        SortedMap<String, int[]> postings = new TreeMap<>();
+        pendingPostings.forEach((term, docs) -> postings.put(term, docs.toArray()));
+
+        segments.add(IndexSegment.write(segmentFile(nextSegment), pendingBase, pendingDocs, postings));
+        nextSegment++;
+        pendingDocs.clear();
+        pendingPostings.clear();
+        pendingBase = nextDoc;
+
+        if(segments.size() > MAX_SEGMENTS) merge();
+    }
+
+    /**
+     * Searches the index.
+     * @param query Terms separated by white space, a trailing {@code *} makes a term a prefix.
+     * @param limit Maximum number of hits.
+     * @return Hits matching every term, newest first. Empty if the query has no terms.
+     */
+    public List<SearchHit> search(String query, int limit) {
+        int[] matches = null;
+
+        for (String word : query.trim().split("\\s+")) {
+            boolean prefix = word.endsWith("*");
+            List<String> terms = new ArrayList<>();
+            Tokenizer.tokenize(prefix ? word.substring(0, word.length() - 1) : word, terms::add);
+
+            for (int i = 0; i < terms.size(); i++) {
+                int[] docs = postings(terms.get(i), prefix && i == terms.size() - 1);
+                matches = matches == null ? docs : intersect(matches, docs);
+                if(matches.length == 0) return List.of();
+            }
+        }
+        if(matches == null) return List.of();
+
+        List<SearchHit> hits = new ArrayList<>(Math.min(limit, matches.length));
+        for (int i = matches.length - 1; i >= 0 && hits.size() < limit; i--) hits.add(document(matches[i]));
+
+        return hits;
+    }
+
+    /**
+     * @return Number of indexed messages.
+     */
+    public int size() {
+        return nextDoc;
+    }
+
+    /**
+     * Flushes pending messages.
+     * @throws IOException If writing was not possible.
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    int getSegmentCount() {
+        return segments.size();
+    }
+
+    private int[] postings(String term, boolean prefix) {
+        int[] docs = NONE;
+
+        //segments and pending documents cover ascending id ranges, so appending keeps the list sorted
+        for (IndexSegment segment : segments)
+            docs = concat(docs, prefix ? segment.prefixPostings(term) : segment.postings(term));
+
+        if(prefix) {
+            for (Map.Entry<String, Postings> entry : pendingPostings.tailMap(term).entrySet()) {
+                if(!entry.getKey().startsWith(term)) break;
+                docs = union(docs, entry.getValue().toArray());
+            }
+        } else {
+            Postings pending = pendingPostings.get(term);
+            if(pending != null) docs = concat(docs, pending.toArray());
+        }
+
+        return docs;
+    }
+
+    private SearchHit document(int doc) {
+        if(doc >= pendingBase) return pendingDocs.get(doc - pendingBase);
+
+        int low = 0, high = segments.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if(segments.get(middle).getBaseDoc() <= doc) low = middle;
+            else high = middle - 1;
+        }
+
+        return segments.get(low).document(doc);
+    }
+
+    /**
+     * Merges all segments into one. The sources are deleted only after the merged segment is in place.
+     */
+    private void merge() throws IOException {
+        List<SearchHit> documents = new ArrayList<>();
+        SortedMap<String, int[]> postings = new TreeMap<>();
+
+        for (IndexSegment segment : segments) {
+            for (int doc = segment.getBaseDoc(); doc < segment.getBaseDoc() + segment.getDocumentCount(); doc++)
+                documents.add(segment.document(doc));
+            for (String term : segment.terms())
+                postings.merge(term, segment.postings(term), SearchIndex::concat);
+        }
+
+        IndexSegment merged = IndexSegment.write(segmentFile(nextSegment), segments.get(0).getBaseDoc(), documents, postings);
+        nextSegment++;
+
+        for (IndexSegment segment : segments) Files.deleteIfExists(segment.getFile());
+        segments.clear();
+        segments.add(merged);
+    }
+
+    private Path segmentFile(int number) {
+        return directory.resolve(String.format("segment-%05d.idx", number));
+    }
+
+    private static int[] concat(int[] a, int[] b) {
+        if(a.length == 0) return b;
+        if(b.length == 0) return a;
+
+        int[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    /**
+     * @return Sorted ids contained in both sorted lists.
+     */
+    static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, size = 0;
+
+        while (i < a.length && j < b.length) {
+            if(a[i] < b[j]) i++;
+            else if(a[i] > b[j]) j++;
+            else {
+                result[size++] = a[i];
+                i++;
+                j++;
+            }
+        }
+
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * @return Sorted ids contained in either sorted list, without duplicates.
+     */
+    static int[] union(int[] a, int[] b) {
+        if(a.length == 0) return b;
+        if(b.length == 0) return a;
+
+        int[] result = new int[a.length + b.length];
+        int i = 0, j = 0, size = 0;
+
+        while (i < a.length || j < b.length) {
+            int next;
+            if(j == b.length || (i < a.length && a[i] < b[j])) next = a[i++];
+            else if(i == a.length || b[j] < a[i]) next = b[j++];
+            else {
+                next = a[i++];
+                j++;
+            }
+            result[size++] = next;
+        }
+
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Growable list of document ids of one pending term.
+     */
+    private static final class Postings {
+        private int[] docs = new int[4];
+        private int size;
+
+        void add(int doc) {
+            //a term occurring several times in a message is listed once
+            if(size > 0 && docs[size - 1] == doc) return;
+            if(size == docs.length) docs = Arrays.copyOf(docs, size * 2);
+            docs[size++] = doc;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(docs, size);
+        }
+    }
+}
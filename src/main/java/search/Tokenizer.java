@@ -0,0 +1,39 @@
+package search;
+
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * Splits text into index terms: runs of letters and digits, lower-cased. Terms shorter than {@link #MIN_LENGTH} are
+ * dropped and longer ones than {@link #MAX_LENGTH} are cut, so base64 residue and the like don't flood the
+ * dictionary.
+ */
+public final class Tokenizer {
+    public static final int MIN_LENGTH = 2;
+    public static final int MAX_LENGTH = 40;
+
+    private Tokenizer() {}
+
+    /**
+     * Emits the terms of a text in order, duplicates included.
+     * @param text Text to split.
+     * @param terms Receiver of the terms.
+     */
+    public static void tokenize(CharSequence text, Consumer<String> terms) {
+        int length = text.length();
+        int start = -1;
+
+        for (int i = 0; i <= length; i++) {
+            boolean wordChar = i < length && Character.isLetterOrDigit(text.charAt(i));
+            if(wordChar){
+                if(start < 0) start = i;
+                continue;
+            }
+            if(start < 0) continue;
+
+            if(i - start >= MIN_LENGTH)
+                terms.accept(text.subSequence(start, Math.min(i, start + MAX_LENGTH)).toString().toLowerCase(Locale.ROOT));
+            start = -1;
+        }
+    }
+}
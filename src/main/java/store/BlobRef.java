@@ -0,0 +1,33 @@
+package store;
+
+/**
+ * Reference to a blob in a {@link BlobStore}.
+ */
+public final class BlobRef {
+    /**
+     * SHA-256 of the content as lower-case hex
+     */
+    private final String hash;
+    private final long size;
+
+    public BlobRef(String hash, long size) {
+        this.hash = hash;
+        this.size = size;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return The reference as {@code sha256:<hash>}, the form used in message output.
+     */
+    @Override
+    public String toString() {
+        return "sha256:" + hash;
+    }
+}
@@ -0,0 +1,134 @@
+package store;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Content-addressed store for attachments. Every blob is named by the SHA-256 of its content, so identical
+ * attachments of different messages and accounts are stored once.
+ * <p>
+ * Content is streamed through a fixed buffer into a temporary file and hashed on the way, then moved to
+ * {@code <first two hex digits>/<hash>}. The heap use doesn't depend on the size of the attachment. Several
+ * threads and processes may write to the same store, a blob only becomes visible once it is complete.
+ */
+public final class BlobStore {
+    public static final int BUFFER_SIZE = 8192;
+
+    private static final String TEMPORARY = "tmp";
+
+    private final Path directory;
+    private final Path temporary;
+
+    private BlobStore(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.temporary = Files.createDirectories(directory.resolve(TEMPORARY));
+    }
+
+    /**
+     * Opens the store in the given directory, creating it if it doesn't exist.
+     * @param directory Directory of the store.
+     * @return The opened store.
+     * @throws IOException If the directory couldn't be created.
+     */
+    public static BlobStore open(Path directory) throws IOException {
+        return new BlobStore(directory);
+    }
+
+    /**
+     * Stores the content of a stream. The stream is read to its end but not closed.
+     * @param in Content to store.
+     * @return Reference to the blob, whether it was new or already stored.
+     * @throws IOException If reading or writing was not possible.
+     */
+    public BlobRef put(InputStream in) throws IOException {
+        MessageDigest digest = sha256();
+        Path file = Files.createTempFile(temporary, "blob-", ".part");
+        long size = 0;
+
+        try {
+            try (OutputStream out = Files.newOutputStream(file)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    digest.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                    size += read;
+                }
+            }
+
+            String hash = HexFormat.of().formatHex(digest.digest());
+            Path target = resolve(hash);
+            if(Files.exists(target)) {
+                Files.delete(file);
+            } else {
+                Files.createDirectories(target.getParent());
+                move(file, target);
+            }
+
+            return new BlobRef(hash, size);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+    }
+
+    /**
+     * @param hash SHA-256 of the content as hex.
+     * @return {@code true} if the blob is stored.
+     */
+    public boolean contains(String hash) {
+        return Files.exists(resolve(hash));
+    }
+
+    /**
+     * Opens a stored blob for reading.
+     * @param hash SHA-256 of the content as hex.
+     * @return Stream of the content, the caller closes it.
+     * @throws IOException If the blob isn't stored or couldn't be opened.
+     */
+    public InputStream open(String hash) throws IOException {
+        return Files.newInputStream(resolve(hash));
+    }
+
+    /**
+     * @param hash SHA-256 of the content as hex.
+     * @return Path of the blob, whether it exists or not.
+     * @throws IllegalArgumentException If the hash isn't 64 hex digits.
+     */
+    public Path resolve(String hash) {
+        if(hash.length() != 64 || !hash.chars().allMatch(c -> Character.digit(c, 16) >= 0))
+            throw new IllegalArgumentException("Not a SHA-256 hash: " + hash);
+
+        String normalized = hash.toLowerCase();
+        return directory.resolve(normalized.substring(0, 2)).resolve(normalized);
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        //a concurrent writer of the same content may win the race, the content is identical either way
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
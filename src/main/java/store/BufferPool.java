@@ -0,0 +1,104 @@
+package store;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out {@link MessageBuffer}s and caps the heap they use together. A buffer keeps a message in memory up to the
+ * threshold; larger messages, and every byte that doesn't fit under the cap anymore, go to a temporary file. The
+ * memory held by messages in flight never exceeds the cap, however many are fetched and decoded at the same time.
+ * <p>
+ * Buffers never wait for memory: a buffer that can't get more spills to disk, so a full pool slows writing down but
+ * can't deadlock the threads that would release it.
+ */
+public final class BufferPool {
+    public static final int DEFAULT_THRESHOLD = 1 << 20;
+    public static final long DEFAULT_MEMORY_CAP = 64L << 20;
+
+    private static BufferPool shared;
+
+    private final int threshold;
+    private final long memoryCap;
+    private final Path directory;
+
+    private final AtomicLong inMemory = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+
+    /**
+     * @param threshold Size up to which a message stays in memory.
+     * @param memoryCap Bytes all buffers of the pool may hold in memory together.
+     * @param directory Directory of the temporary files, {@code null} for the default one of the system.
+     */
+    public BufferPool(int threshold, long memoryCap, Path directory) {
+        if(threshold < 0 || memoryCap < 0) throw new IllegalArgumentException("Threshold and cap can't be negative");
+
+        this.threshold = threshold;
+        this.memoryCap = memoryCap;
+        this.directory = directory;
+    }
+
+    /**
+     * @return The pool of this process, with the default threshold and cap.
+     */
+    public static synchronized BufferPool shared() {
+        if(shared == null) shared = new BufferPool(DEFAULT_THRESHOLD, DEFAULT_MEMORY_CAP, null);
+
+        return shared;
+    }
+
+    /**
+     * @return An empty buffer. It has to be released once the message is no longer needed.
+     */
+    public MessageBuffer newBuffer() {
+        return new MessageBuffer(this);
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public long getMemoryCap() {
+        return memoryCap;
+    }
+
+    /**
+     * @return Bytes currently held in memory by the buffers of this pool.
+     */
+    public long getInMemory() {
+        return inMemory.get();
+    }
+
+    /**
+     * @return Number of buffers that went to disk so far.
+     */
+    public long getSpilled() {
+        return spilled.get();
+    }
+
+    /**
+     * Takes memory for a buffer.
+     * @param bytes Number of bytes.
+     * @return {@code false} if the cap would be exceeded, nothing is taken then.
+     */
+    boolean reserve(long bytes) {
+        long current;
+        do {
+            current = inMemory.get();
+            if(current + bytes > memoryCap) return false;
+        } while (!inMemory.compareAndSet(current, current + bytes));
+
+        return true;
+    }
+
+    void release(long bytes) {
+        inMemory.addAndGet(-bytes);
+    }
+
+    Path createSpillFile() throws IOException {
+        spilled.incrementAndGet();
+        return directory == null ? Files.createTempFile("message-", ".eml") :
+                Files.createTempFile(Files.createDirectories(directory), "message-", ".eml");
+    }
+}
@@ -0,0 +1,159 @@
+package store;
+
+import javax.mail.util.SharedByteArrayInputStream;
+import javax.mail.util.SharedFileInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Raw message in flight between fetching and decoding. It stays in memory while it is below the threshold of its
+ * {@link BufferPool} and the pool has memory left, otherwise it moves to a temporary file and is written there.
+ * <p>
+ * The buffer is written first and read after {@link #close()}, possibly on another thread. Its content is read
+ * through shared streams, so a {@code MimeMessage} parsed from it reads the parts from the array or the file instead
+ * of copying them. {@link #release()} gives the memory back and deletes the file.
+ */
+public final class MessageBuffer extends OutputStream {
+    private static final int INITIAL_CAPACITY = 4096;
+    private static final byte[] EMPTY = new byte[0];
+
+    private final BufferPool pool;
+
+    private byte[] data = EMPTY;
+    private int count;
+
+    /**
+     * Spill file and its stream, {@code null} while the message is in memory
+     */
+    private Path file;
+    private OutputStream fileOut;
+    private long fileSize;
+
+    /**
+     * Streams handed out by {@link #openStream()}, closed on release
+     */
+    private final List<InputStream> opened = new ArrayList<>();
+
+    private boolean closed;
+    private boolean released;
+
+    MessageBuffer(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if(closed) throw new IOException("Buffer is closed");
+
+        if(file == null && count + len > data.length && !grow(count + len)) spill();
+
+        if(file == null) {
+            System.arraycopy(b, off, data, count, len);
+            count += len;
+        } else {
+            fileOut.write(b, off, len);
+            fileSize += len;
+        }
+    }
+
+    /**
+     * Ends writing. The content can be read afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        if(closed) return;
+
+        closed = true;
+        if(fileOut != null) fileOut.close();
+    }
+
+    /**
+     * @return Number of bytes written.
+     */
+    public long size() {
+        return file == null ? count : fileSize;
+    }
+
+    /**
+     * @return {@code true} if the message went to a temporary file.
+     */
+    public boolean isSpilled() {
+        return file != null;
+    }
+
+    /**
+     * Opens the content for reading. The stream is a {@code javax.mail.internet.SharedInputStream} and is closed on
+     * release at the latest.
+     * @return Stream of the whole message.
+     * @throws IOException If the buffer is still being written or the spill file couldn't be opened.
+     */
+    public synchronized InputStream openStream() throws IOException {
+        if(!closed || released) throw new IOException("Buffer is not readable");
+        if(file == null) return new SharedByteArrayInputStream(data, 0, count);
+
+        InputStream in = new SharedFileInputStream(file.toFile());
+        opened.add(in);
+        return in;
+    }
+
+    /**
+     * Gives the memory back to the pool and deletes the spill file. Streams opened before are closed.
+     */
+    public synchronized void release() {
+        if(released) return;
+
+        released = true;
+        pool.release(data.length);
+        data = EMPTY;
+        count = 0;
+
+        try {
+            if(fileOut != null) fileOut.close();
+            for (InputStream in : opened) in.close();
+            if(file != null) Files.deleteIfExists(file);
+        } catch (IOException ignored) {
+            //the temporary file is only left behind
+        }
+        opened.clear();
+    }
+
+    /**
+     * Enlarges the array within the threshold and the cap of the pool.
+     * @return {@code false} if the message has to be spilled instead.
+     */
+    private boolean grow(int needed) {
+        if(needed > pool.getThreshold()) return false;
+
+        int capacity = (int) Math.min(pool.getThreshold(), Math.max(needed, Math.max(INITIAL_CAPACITY, 2L * data.length)));
+        if(!pool.reserve(capacity - data.length)) {
+            capacity = needed;
+            if(!pool.reserve(capacity - data.length)) return false;
+        }
+
+        data = Arrays.copyOf(data, capacity);
+        return true;
+    }
+
+    private void spill() throws IOException {
+        file = pool.createSpillFile();
+        fileOut = new BufferedOutputStream(Files.newOutputStream(file), BlobStore.BUFFER_SIZE);
+        fileOut.write(data, 0, count);
+        fileSize = count;
+
+        pool.release(data.length);
+        data = EMPTY;
+        count = 0;
+    }
+}
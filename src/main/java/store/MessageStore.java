@@ -0,0 +1,645 @@
+package store;
+
+import sync.MessageSink;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Local store for raw RFC 822 messages.
+ * <p>
+ * Messages are appended to segment files {@code segment-NNNNN.dat}. The index {@code index.dat} is a memory-mapped
+ * open-addressing hash table with fixed-width records (UID, segment, offset, length), so a lookup costs one hash
+ * and a few probes without loading the index onto the heap. Deleted entries are marked as tombstones and removed
+ * together with their bytes by {@link #compact()}. A message committed again replaces the stored copy, whose bytes
+ * become garbage as well; {@link #close()} compacts the store once the garbage outweighs the live messages.
+ * <p>
+ * The store has a single writer: a message is opened, written and committed before the next one is opened.
+ * <p>
+ * A store opened for an account records the account key in {@code account}, and opening it for another account
+ * fails. Deleting messages from the server on the word of a store requires that owner.
+ */
+public final class MessageStore implements MessageSink, Closeable {
+    /**
+     * Size after which a new segment is started
+     */
+    public static final long SEGMENT_LIMIT = 64L << 20;
+    /**
+     * Maximum length of a unique id, RFC 1939 allows up to 70 characters
+     */
+    public static final int MAX_UID_LENGTH = 70;
+    /**
+     * Garbage from which {@link #close()} compacts the store, if it is also at least half of the segments
+     */
+    public static final long COMPACT_MIN_GARBAGE = 1L << 20;
+
+    private static final int MAGIC = 0x4D535449; //"MSTI"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 96;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final String OWNER = "account";
+    private static final Pattern SEGMENT_NAME = Pattern.compile("^segment-(\\d+)\\.dat$");
+
+    private static final byte EMPTY = 0;
+    private static final byte LIVE = 1;
+    private static final byte DELETED = 2;
+
+    //record layout
+    private static final int UID_LENGTH = 1;
+    private static final int UID = 2;
+    private static final int SEGMENT = UID + MAX_UID_LENGTH;
+    private static final int OFFSET = SEGMENT + 4;
+    private static final int LENGTH = OFFSET + 8;
+
+    //header layout
+    private static final int H_CAPACITY = 8;
+    private static final int H_COUNT = 12;
+    private static final int H_TOMBSTONES = 16;
+    private static final int H_SEGMENT = 20;
+    private static final int H_GARBAGE = 24;
+
+    private final Path directory;
+    /**
+     * Account the store belongs to, {@code null} if unknown
+     */
+    private String account;
+
+    private FileChannel indexChannel;
+    private MappedByteBuffer index;
+    private int capacity;
+
+    /**
+     * Open read channels by segment number
+     */
+    private final Map<Integer, FileChannel> readChannels = new HashMap<>();
+    private FileChannel writeChannel;
+
+    /**
+     * Message that is currently being written, {@code null} if none
+     */
+    private String pendingUid;
+    private long pendingOffset;
+    private OutputStream pendingStream;
+
+    private MessageStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Opens the store in the given directory, creating it if it doesn't exist.
+     * @param directory Directory of the store.
+     * @return The opened store.
+     * @throws IOException If the index is corrupt or couldn't be opened.
+     */
+    public static MessageStore open(Path directory) throws IOException {
+        MessageStore store = new MessageStore(Files.createDirectories(directory));
+        Path indexFile = store.indexFile();
+
+        if(Files.exists(indexFile)) {
+            store.mapIndex(indexFile);
+            if(store.index.getInt(0) != MAGIC || store.index.getInt(4) != VERSION) {
+                store.closeChannels();
+                throw new IOException("Unknown index format: " + indexFile);
+            }
+            store.capacity = store.index.getInt(H_CAPACITY);
+        } else {
+            store.createIndex(indexFile, INITIAL_CAPACITY, 0);
+        }
+
+        return store;
+    }
+
+    /**
+     * Opens the store of an account. An empty store without owner is claimed for the account; a store written
+     * without owner, e.g. by an earlier version, is opened without one.
+     * @param directory Directory of the store.
+     * @param account Account key, e.g. {@code user@host:port}.
+     * @return The opened store.
+     * @throws IOException If the store belongs to another account, or couldn't be opened.
+     */
+    public static MessageStore open(Path directory, String account) throws IOException {
+        MessageStore store = open(directory);
+        Path owner = directory.resolve(OWNER);
+
+        try {
+            if(Files.exists(owner)) {
+                String recorded = Files.readString(owner, StandardCharsets.UTF_8);
+                if(!recorded.equals(account)) throw new IOException("Store " + directory + " belongs to " + recorded);
+                store.account = recorded;
+            } else if(store.size() == 0 && store.index.getInt(H_TOMBSTONES) == 0) {
+                Path temp = directory.resolve(OWNER + ".tmp");
+                Files.writeString(temp, account, StandardCharsets.UTF_8);
+                Files.move(temp, owner, StandardCopyOption.ATOMIC_MOVE);
+                store.account = account;
+            }
+        } catch (IOException e) {
+            store.closeChannels();
+            throw e;
+        }
+
+        return store;
+    }
+
+    /**
+     * @return Key of the account the store belongs to, {@code null} if it has no recorded owner.
+     */
+    public String getAccount() {
+        return account;
+    }
+
+    @Override
+    public OutputStream open(String uid) throws IOException {
+        if(pendingUid != null) throw new IllegalStateException("Message " + pendingUid + " is still open");
+        if(uidBytes(uid).length > MAX_UID_LENGTH) throw new IllegalArgumentException("UID is too long: " + uid);
+
+        FileChannel channel = writeChannel();
+        if(channel.size() >= SEGMENT_LIMIT) {
+            index.putInt(H_SEGMENT, currentSegment() + 1);
+            writeChannel.close();
+            writeChannel = null;
+            channel = writeChannel();
+        }
+
+        pendingUid = uid;
+        pendingOffset = channel.size();
+        channel.position(pendingOffset);
+
+        //the channel stays open, only the buffer is flushed on close
+        pendingStream = new BufferedOutputStream(Channels.newOutputStream(channel), 16 * 1024) {
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+        return pendingStream;
+    }
+
+    @Override
+    public void commit(String uid, long size) throws IOException {
+        requirePending(uid);
+
+        pendingStream.flush();
+        long length = writeChannel.position() - pendingOffset;
+        //a message fetched again replaces the stored copy
+        delete(uid);
+        put(uid, currentSegment(), pendingOffset, length);
+        pendingUid = null;
+        pendingStream = null;
+    }
+
+    @Override
+    public void abort(String uid) throws IOException {
+        requirePending(uid);
+
+        pendingStream.flush();
+        writeChannel.truncate(pendingOffset);
+        pendingUid = null;
+        pendingStream = null;
+    }
+
+    /**
+     * @param uid Unique id of the message.
+     * @return {@code true} if the message is stored.
+     */
+    @Override
+    public boolean contains(String uid) {
+        return find(uidBytes(uid)) >= 0;
+    }
+
+    /**
+     * @param uid Unique id of the message.
+     * @return Size of the stored message in bytes, {@code -1} if it isn't stored.
+     */
+    public long length(String uid) {
+        int slot = find(uidBytes(uid));
+        return slot < 0 ? -1 : index.getLong(recordPosition(slot) + LENGTH);
+    }
+
+    /**
+     * @return Number of stored messages.
+     */
+    public int size() {
+        return index.getInt(H_COUNT);
+    }
+
+    /**
+     * @return Bytes of deleted and replaced messages that the segments still hold.
+     */
+    public long getGarbage() {
+        return index.getLong(H_GARBAGE);
+    }
+
+    /**
+     * @return Unique ids of the stored messages, in no particular order.
+     */
+    public List<String> uids() {
+        List<String> uids = new ArrayList<>(size());
+        for (int slot = 0; slot < capacity; slot++) {
+            int position = recordPosition(slot);
+            if(index.get(position) != LIVE) continue;
+
+            byte[] uid = new byte[index.get(position + UID_LENGTH)];
+            index.get(position + UID, uid);
+            uids.add(new String(uid, StandardCharsets.UTF_8));
+        }
+
+        return uids;
+    }
+
+    /**
+     * Copies a stored message to the given channel. The bytes are transferred by the file system without passing
+     * through the heap where the target allows it.
+     * @param uid Unique id of the message.
+     * @param target Channel to write the message to. It is not closed.
+     * @return Number of bytes written, {@code -1} if the message isn't stored.
+     * @throws IOException If reading or writing was not possible.
+     */
+    public long transferTo(String uid, WritableByteChannel target) throws IOException {
+        int slot = find(uidBytes(uid));
+        if(slot < 0) return -1;
+
+        int position = recordPosition(slot);
+        FileChannel channel = readChannel(index.getInt(position + SEGMENT));
+        long offset = index.getLong(position + OFFSET);
+        long length = index.getLong(position + LENGTH);
+
+        copy(channel, offset, length, target);
+        return length;
+    }
+
+    /**
+     * Opens a stream over a stored message.
+     * @param uid Unique id of the message.
+     * @return Stream of the raw message, {@code null} if it isn't stored.
+     * @throws IOException If the segment couldn't be opened.
+     */
+    public InputStream openStream(String uid) throws IOException {
+        int slot = find(uidBytes(uid));
+        if(slot < 0) return null;
+
+        int position = recordPosition(slot);
+        return new SegmentInputStream(readChannel(index.getInt(position + SEGMENT)),
+                index.getLong(position + OFFSET), index.getLong(position + LENGTH));
+    }
+
+    @Override
+    public InputStream openCommitted(String uid) throws IOException {
+        InputStream in = openStream(uid);
+        if(in == null) throw new NoSuchFileException(uid);
+
+        return in;
+    }
+
+    /**
+     * Marks a message as deleted. Its bytes stay in the segment until the next {@link #compact()}.
+     * @param uid Unique id of the message.
+     * @return {@code true} if the message was stored.
+     */
+    public boolean delete(String uid) {
+        int slot = find(uidBytes(uid));
+        if(slot < 0) return false;
+
+        int position = recordPosition(slot);
+        index.put(position, DELETED);
+        index.putInt(H_COUNT, index.getInt(H_COUNT) - 1);
+        index.putInt(H_TOMBSTONES, index.getInt(H_TOMBSTONES) + 1);
+        index.putLong(H_GARBAGE, index.getLong(H_GARBAGE) + index.getLong(position + LENGTH));
+        return true;
+    }
+
+    /**
+     * Copies every live message into fresh segments, rebuilds the index without tombstones and deletes the old
+     * segments.
+     * @throws IOException If copying was not possible. The old index and segments stay valid in that case.
+     */
+    public void compact() throws IOException {
+        if(pendingUid != null) throw new IllegalStateException("Message " + pendingUid + " is still open");
+
+        int oldLast = currentSegment();
+        int newSegment = oldLast + 1;
+
+        Path tempIndex = directory.resolve("index.dat.tmp");
+        MessageStore target = new MessageStore(directory);
+        target.createIndex(tempIndex, capacityFor(size()), newSegment);
+
+        try {
+            for (int slot = 0; slot < capacity; slot++) {
+                int position = recordPosition(slot);
+                if(index.get(position) != LIVE) continue;
+
+                int segment = index.getInt(position + SEGMENT);
+
+                byte[] uid = new byte[index.get(position + UID_LENGTH)];
+                index.get(position + UID, uid);
+
+                FileChannel out = target.writeChannel();
+                if(out.size() >= SEGMENT_LIMIT) {
+                    target.index.putInt(H_SEGMENT, target.currentSegment() + 1);
+                    target.writeChannel.close();
+                    target.writeChannel = null;
+                    out = target.writeChannel();
+                }
+
+                long offset = out.size();
+                long length = index.getLong(position + LENGTH);
+                copy(readChannel(segment), index.getLong(position + OFFSET), length, out);
+
+                target.put(new String(uid, StandardCharsets.UTF_8), target.currentSegment(), offset, length);
+            }
+            target.force();
+        } finally {
+            target.closeChannels();
+        }
+
+        closeChannels();
+        Files.move(tempIndex, indexFile(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        mapIndex(indexFile());
+        capacity = index.getInt(H_CAPACITY);
+
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Matcher matcher = SEGMENT_NAME.matcher(file.getFileName().toString());
+                if(matcher.matches() && Integer.parseInt(matcher.group(1)) <= oldLast) Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Forces the index and the current segment to disk.
+     * @throws IOException If writing was not possible.
+     */
+    @Override
+    public void force() throws IOException {
+        if(writeChannel != null) writeChannel.force(false);
+        index.force();
+    }
+
+    /**
+     * Compacts the store if at least {@link #COMPACT_MIN_GARBAGE} bytes and half of the segments are garbage, then
+     * forces and closes it.
+     * @throws IOException If compacting or writing was not possible. The store is closed anyway.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if(pendingUid == null && isWasteful()) compact();
+        } finally {
+            force();
+            closeChannels();
+        }
+    }
+
+    private void closeChannels() throws IOException {
+        for (FileChannel channel : readChannels.values()) channel.close();
+        readChannels.clear();
+
+        if(writeChannel != null) writeChannel.close();
+        writeChannel = null;
+
+        if(indexChannel != null) indexChannel.close();
+        indexChannel = null;
+    }
+
+    private boolean isWasteful() throws IOException {
+        long garbage = getGarbage();
+        if(garbage < COMPACT_MIN_GARBAGE) return false;
+
+        long stored = 0;
+        for (int segment = 0; segment <= currentSegment(); segment++) {
+            Path file = segmentFile(segment);
+            if(Files.exists(file)) stored += Files.size(file);
+        }
+
+        return garbage * 2 >= stored;
+    }
+
+    private void put(String uid, int segment, long offset, long length) throws IOException {
+        byte[] key = uidBytes(uid);
+        int existing = find(key);
+        if(existing >= 0) {
+            writeRecord(existing, key, segment, offset, length);
+            return;
+        }
+
+        if((index.getInt(H_COUNT) + index.getInt(H_TOMBSTONES) + 1) * 10L > capacity * 7L)
+            rehash(capacityFor(index.getInt(H_COUNT) + 1));
+
+        int slot = hash(key) & (capacity - 1);
+        while (index.get(recordPosition(slot)) == LIVE) slot = (slot + 1) & (capacity - 1);
+
+        if(index.get(recordPosition(slot)) == DELETED)
+            index.putInt(H_TOMBSTONES, index.getInt(H_TOMBSTONES) - 1);
+
+        writeRecord(slot, key, segment, offset, length);
+        index.putInt(H_COUNT, index.getInt(H_COUNT) + 1);
+    }
+
+    private void writeRecord(int slot, byte[] key, int segment, long offset, long length) {
+        int position = recordPosition(slot);
+        index.put(position + UID_LENGTH, (byte) key.length);
+        index.put(position + UID, key);
+        index.putInt(position + SEGMENT, segment);
+        index.putLong(position + OFFSET, offset);
+        index.putLong(position + LENGTH, length);
+        index.put(position, LIVE);
+    }
+
+    /**
+     * @param key Encoded unique id.
+     * @return Slot of the live record with that id, {@code -1} if there is none.
+     */
+    private int find(byte[] key) {
+        if(key.length > MAX_UID_LENGTH) return -1;
+
+        int slot = hash(key) & (capacity - 1);
+        for (int probes = 0; probes < capacity; probes++) {
+            int position = recordPosition(slot);
+            byte state = index.get(position);
+            if(state == EMPTY) return -1;
+            if(state == LIVE && matches(position, key)) return slot;
+
+            slot = (slot + 1) & (capacity - 1);
+        }
+
+        return -1;
+    }
+
+    private boolean matches(int position, byte[] key) {
+        if(index.get(position + UID_LENGTH) != key.length) return false;
+
+        for (int i = 0; i < key.length; i++)
+            if(index.get(position + UID + i) != key[i]) return false;
+
+        return true;
+    }
+
+    private void rehash(int newCapacity) throws IOException {
+        Path tempIndex = directory.resolve("index.dat.tmp");
+        MessageStore target = new MessageStore(directory);
+        target.createIndex(tempIndex, newCapacity, currentSegment());
+
+        for (int slot = 0; slot < capacity; slot++) {
+            int position = recordPosition(slot);
+            if(index.get(position) != LIVE) continue;
+
+            byte[] uid = new byte[index.get(position + UID_LENGTH)];
+            index.get(position + UID, uid);
+            target.put(new String(uid, StandardCharsets.UTF_8), index.getInt(position + SEGMENT),
+                    index.getLong(position + OFFSET), index.getLong(position + LENGTH));
+        }
+        //the bytes of the dropped tombstones are still in the segments
+        target.index.putLong(H_GARBAGE, getGarbage());
+        target.index.force();
+        target.indexChannel.close();
+
+        indexChannel.close();
+        Files.move(tempIndex, indexFile(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        mapIndex(indexFile());
+        capacity = newCapacity;
+    }
+
+    private void createIndex(Path file, int capacity, int segment) throws IOException {
+        Files.deleteIfExists(file);
+        this.indexChannel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * RECORD_SIZE);
+        this.capacity = capacity;
+
+        index.putInt(0, MAGIC);
+        index.putInt(4, VERSION);
+        index.putInt(H_CAPACITY, capacity);
+        index.putInt(H_COUNT, 0);
+        index.putInt(H_TOMBSTONES, 0);
+        index.putInt(H_SEGMENT, segment);
+        index.putLong(H_GARBAGE, 0);
+    }
+
+    private void mapIndex(Path file) throws IOException {
+        indexChannel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexChannel.size());
+    }
+
+    private FileChannel writeChannel() throws IOException {
+        if(writeChannel == null)
+            writeChannel = FileChannel.open(segmentFile(currentSegment()), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+
+        return writeChannel;
+    }
+
+    private FileChannel readChannel(int segment) throws IOException {
+        FileChannel channel = readChannels.get(segment);
+        if(channel == null) {
+            channel = FileChannel.open(segmentFile(segment), StandardOpenOption.READ);
+            readChannels.put(segment, channel);
+        }
+
+        return channel;
+    }
+
+    private void requirePending(String uid) {
+        if(!uid.equals(pendingUid)) throw new IllegalStateException("Message " + uid + " is not open");
+    }
+
+    private int currentSegment() {
+        return index.getInt(H_SEGMENT);
+    }
+
+    private Path indexFile() {
+        return directory.resolve("index.dat");
+    }
+
+    private Path segmentFile(int segment) {
+        return directory.resolve(String.format("segment-%05d.dat", segment));
+    }
+
+    private static void copy(FileChannel in, long offset, long length, WritableByteChannel out) throws IOException {
+        long transferred = 0;
+        while (transferred < length){
+            long count = in.transferTo(offset + transferred, length - transferred, out);
+            if(count <= 0) throw new IOException("Segment ends inside a message");
+
+            transferred += count;
+        }
+    }
+
+    private static int recordPosition(int slot) {
+        return HEADER_SIZE + slot * RECORD_SIZE;
+    }
+
+    private static int capacityFor(int entries) {
+        int capacity = INITIAL_CAPACITY;
+        while (entries * 10L > capacity * 5L) capacity <<= 1;
+
+        return capacity;
+    }
+
+    private static int hash(byte[] key) {
+        int h = 0x811C9DC5;
+        for (byte b : key) h = (h ^ b) * 0x01000193;
+
+        return h ^ (h >>> 16);
+    }
+
+    private static byte[] uidBytes(String uid) {
+        return uid.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Bounded stream over one message of a segment, reading with positional reads so several streams can share
+     * the channel.
+     */
+    private static final class SegmentInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+
+        SegmentInputStream(FileChannel channel, long offset, long length) {
+            this.channel = channel;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(position >= end) return -1;
+
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, (int) Math.min(len, end - position));
+            int read = channel.read(buffer, position);
+            if(read > 0) position += read;
+
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package sync;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Number of bytes a run may download, shared by all accounts of the run. Every account takes a {@link Share} and
+ * reserves each message before fetching it; a message that doesn't fit anymore waits for a later run.
+ * <p>
+ * A fair budget hands out bytes round-robin: an account that has already received more than another active
+ * account waits until the others caught up or finished. One account with huge messages can't use up the budget or
+ * the bandwidth while the others wait.
+ */
+public final class ByteBudget {
+    private final long limit;
+    private final boolean fair;
+
+    /**
+     * Everything below is guarded by {@code this}
+     */
+    private long used;
+    private final List<Share> shares = new ArrayList<>();
+
+    /**
+     * @param limit Bytes the run may download, {@link Long#MAX_VALUE} for no limit.
+     * @param fair {@code true} to hand out the bytes round-robin across the accounts.
+     */
+    public ByteBudget(long limit, boolean fair) {
+        if(limit < 0) throw new IllegalArgumentException("Budget can't be negative: " + limit);
+
+        this.limit = limit;
+        this.fair = fair;
+    }
+
+    /**
+     * Registers an account. The share has to be closed once the account is done, or fair budgets wait for it.
+     * @return The share of the account.
+     */
+    public synchronized Share join() {
+        Share share = new Share();
+        shares.add(share);
+
+        return share;
+    }
+
+    /**
+     * @return Bytes reserved so far.
+     */
+    public synchronized long getUsed() {
+        return used;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    private long minGranted() {
+        long min = Long.MAX_VALUE;
+        for (Share share : shares) min = Math.min(min, share.granted);
+
+        return min;
+    }
+
+    /**
+     * Part of the budget used by one account.
+     */
+    public final class Share implements AutoCloseable {
+        /**
+         * Bytes reserved by this account, guarded by the budget
+         */
+        private long granted;
+
+        private Share() {}
+
+        /**
+         * Reserves a message. With a fair budget this waits while the account is ahead of another one.
+         * @param bytes Size of the message.
+         * @return {@code false} if the message doesn't fit into the rest of the budget.
+         * @throws InterruptedIOException If the thread was interrupted while waiting for its turn.
+         */
+        public boolean reserve(long bytes) throws InterruptedIOException {
+            synchronized (ByteBudget.this) {
+                try {
+                    while (fair && granted > minGranted()) ByteBudget.this.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the byte budget");
+                }
+
+                if(limit - used < bytes) return false;
+
+                used += bytes;
+                granted += bytes;
+                ByteBudget.this.notifyAll();
+                return true;
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (ByteBudget.this) {
+                if(shares.remove(this)) ByteBudget.this.notifyAll();
+            }
+        }
+    }
+}
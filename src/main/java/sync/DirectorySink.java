@@ -0,0 +1,99 @@
+package sync;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores every message as {@code <uid>.eml} in a directory, the uid encoded by {@link SyncState#safeName(String)} so
+ * that no two uids share a file. Messages are written to a {@code .part} file first and renamed on commit; a file
+ * that is already there is only replaced if its size shows that it is torn.
+ */
+public final class DirectorySink implements MessageSink {
+    private final Path directory;
+
+    /**
+     * Files committed since the last {@link #force()}
+     */
+    private final List<Path> unsynced = new ArrayList<>();
+
+    public DirectorySink(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    @Override
+    public OutputStream open(String uid) throws IOException {
+        return new BufferedOutputStream(Files.newOutputStream(partFile(uid)));
+    }
+
+    @Override
+    public void commit(String uid, long size) throws IOException {
+        Path file = messageFile(uid);
+
+        //a uid names one message for good, an intact copy stored before stays, a torn one is replaced
+        if(Files.exists(file) && Files.size(file) == size) {
+            Files.delete(partFile(uid));
+            return;
+        }
+
+        Files.move(partFile(uid), file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        unsynced.add(file);
+    }
+
+    @Override
+    public boolean contains(String uid) {
+        return Files.exists(messageFile(uid));
+    }
+
+    @Override
+    public InputStream openCommitted(String uid) throws IOException {
+        return Files.newInputStream(messageFile(uid));
+    }
+
+    /**
+     * Syncs the files committed since the last call and then the directory, which makes the renames durable.
+     */
+    @Override
+    public void force() throws IOException {
+        if(unsynced.isEmpty()) return;
+
+        for (Path file : unsynced) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                channel.force(true);
+            }
+        }
+        unsynced.clear();
+
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) {
+            //not every file system lets a directory be opened, the renames are synced with it where it can
+        }
+    }
+
+    @Override
+    public void abort(String uid) throws IOException {
+        Files.deleteIfExists(partFile(uid));
+    }
+
+    /**
+     * @param uid Unique id of the message.
+     * @return File the committed message is stored in.
+     */
+    public Path messageFile(String uid) {
+        return directory.resolve(SyncState.safeName(uid) + ".eml");
+    }
+
+    private Path partFile(String uid) {
+        Path file = messageFile(uid);
+        return file.resolveSibling(file.getFileName() + ".part");
+    }
+}
@@ -0,0 +1,262 @@
+package sync;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * Write-ahead journal of the messages a sync has stored. {@link SyncState} is only saved at the end of a run; if the
+ * process dies before that, the journal tells the next run which messages are already stored, so it continues with
+ * the first one that isn't.
+ * <p>
+ * Every entry holds the unique id, the size and the CRC32C of a stored message and is protected by its own
+ * checksum. Entries are collected in a buffer and synced in groups of {@link #SYNC_RECORDS} or after
+ * {@link #SYNC_INTERVAL_MILLIS}, whichever comes first. Before a group is written the sink is forced, so an entry
+ * never reaches the file before its message; entries that weren't synced are dropped on {@link #close()}. A torn
+ * entry at the end of the file is cut off when the journal is opened, and {@link #isStored(String, MessageSink)}
+ * checks the message against its size and checksum before a run relies on it.
+ */
+public final class DownloadJournal implements Closeable {
+    public static final int SYNC_RECORDS = 256;
+    public static final long SYNC_INTERVAL_MILLIS = 1000;
+
+    private static final int MAGIC = 0x4A524E4C; //"JRNL"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_UID_BYTES = 0xFFFF;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CRC32C crc = new CRC32C();
+
+    /**
+     * Entries read on opening and appended since, by unique id
+     */
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    private int unsynced;
+    private long lastSync = System.currentTimeMillis();
+
+    private DownloadJournal(Path file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Opens the journal of an account and reads its complete entries.
+     * @param directory Directory containing the journals, usually the one of the sync state.
+     * @param account Account key, e.g. {@code user@host:port}.
+     * @return The journal.
+     * @throws IOException If the file couldn't be opened or isn't a journal.
+     */
+    public static DownloadJournal open(Path directory, String account) throws IOException {
+        Files.createDirectories(directory);
+        DownloadJournal journal = new DownloadJournal(SyncState.resolve(directory, account, ".journal"));
+
+        try {
+            journal.recover();
+        } catch (IOException | RuntimeException e) {
+            journal.channel.close();
+            throw e;
+        }
+
+        return journal;
+    }
+
+    /**
+     * @param uid Unique id of the message.
+     * @return {@code true} if the message was stored completely according to the journal.
+     */
+    public boolean contains(String uid) {
+        return entries.containsKey(uid);
+    }
+
+    /**
+     * Tells whether a journaled message is intact in the sink. The message is read back and compared with the size
+     * and the CRC32C of its entry. Sinks that can't read their messages back are trusted, as an entry only reaches
+     * the file after they were forced.
+     * @param uid Unique id of the message.
+     * @param sink Sink the message was committed to.
+     * @return {@code true} if the message doesn't have to be fetched again.
+     * @throws IOException If reading the message was not possible.
+     */
+    public boolean isStored(String uid, MessageSink sink) throws IOException {
+        Entry entry = entries.get(uid);
+        if(entry == null) return false;
+
+        CRC32C checksum = new CRC32C();
+        long size = 0;
+        try (InputStream in = sink.openCommitted(uid)) {
+            if(in == null) return true;
+
+            byte[] chunk = new byte[BUFFER_SIZE];
+            for (int read; (read = in.read(chunk)) >= 0; size += read) checksum.update(chunk, 0, read);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+
+        return size == entry.getSize() && (int) checksum.getValue() == entry.getChecksum();
+    }
+
+    /**
+     * @return Entries by unique id, in the order they were written.
+     */
+    public Map<String, Entry> getEntries() {
+        return Collections.unmodifiableMap(entries);
+    }
+
+    /**
+     * Records a committed message. The entry is written with the next group, see {@link #sync(MessageSink)}.
+     * @param uid Unique id of the message.
+     * @param size Size of the stored message.
+     * @param checksum CRC32C of the stored message.
+     * @param sink Sink the message was committed to, forced before a group is synced.
+     * @throws IOException If writing or syncing was not possible.
+     */
+    public void append(String uid, long size, int checksum, MessageSink sink) throws IOException {
+        byte[] key = uid.getBytes(StandardCharsets.UTF_8);
+        if(key.length > MAX_UID_BYTES) throw new IllegalArgumentException("Unique id is too long: " + uid);
+
+        int length = 2 + key.length + 8 + 4;
+        if(buffer.remaining() < 4 + length + 4) sync(sink);
+
+        int start = buffer.position();
+        buffer.putInt(length);
+        buffer.putShort((short) key.length);
+        buffer.put(key);
+        buffer.putLong(size);
+        buffer.putInt(checksum);
+
+        crc.reset();
+        crc.update(buffer.array(), start + 4, length);
+        buffer.putInt((int) crc.getValue());
+
+        entries.put(uid, new Entry(size, checksum));
+        unsynced++;
+        if(unsynced >= SYNC_RECORDS || System.currentTimeMillis() - lastSync >= SYNC_INTERVAL_MILLIS) sync(sink);
+    }
+
+    /**
+     * Makes all appended entries durable: first the messages in the sink, then the journal.
+     * @param sink Sink the messages were committed to.
+     * @throws IOException If syncing was not possible.
+     */
+    public void sync(MessageSink sink) throws IOException {
+        if(unsynced > 0) {
+            sink.force();
+            writeBuffer();
+            channel.force(false);
+        }
+
+        unsynced = 0;
+        lastSync = System.currentTimeMillis();
+    }
+
+    /**
+     * Empties the journal once its entries are covered by a saved {@link SyncState}.
+     * @throws IOException If truncating was not possible.
+     */
+    public void clear() throws IOException {
+        buffer.clear();
+        entries.clear();
+        unsynced = 0;
+
+        channel.truncate(HEADER_SIZE);
+        channel.force(false);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Closes the file. Entries appended since the last {@link #sync(MessageSink)} are dropped, as their messages
+     * may not be durable; the next run fetches those again.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void recover() throws IOException {
+        long size = channel.size();
+        if(size < HEADER_SIZE) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip();
+            channel.truncate(0);
+            while (header.hasRemaining()) channel.write(header, HEADER_SIZE - header.remaining());
+            channel.force(false);
+            channel.position(HEADER_SIZE);
+            return;
+        }
+
+        ByteBuffer content = ByteBuffer.allocate((int) Math.min(size, Integer.MAX_VALUE));
+        while (content.hasRemaining() && channel.read(content, content.position()) >= 0);
+        content.flip();
+
+        if(content.getInt() != MAGIC || content.getInt() != VERSION) throw new IOException("Unknown journal format: " + file);
+
+        long valid = HEADER_SIZE;
+        while (content.remaining() >= 4) {
+            int length = content.getInt(content.position());
+            if(length < 14 || content.remaining() < 4 + length + 4) break;
+
+            crc.reset();
+            crc.update(content.array(), content.position() + 4, length);
+            if(content.getInt(content.position() + 4 + length) != (int) crc.getValue()) break;
+
+            content.position(content.position() + 4);
+            byte[] key = new byte[Short.toUnsignedInt(content.getShort())];
+            content.get(key);
+            entries.put(new String(key, StandardCharsets.UTF_8), new Entry(content.getLong(), content.getInt()));
+            content.position(content.position() + 4);
+            valid = content.position();
+        }
+
+        //cut off a torn entry, so new entries don't end up behind garbage
+        if(valid < size) {
+            channel.truncate(valid);
+            channel.force(false);
+        }
+        channel.position(valid);
+    }
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Stored message as recorded in the journal.
+     */
+    public static final class Entry {
+        private final long size;
+        private final int checksum;
+
+        public Entry(long size, int checksum) {
+            this.size = size;
+            this.checksum = checksum;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public int getChecksum() {
+            return checksum;
+        }
+    }
+}
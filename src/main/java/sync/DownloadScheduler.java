@@ -0,0 +1,130 @@
+package sync;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides in which order the missing messages of an account are fetched, using the sizes from {@code LIST}, and
+ * which of them wait for a later run.
+ * <ul>
+ *     <li>{@link Policy#SMALLEST_FIRST} fetches the smallest messages first, so the first mails arrive quickly.</li>
+ *     <li>{@link Policy#ROUND_ROBIN} keeps the server order and shares the bytes of the run evenly across the
+ *     accounts, see {@link ByteBudget}.</li>
+ * </ul>
+ * Messages above the large-message size go to a low-priority lane behind all others, so one huge message never
+ * holds up the small ones. An account budget limits the bytes of one account per run, a run budget the bytes of
+ * all accounts together. Messages over budget are left for the next run.
+ * <p>
+ * One scheduler is shared by all accounts of a run.
+ */
+public final class DownloadScheduler {
+    public static final long DEFAULT_LARGE_MESSAGE_BYTES = 10_000_000;
+
+    public enum Policy {
+        /**
+         * Server order
+         */
+        ARRIVAL,
+        SMALLEST_FIRST,
+        ROUND_ROBIN;
+
+        /**
+         * @param name Name as given on the command line: {@code arrival}, {@code smallest} or {@code round-robin}.
+         * @return The policy.
+         * @throws IllegalArgumentException If the name is unknown.
+         */
+        public static Policy parse(String name) {
+            return switch (name){
+                case "arrival" -> ARRIVAL;
+                case "smallest" -> SMALLEST_FIRST;
+                case "round-robin" -> ROUND_ROBIN;
+                default -> throw new IllegalArgumentException("Order has to be arrival, smallest or round-robin: " + name);
+            };
+        }
+    }
+
+    private final Policy policy;
+    private long largeMessageBytes = DEFAULT_LARGE_MESSAGE_BYTES;
+    private long accountBudget = Long.MAX_VALUE;
+    private ByteBudget runBudget;
+
+    public DownloadScheduler(Policy policy) {
+        this.policy = policy;
+        this.runBudget = new ByteBudget(Long.MAX_VALUE, policy == Policy.ROUND_ROBIN);
+    }
+
+    /**
+     * @param bytes Size from which a message goes to the low-priority lane.
+     * @return This scheduler.
+     */
+    public DownloadScheduler largeMessage(long bytes) {
+        this.largeMessageBytes = bytes;
+        return this;
+    }
+
+    /**
+     * @param bytes Bytes one account may download per run.
+     * @return This scheduler.
+     */
+    public DownloadScheduler accountBudget(long bytes) {
+        if(bytes < 0) throw new IllegalArgumentException("Budget can't be negative: " + bytes);
+
+        this.accountBudget = bytes;
+        return this;
+    }
+
+    /**
+     * @param bytes Bytes all accounts together may download per run.
+     * @return This scheduler.
+     */
+    public DownloadScheduler runBudget(long bytes) {
+        this.runBudget = new ByteBudget(bytes, policy == Policy.ROUND_ROBIN);
+        return this;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return The budget shared by the accounts of the run, without limit if none was set.
+     */
+    public ByteBudget getRunBudget() {
+        return runBudget;
+    }
+
+    /**
+     * Orders the missing messages of an account and drops the ones over the account budget.
+     * @param missing Map from message number to unique id of the messages to fetch, ordered by message number.
+     * @param sizes Map from message number to size. Messages without a size count as empty.
+     * @return Message numbers in the order they are fetched.
+     */
+    public List<Integer> plan(Map<Integer, String> missing, Map<Integer, Long> sizes) {
+        List<Integer> normal = new ArrayList<>();
+        List<Integer> large = new ArrayList<>();
+        for (int messageNumber : missing.keySet())
+            (sizes.getOrDefault(messageNumber, 0L) >= largeMessageBytes ? large : normal).add(messageNumber);
+
+        if(policy == Policy.SMALLEST_FIRST) {
+            Comparator<Integer> bySize = Comparator.comparingLong(messageNumber -> sizes.getOrDefault(messageNumber, 0L));
+            normal.sort(bySize);
+            large.sort(bySize);
+        }
+
+        List<Integer> plan = new ArrayList<>(missing.size());
+        long remaining = accountBudget;
+        for (List<Integer> lane : List.of(normal, large)) {
+            for (int messageNumber : lane) {
+                long size = sizes.getOrDefault(messageNumber, 0L);
+                if(size > remaining) continue;
+
+                remaining -= size;
+                plan.add(messageNumber);
+            }
+        }
+
+        return plan;
+    }
+}
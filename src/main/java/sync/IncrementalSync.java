@@ -0,0 +1,137 @@
+package sync;
+
+import client.MessageSource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Fetches only the messages whose unique id is not yet part of the {@link SyncState} of the account.
+ * The state is saved after every run, also if the run was interrupted by an error, so the next run continues
+ * with the messages that are still missing. With a {@link DownloadJournal} this also holds if the process dies
+ * before the state is saved.
+ */
+public final class IncrementalSync {
+    /**
+     * Default directory holding the per-account state and messages
+     */
+    public static final Path DEFAULT_DIRECTORY = Path.of(System.getProperty("user.home"), ".mailclient");
+
+    private final MessageSource source;
+    private final SyncState state;
+    private final MessageSink sink;
+    /**
+     * Journal of the stored messages, {@code null} if the run isn't journaled
+     */
+    private final DownloadJournal journal;
+    /**
+     * Order and budgets of the fetch, {@code null} to fetch everything in server order
+     */
+    private DownloadScheduler scheduler;
+
+    public IncrementalSync(MessageSource source, SyncState state, MessageSink sink) {
+        this(source, state, sink, null);
+    }
+
+    public IncrementalSync(MessageSource source, SyncState state, MessageSink sink, DownloadJournal journal) {
+        this.source = source;
+        this.state = state;
+        this.sink = sink;
+        this.journal = journal;
+    }
+
+    /**
+     * Fetches in the order of a scheduler and within its budgets. Messages left out are fetched by a later run.
+     * @param scheduler Scheduler, shared by the accounts of a run.
+     * @return This sync.
+     */
+    public IncrementalSync schedule(DownloadScheduler scheduler) {
+        this.scheduler = scheduler;
+        return this;
+    }
+
+    /**
+     * Lists the unique ids of the server and fetches every message that hasn't been fetched before.
+     * @return Outcome of the sync.
+     * @throws IOException If connection disconnected, or storing a message was not possible.
+     */
+    public SyncResult run() throws IOException {
+        Map<Integer, String> uids = source.listUids();
+        List<String> fetched = new ArrayList<>();
+        long bytes = 0;
+        int deferred = 0;
+
+        try (ByteBudget.Share budget = scheduler == null ? null : scheduler.getRunBudget().join()) {
+            Map<Integer, String> missing = new LinkedHashMap<>();
+            for (Map.Entry<Integer, String> entry : uids.entrySet()) {
+                String uid = entry.getValue();
+                if(state.contains(uid)) continue;
+
+                //stored by a run that died before saving the state
+                if(journal != null && journal.isStored(uid, sink)) {
+                    state.add(uid);
+                    continue;
+                }
+                missing.put(entry.getKey(), uid);
+            }
+
+            Map<Integer, Long> sizes = scheduler == null || missing.isEmpty() ? Map.of() : source.listSizes();
+            List<Integer> plan = scheduler == null ? new ArrayList<>(missing.keySet()) : scheduler.plan(missing, sizes);
+            deferred = missing.size() - plan.size();
+
+            for (int messageNumber : plan) {
+                String uid = missing.get(messageNumber);
+                if(budget != null && !budget.reserve(sizes.getOrDefault(messageNumber, 0L))) {
+                    deferred++;
+                    continue;
+                }
+
+                long written;
+                CRC32C checksum = new CRC32C();
+                try (OutputStream out = journal == null ? sink.open(uid) : new CheckedOutputStream(sink.open(uid), checksum)) {
+                    written = source.streamMessage(messageNumber, out);
+                } catch (IOException e) {
+                    sink.abort(uid);
+                    throw e;
+                }
+
+                //deleted by another session in the meantime
+                if(written < 0) {
+                    sink.abort(uid);
+                    continue;
+                }
+
+                sink.commit(uid, written);
+                if(journal != null) journal.append(uid, written, (int) checksum.getValue(), sink);
+                state.add(uid);
+                fetched.add(uid);
+                bytes += written;
+            }
+        } finally {
+            state.retainAll(uids.values());
+            if(journal != null) journal.sync(sink);
+            state.save();
+            if(journal != null) journal.clear();
+        }
+
+        return new SyncResult(uids.size(), fetched, bytes, deferred);
+    }
+
+    /**
+     * Builds the key identifying an account in the sync state.
+     * @param username Username
+     * @param host Domain of the mail-server
+     * @param port Port of the mail-server
+     * @return The account key.
+     */
+    public static String accountKey(String username, String host, int port) {
+        return username + "@" + host + ":" + port;
+    }
+}
@@ -0,0 +1,61 @@
+package sync;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Destination for fetched messages. A message is written to the stream returned by {@link #open(String)} and
+ * only becomes visible after {@link #commit(String, long)}.
+ */
+public interface MessageSink {
+    /**
+     * Opens the stream for a new message.
+     * @param uid Unique id of the message.
+     * @return Stream to write the raw message to. The caller closes it.
+     * @throws IOException If the message couldn't be opened for writing.
+     */
+    OutputStream open(String uid) throws IOException;
+
+    /**
+     * Publishes a completely written message.
+     * @param uid Unique id of the message.
+     * @param size Number of bytes written.
+     * @throws IOException If the message couldn't be stored.
+     */
+    void commit(String uid, long size) throws IOException;
+
+    /**
+     * Discards a partially written message.
+     * @param uid Unique id of the message.
+     * @throws IOException If the partial message couldn't be removed.
+     */
+    void abort(String uid) throws IOException;
+
+    /**
+     * Makes every committed message durable, e.g. before it is recorded in a {@link DownloadJournal}.
+     * @throws IOException If syncing was not possible.
+     */
+    default void force() throws IOException {}
+
+    /**
+     * Tells whether a message is stored, e.g. before it is deleted from the server. Sinks that can't tell answer
+     * {@code false}, so nothing is deleted on their behalf.
+     * @param uid Unique id of the message.
+     * @return {@code true} if the message is committed.
+     */
+    default boolean contains(String uid) {
+        return false;
+    }
+
+    /**
+     * Reads a committed message back, e.g. to check it against its {@link DownloadJournal} entry.
+     * @param uid Unique id of the message.
+     * @return Stream of the stored message, {@code null} if the sink can't read its messages back.
+     * @throws java.nio.file.NoSuchFileException If the sink can read its messages but doesn't hold this one.
+     * @throws IOException If the message couldn't be opened.
+     */
+    default InputStream openCommitted(String uid) throws IOException {
+        return null;
+    }
+}
@@ -0,0 +1,185 @@
+package sync;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides which messages are deleted from the server. Only messages that are stored locally are ever chosen, a
+ * message that exists on the server only is always kept.
+ */
+public abstract class RetentionPolicy {
+
+    /**
+     * @return Policy deleting every message that is stored locally.
+     */
+    public static RetentionPolicy deleteStored() {
+        return new RetentionPolicy() {
+            @Override
+            public List<Entry> select(List<Entry> maildrop, Instant now) {
+                List<Entry> selected = new ArrayList<>();
+                for (Entry entry : maildrop) if(entry.isStored()) selected.add(entry);
+
+                return selected;
+            }
+
+            @Override
+            public String toString() {
+                return "delete stored messages";
+            }
+        };
+    }
+
+    /**
+     * @param days Number of days a message stays on the server.
+     * @return Policy deleting the stored messages older than the given number of days. Messages without a
+     * readable date are kept.
+     */
+    public static RetentionPolicy keepDays(int days) {
+        if(days < 0) throw new IllegalArgumentException("Number of days can't be negative: " + days);
+
+        return new RetentionPolicy() {
+            @Override
+            public boolean needsDates() {
+                return true;
+            }
+
+            @Override
+            public List<Entry> select(List<Entry> maildrop, Instant now) {
+                Instant limit = now.minus(Duration.ofDays(days));
+                List<Entry> selected = new ArrayList<>();
+                for (Entry entry : maildrop)
+                    if(entry.isStored() && entry.getDate() != null && entry.getDate().isBefore(limit)) selected.add(entry);
+
+                return selected;
+            }
+
+            @Override
+            public String toString() {
+                return "keep " + days + " day(s)";
+            }
+        };
+    }
+
+    /**
+     * @param bytes Size the maildrop may have.
+     * @return Policy deleting the oldest stored messages until the maildrop is below the given size. If the
+     * messages that aren't stored locally exceed it alone, the maildrop stays above.
+     */
+    public static RetentionPolicy keepUnder(long bytes) {
+        if(bytes < 0) throw new IllegalArgumentException("Size can't be negative: " + bytes);
+
+        return new RetentionPolicy() {
+            @Override
+            public List<Entry> select(List<Entry> maildrop, Instant now) {
+                long total = 0;
+                for (Entry entry : maildrop) total += entry.getSize();
+
+                //message numbers are in arrival order, the oldest go first
+                List<Entry> selected = new ArrayList<>();
+                for (Entry entry : maildrop) {
+                    if(total <= bytes) break;
+                    if(!entry.isStored()) continue;
+
+                    selected.add(entry);
+                    total -= entry.getSize();
+                }
+
+                return selected;
+            }
+
+            @Override
+            public String toString() {
+                return String.format("keep under %.2fMB", bytes / 1e6);
+            }
+        };
+    }
+
+    /**
+     * Parses a policy as given on the command line: {@code stored}, {@code days:N} or {@code mb:N}.
+     * @param spec Description of the policy.
+     * @return The policy.
+     * @throws IllegalArgumentException If the description isn't one of the above.
+     */
+    public static RetentionPolicy parse(String spec) {
+        if(spec.equals("stored")) return deleteStored();
+
+        int colon = spec.indexOf(':');
+        try {
+            if(colon > 0) {
+                long value = Long.parseLong(spec.substring(colon + 1));
+                switch (spec.substring(0, colon)){
+                    case "days" -> {
+                        return keepDays(Math.toIntExact(value));
+                    }
+                    case "mb" -> {
+                        return keepUnder(Math.multiplyExact(value, 1_000_000L));
+                    }
+                }
+            }
+        } catch (NumberFormatException | ArithmeticException ignored) {}
+
+        throw new IllegalArgumentException("Retention has to be stored, days:N or mb:N: " + spec);
+    }
+
+    /**
+     * @return {@code true} if the policy looks at the dates of the messages, which have to be fetched for it.
+     */
+    public boolean needsDates() {
+        return false;
+    }
+
+    /**
+     * Chooses the messages to delete.
+     * @param maildrop Every message on the server, ordered by message number.
+     * @param now Current time.
+     * @return Messages to delete, all of them stored locally.
+     */
+    public abstract List<Entry> select(List<Entry> maildrop, Instant now);
+
+    /**
+     * Message on the server as seen by a policy.
+     */
+    public static final class Entry {
+        private final int messageNumber;
+        private final String uid;
+        private final long size;
+        /**
+         * Date of the message, {@code null} if unknown
+         */
+        private final Instant date;
+        /**
+         * {@code true} if the message is durably stored locally
+         */
+        private final boolean stored;
+
+        public Entry(int messageNumber, String uid, long size, Instant date, boolean stored) {
+            this.messageNumber = messageNumber;
+            this.uid = uid;
+            this.size = size;
+            this.date = date;
+            this.stored = stored;
+        }
+
+        public int getMessageNumber() {
+            return messageNumber;
+        }
+
+        public String getUid() {
+            return uid;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public Instant getDate() {
+            return date;
+        }
+
+        public boolean isStored() {
+            return stored;
+        }
+    }
+}
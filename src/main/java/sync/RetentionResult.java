@@ -0,0 +1,31 @@
+package sync;
+
+/**
+ * Outcome of applying a {@link RetentionPolicy}.
+ */
+public final class RetentionResult {
+    /**
+     * Number of messages on the server before the deletion
+     */
+    private final int total;
+    private final int deleted;
+    private final long bytesFreed;
+
+    public RetentionResult(int total, int deleted, long bytesFreed) {
+        this.total = total;
+        this.deleted = deleted;
+        this.bytesFreed = bytesFreed;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public int getDeleted() {
+        return deleted;
+    }
+
+    public long getBytesFreed() {
+        return bytesFreed;
+    }
+}
@@ -0,0 +1,56 @@
+package sync;
+
+import java.util.List;
+
+/**
+ * Outcome of one incremental sync.
+ */
+public final class SyncResult {
+    /**
+     * Number of messages on the server
+     */
+    private final int total;
+    /**
+     * Unique ids of the messages fetched in this run, in server order
+     */
+    private final List<String> fetchedUids;
+    /**
+     * Number of bytes written to the sink
+     */
+    private final long bytes;
+    /**
+     * Number of missing messages left for a later run by the scheduler
+     */
+    private final int deferred;
+
+    public SyncResult(int total, List<String> fetchedUids, long bytes) {
+        this(total, fetchedUids, bytes, 0);
+    }
+
+    public SyncResult(int total, List<String> fetchedUids, long bytes, int deferred) {
+        this.total = total;
+        this.fetchedUids = fetchedUids;
+        this.bytes = bytes;
+        this.deferred = deferred;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public List<String> getFetchedUids() {
+        return fetchedUids;
+    }
+
+    public int getFetched() {
+        return fetchedUids.size();
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public int getDeferred() {
+        return deferred;
+    }
+}
@@ -0,0 +1,194 @@
+package sync;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Set of unique ids that have already been fetched for one account.
+ * <p>
+ * On disk the ids are stored sorted and front-coded: every entry only holds the length of the prefix it shares
+ * with the previous id and the remaining bytes, both lengths as var-ints. UIDs handed out by a server usually
+ * share long prefixes, so a state of tens of thousands of ids stays small.
+ */
+public final class SyncState {
+    private static final int MAGIC = 0x55494453; //"UIDS"
+    private static final byte VERSION = 1;
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private final Path file;
+    private final TreeSet<String> uids = new TreeSet<>();
+
+    private SyncState(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads the state of an account.
+     * @param directory Directory containing the state files.
+     * @param account Account key, e.g. {@code user@host:port}.
+     * @return The stored state, an empty state if the account has never been synced.
+     * @throws IOException If the state file is corrupt or couldn't be read.
+     */
+    public static SyncState load(Path directory, String account) throws IOException {
+        SyncState state = new SyncState(resolve(directory, account, ".uids"));
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(state.file)))) {
+            if(in.readInt() != MAGIC || in.readByte() != VERSION)
+                throw new IOException("Unknown sync-state format: " + state.file);
+
+            int count = readVarInt(in);
+            byte[] previous = new byte[0];
+            for (int i = 0; i < count; i++) {
+                int shared = readVarInt(in);
+                int suffix = readVarInt(in);
+                if(shared > previous.length) throw new IOException("Corrupt sync-state: " + state.file);
+
+                byte[] current = new byte[shared + suffix];
+                System.arraycopy(previous, 0, current, 0, shared);
+                in.readFully(current, shared, suffix);
+
+                state.uids.add(new String(current, StandardCharsets.UTF_8));
+                previous = current;
+            }
+        } catch (NoSuchFileException ignored) {}
+
+        return state;
+    }
+
+    /**
+     * Writes the state to disk. The file is synced and then replaced atomically, so a crash never leaves a
+     * half-written state.
+     * @throws IOException If writing was not possible.
+     */
+    public void save() throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            writeVarInt(out, uids.size());
+
+            byte[] previous = new byte[0];
+            for (String uid : uids) {
+                byte[] current = uid.getBytes(StandardCharsets.UTF_8);
+                int shared = 0;
+                int max = Math.min(previous.length, current.length);
+                while (shared < max && previous[shared] == current[shared]) shared++;
+
+                writeVarInt(out, shared);
+                writeVarInt(out, current.length - shared);
+                out.write(current, shared, current.length - shared);
+                previous = current;
+            }
+
+            out.flush();
+            channel.force(true);
+        }
+
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public boolean contains(String uid) {
+        return uids.contains(uid);
+    }
+
+    public void add(String uid) {
+        uids.add(uid);
+    }
+
+    /**
+     * Drops every id that is not in the given collection, so ids of messages deleted on the server don't pile up.
+     * @param present Ids currently on the server.
+     */
+    public void retainAll(Collection<String> present) {
+        uids.retainAll(present);
+    }
+
+    public int size() {
+        return uids.size();
+    }
+
+    public Set<String> getUids() {
+        return Collections.unmodifiableSet(uids);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Encodes a name for use as a file name. Lowercase letters, digits, {@code .}, {@code -} and {@code _} are kept,
+     * every other byte of the UTF-8 form is written as {@code %XX}, so different names never get the same file name,
+     * not even on file systems that ignore case. A leading {@code .} is encoded as well.
+     * @param name Account key or unique id.
+     * @return The encoded name.
+     */
+    public static String safeName(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        StringBuilder sb = new StringBuilder(bytes.length + 16);
+
+        for (int i = 0; i < bytes.length; i++) {
+            int b = bytes[i] & 0xFF;
+            boolean kept = (b >= 'a' && b <= 'z') || (b >= '0' && b <= '9') || b == '-' || b == '_' || (b == '.' && i > 0);
+            if(kept) {
+                sb.append((char) b);
+            } else {
+                sb.append('%').append(HEX_DIGITS[b >>> 4]).append(HEX_DIGITS[b & 0xF]);
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Resolves the file or directory of an account.
+     * @param directory Parent directory.
+     * @param account Account key, e.g. {@code user@host:port}.
+     * @param suffix Suffix of the file, empty for a directory.
+     * @return The path of the account.
+     */
+    public static Path resolve(Path directory, String account, String suffix) {
+        return directory.resolve(safeName(account) + suffix);
+    }
+
+    private static void writeVarInt(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0){
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.read();
+            if(b < 0) throw new IOException("Unexpected end of sync-state");
+
+            value |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0) return value;
+        }
+
+        throw new IOException("Malformed var-int in sync-state");
+    }
+}
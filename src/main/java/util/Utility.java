@@ -21,8 +21,4 @@ public final class Utility {
         return sb.toString();
     }
 
-    public static void clearLine(){
-        System.out.print("\r" + "\s".repeat(50) + "\r");
-    }
-
 }
@@ -0,0 +1,54 @@
+package animation;
+
+import junit.framework.TestCase;
+import metrics.Metrics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+/**
+ * Checks the progress line of concurrent tasks and that a disabled renderer stays silent.
+ */
+public class ProgressRendererTest extends TestCase {
+
+    public void testDisabledRendererWritesNothing() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ProgressRenderer renderer = new ProgressRenderer(new PrintStream(out), false, new Metrics());
+
+        ProgressRenderer.Task task = renderer.task("Fetching... ").start();
+        assertEquals(1, renderer.getRunning());
+        renderer.drawFrame();
+        task.stop();
+        task.stop();
+
+        assertEquals(0, renderer.getRunning());
+        assertEquals(0, out.size());
+    }
+
+    public void testDrawsOldestTaskAndClearsAfterLast() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ProgressRenderer renderer = new ProgressRenderer(new PrintStream(out), true, new Metrics());
+
+        ProgressRenderer.Task first = renderer.task("first ");
+        ProgressRenderer.Task second = renderer.task("second ");
+        second.stop();
+        first.start();
+        second.start();
+        renderer.drawFrame();
+
+        String frames = out.toString();
+        assertTrue(frames, frames.contains("0s first <"));
+        assertTrue(frames, frames.contains("> (+1)"));
+        assertFalse(frames, frames.contains("second"));
+
+        first.stop();
+        assertEquals(1, renderer.getRunning());
+        second.stop();
+        assertEquals(0, renderer.getRunning());
+
+        String cleared = out.toString();
+        assertTrue(cleared.endsWith(" \r"));
+        renderer.drawFrame();
+        assertEquals(cleared, out.toString());
+    }
+}
@@ -0,0 +1,334 @@
+package bench;
+
+import client.Client;
+import client.JavaMail;
+import org.apache.commons.io.output.NullOutputStream;
+import server.Pop3TestServer;
+import server.SyntheticMaildrop;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * End-to-end comparison of the four connection modes: plain socket, TLS socket, JavaMail and JavaMail over TLS. Every
+ * mode signs in to the in-process POP3 server on the loopback interface and fetches the same synthetic maildrops the
+ * way a sync does, {@code LIST} followed by one {@code RETR} per message.
+ * <p>
+ * Per maildrop and mode the runner reports the median time of connect and sign-in and of {@code LIST}, the
+ * messages and MB per second of the fetch and the rate and amount of heap allocated by the fetching thread. The
+ * report is printed as a table and written to {@code mode-benchmark.csv}; given a baseline written by an earlier
+ * run, it lists every result whose MB/s dropped by more than the tolerance and exits with status 1.
+ * <p>
+ * Run with: {@code mvn -Pbench -DskipTests verify [-Dbench.args="--iterations 10 --baseline FILE"]}
+ */
+public final class ModeBenchmark {
+    static {
+        Pop3TestServer.trustSelfSignedByDefault();
+    }
+
+    public static final String[] MODES = {"plain socket", "TLS socket", "JavaMail", "JavaMail over TLS"};
+    public static final String CSV_HEADER = "scenario,mode,connect_ms,list_ms,messages_per_second,mb_per_second," +
+            "alloc_mb_per_second,alloc_bytes_per_message";
+
+    static final String USAGE = """
+            Usage: ModeBenchmark [--iterations N] [--warmup N] [--scenarios NAME,...] [--out DIR]
+                                 [--baseline FILE] [--tolerance PERCENT]
+
+              --iterations   measured fetches per scenario and mode, default 5
+              --warmup       fetches before measuring, default 2
+              --scenarios    maildrops to fetch, default all: %s
+              --out          directory of mode-benchmark.csv, default target
+              --baseline     mode-benchmark.csv of an earlier run to compare with
+              --tolerance    drop of MB/s against the baseline reported as regression, default 10
+            """;
+
+    public static final List<Scenario> SCENARIOS = List.of(
+            new Scenario("500x2KB", 500, 2_000, 2_000, SyntheticMaildrop.Structure.PLAIN),
+            new Scenario("100x50KB", 100, 50_000, 50_000, SyntheticMaildrop.Structure.ATTACHMENT),
+            new Scenario("10x5MB", 10, 5_000_000, 5_000_000, SyntheticMaildrop.Structure.ATTACHMENT),
+            new Scenario("200xmixed", 200, 1_000, 500_000, SyntheticMaildrop.Structure.NESTED));
+
+    private final List<Scenario> scenarios;
+    private final int warmup;
+    private final int iterations;
+
+    public ModeBenchmark(List<Scenario> scenarios, int warmup, int iterations) {
+        if(warmup < 0 || iterations < 1) throw new IllegalArgumentException("At least one iteration is required");
+
+        this.scenarios = scenarios;
+        this.warmup = warmup;
+        this.iterations = iterations;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i += 2) {
+            if(!args[i].startsWith("--") || i + 1 == args.length) {
+                System.err.printf(USAGE, names(SCENARIOS));
+                System.exit(2);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+
+        List<Scenario> scenarios = SCENARIOS;
+        if(options.containsKey("scenarios")) {
+            List<String> names = Arrays.asList(options.get("scenarios").split(","));
+            scenarios = SCENARIOS.stream().filter(scenario -> names.contains(scenario.name)).toList();
+        }
+
+        ModeBenchmark benchmark = new ModeBenchmark(scenarios, Integer.parseInt(options.getOrDefault("warmup", "2")),
+                Integer.parseInt(options.getOrDefault("iterations", "5")));
+        List<Result> results = benchmark.run();
+        System.out.print(report(results));
+
+        Path out = Files.createDirectories(Path.of(options.getOrDefault("out", "target")));
+        writeCsv(results, out.resolve("mode-benchmark.csv"));
+
+        if(options.containsKey("baseline")) {
+            List<String> regressions = compare(results, readCsv(Path.of(options.get("baseline"))),
+                    Double.parseDouble(options.getOrDefault("tolerance", "10")));
+            regressions.forEach(System.out::println);
+            if(!regressions.isEmpty()) System.exit(1);
+        }
+    }
+
+    /**
+     * Fetches every scenario in every mode.
+     * @return Results by scenario, the modes in order.
+     * @throws IOException If a fetch failed.
+     */
+    public List<Result> run() throws IOException {
+        List<Result> results = new ArrayList<>();
+
+        for (Scenario scenario : scenarios) {
+            SyntheticMaildrop maildrop = scenario.maildrop();
+            try (Pop3TestServer plain = new Pop3TestServer(maildrop).start();
+                 Pop3TestServer secure = new Pop3TestServer(maildrop).secure(true).start()) {
+                for (int mode = 1; mode <= MODES.length; mode++)
+                    results.add(measure(scenario, mode, mode % 2 == 0 ? secure : plain));
+            }
+        }
+
+        return results;
+    }
+
+    private Result measure(Scenario scenario, int mode, Pop3TestServer server) throws IOException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long[] connect = new long[iterations];
+        long[] list = new long[iterations];
+        long fetchNanos = 0, totalNanos = 0, messages = 0, bytes = 0, allocated = 0;
+
+        for (int i = -warmup; i < iterations; i++) {
+            JavaMail javaMail = JavaMail.newInstance();
+            Client client = new Client(mode, javaMail);
+            long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+
+            long start = System.nanoTime();
+            client.connect(server.getHost(), server.getPort());
+            if(!client.authenticate(Pop3TestServer.USERNAME, Pop3TestServer.PASSWORD)) throw new IOException("Sign-in refused");
+            long signedIn = System.nanoTime();
+            Map<Integer, Long> sizes = client.listSizes();
+            long listed = System.nanoTime();
+
+            long fetched = 0;
+            for (int messageNumber : sizes.keySet())
+                fetched += client.streamMessage(messageNumber, NullOutputStream.NULL_OUTPUT_STREAM);
+            long end = System.nanoTime();
+            long allocatedAfter = threads.getCurrentThreadAllocatedBytes();
+
+            client.shutdownClient();
+            javaMail.disconnect();
+            if(i < 0) continue;
+
+            connect[i] = signedIn - start;
+            list[i] = listed - signedIn;
+            fetchNanos += end - listed;
+            totalNanos += end - start;
+            messages += sizes.size();
+            bytes += fetched;
+            allocated += allocatedAfter - allocatedBefore;
+        }
+
+        return new Result(scenario.name, MODES[mode - 1], median(connect) / 1e6, median(list) / 1e6,
+                messages / (fetchNanos / 1e9), bytes / 1e6 / (fetchNanos / 1e9),
+                allocated / 1e6 / (totalNanos / 1e9), messages == 0 ? 0 : allocated / messages);
+    }
+
+    /**
+     * @param results Results of a run.
+     * @return Table of the results, each throughput also relative to the plain socket of the same scenario.
+     */
+    public static String report(List<Result> results) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "%-10s %-18s %12s %8s %9s %8s %10s %12s %9s%n", "scenario", "mode",
+                "connect ms", "LIST ms", "msg/s", "MB/s", "alloc MB/s", "alloc B/msg", "vs plain"));
+
+        Map<String, Double> plain = new HashMap<>();
+        for (Result result : results)
+            if(result.mode.equals(MODES[0])) plain.put(result.scenario, result.megabytesPerSecond);
+
+        for (Result result : results) {
+            Double base = plain.get(result.scenario);
+            sb.append(String.format(Locale.ROOT, "%-10s %-18s %12.2f %8.2f %9.0f %8.1f %10.1f %12d %9s%n",
+                    result.scenario, result.mode, result.connectMillis, result.listMillis, result.messagesPerSecond,
+                    result.megabytesPerSecond, result.allocatedMegabytesPerSecond, result.allocatedBytesPerMessage,
+                    base == null || base == 0 ? "" : String.format(Locale.ROOT, "%.2fx", result.megabytesPerSecond / base)));
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Finds the results that got slower than a baseline.
+     * @param results Results of this run.
+     * @param baseline Results of an earlier run.
+     * @param tolerance Drop of MB/s in percent that is still accepted.
+     * @return One line per regression, empty if there is none.
+     */
+    public static List<String> compare(List<Result> results, List<Result> baseline, double tolerance) {
+        Map<String, Result> earlier = new HashMap<>();
+        for (Result result : baseline) earlier.put(result.scenario + "/" + result.mode, result);
+
+        List<String> regressions = new ArrayList<>();
+        for (Result result : results) {
+            Result before = earlier.get(result.scenario + "/" + result.mode);
+            if(before == null || result.megabytesPerSecond >= before.megabytesPerSecond * (1 - tolerance / 100)) continue;
+
+            regressions.add(String.format(Locale.ROOT, "Regression %s, %s: %.1f MB/s, baseline %.1f MB/s",
+                    result.scenario, result.mode, result.megabytesPerSecond, before.megabytesPerSecond));
+        }
+
+        return regressions;
+    }
+
+    public static void writeCsv(List<Result> results, Path file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add(CSV_HEADER);
+        for (Result result : results)
+            lines.add(String.format(Locale.ROOT, "%s,%s,%.3f,%.3f,%.1f,%.3f,%.3f,%d", result.scenario, result.mode,
+                    result.connectMillis, result.listMillis, result.messagesPerSecond, result.megabytesPerSecond,
+                    result.allocatedMegabytesPerSecond, result.allocatedBytesPerMessage));
+
+        Files.write(file, lines);
+    }
+
+    public static List<Result> readCsv(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file);
+        if(lines.isEmpty() || !lines.get(0).equals(CSV_HEADER)) throw new IOException("Not a mode benchmark report: " + file);
+
+        List<Result> results = new ArrayList<>();
+        for (String line : lines.subList(1, lines.size())) {
+            String[] fields = line.split(",");
+            if(fields.length != 8) throw new IOException("Malformed line in " + file + ": " + line);
+
+            results.add(new Result(fields[0], fields[1], Double.parseDouble(fields[2]), Double.parseDouble(fields[3]),
+                    Double.parseDouble(fields[4]), Double.parseDouble(fields[5]), Double.parseDouble(fields[6]),
+                    Long.parseLong(fields[7])));
+        }
+
+        return results;
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static String names(List<Scenario> scenarios) {
+        return String.join(",", scenarios.stream().map(scenario -> scenario.name).toList());
+    }
+
+    /**
+     * Synthetic maildrop fetched in every mode.
+     */
+    public static final class Scenario {
+        private final String name;
+        private final int count;
+        private final int minSize;
+        private final int maxSize;
+        private final SyntheticMaildrop.Structure structure;
+
+        public Scenario(String name, int count, int minSize, int maxSize, SyntheticMaildrop.Structure structure) {
+            this.name = name;
+            this.count = count;
+            this.minSize = minSize;
+            this.maxSize = maxSize;
+            this.structure = structure;
+        }
+
+        SyntheticMaildrop maildrop() {
+            return new SyntheticMaildrop(count, minSize, maxSize, structure, count);
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * Measurements of one scenario in one mode.
+     */
+    public static final class Result {
+        private final String scenario;
+        private final String mode;
+        private final double connectMillis;
+        private final double listMillis;
+        private final double messagesPerSecond;
+        private final double megabytesPerSecond;
+        private final double allocatedMegabytesPerSecond;
+        private final long allocatedBytesPerMessage;
+
+        Result(String scenario, String mode, double connectMillis, double listMillis, double messagesPerSecond,
+               double megabytesPerSecond, double allocatedMegabytesPerSecond, long allocatedBytesPerMessage) {
+            this.scenario = scenario;
+            this.mode = mode;
+            this.connectMillis = connectMillis;
+            this.listMillis = listMillis;
+            this.messagesPerSecond = messagesPerSecond;
+            this.megabytesPerSecond = megabytesPerSecond;
+            this.allocatedMegabytesPerSecond = allocatedMegabytesPerSecond;
+            this.allocatedBytesPerMessage = allocatedBytesPerMessage;
+        }
+
+        public String getScenario() {
+            return scenario;
+        }
+
+        public String getMode() {
+            return mode;
+        }
+
+        public double getConnectMillis() {
+            return connectMillis;
+        }
+
+        public double getListMillis() {
+            return listMillis;
+        }
+
+        public double getMessagesPerSecond() {
+            return messagesPerSecond;
+        }
+
+        public double getMegabytesPerSecond() {
+            return megabytesPerSecond;
+        }
+
+        public double getAllocatedMegabytesPerSecond() {
+            return allocatedMegabytesPerSecond;
+        }
+
+        public long getAllocatedBytesPerMessage() {
+            return allocatedBytesPerMessage;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package bench;
+
+import junit.framework.TestCase;
+import server.SyntheticMaildrop;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Runs a small maildrop through the mode benchmark and checks the report and the regression check.
+ */
+public class ModeBenchmarkTest extends TestCase {
+
+    public void testMeasuresAllModes() throws Exception {
+        ModeBenchmark.Scenario scenario = new ModeBenchmark.Scenario("tiny", 5, 2_000, 4_000, SyntheticMaildrop.Structure.PLAIN);
+        List<ModeBenchmark.Result> results = new ModeBenchmark(List.of(scenario), 0, 1).run();
+
+        assertEquals(ModeBenchmark.MODES.length, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(ModeBenchmark.MODES[i], results.get(i).getMode());
+            assertTrue(results.get(i).getMessagesPerSecond() > 0);
+            assertTrue(results.get(i).getMegabytesPerSecond() > 0);
+        }
+        assertTrue(ModeBenchmark.report(results).contains("JavaMail over TLS"));
+
+        Path csv = Files.createTempDirectory("bench").resolve("mode-benchmark.csv");
+        ModeBenchmark.writeCsv(results, csv);
+        List<ModeBenchmark.Result> read = ModeBenchmark.readCsv(csv);
+        assertEquals(results.size(), read.size());
+        assertTrue(ModeBenchmark.compare(read, read, 10).isEmpty());
+    }
+
+    public void testReportsRegression() {
+        List<ModeBenchmark.Result> baseline = List.of(new ModeBenchmark.Result("s", "plain socket", 1, 1, 100, 50, 10, 1000));
+        List<ModeBenchmark.Result> slower = List.of(new ModeBenchmark.Result("s", "plain socket", 1, 1, 80, 40, 10, 1000));
+        List<ModeBenchmark.Result> noisy = List.of(new ModeBenchmark.Result("s", "plain socket", 1, 1, 95, 47, 10, 1000));
+
+        assertEquals(1, ModeBenchmark.compare(slower, baseline, 10).size());
+        assertTrue(ModeBenchmark.compare(noisy, baseline, 10).isEmpty());
+    }
+}
@@ -0,0 +1,366 @@
+package client;
+
+import export.ExportFormat;
+import export.MboxSink;
+import junit.framework.TestCase;
+import metrics.Metrics;
+import metrics.Phase;
+import mime.DecodedText;
+import mime.DecodingPipeline;
+import mime.DecodingSink;
+import search.SearchIndex;
+import server.Pop3TestServer;
+import server.SyntheticMaildrop;
+import store.MessageStore;
+import sync.IncrementalSync;
+import sync.MessageSink;
+import sync.RetentionPolicy;
+import sync.RetentionResult;
+import sync.SyncResult;
+import sync.SyncState;
+
+import javax.net.ssl.SSLHandshakeException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Runs the headless socket client against the in-process POP3 server.
+ */
+public class ClientTest extends TestCase {
+    static {
+        Pop3TestServer.trustSelfSignedByDefault();
+    }
+
+    private Pop3TestServer server;
+    private Client client;
+
+    @Override
+    protected void tearDown() throws Exception {
+        if(client != null) client.shutdownClient();
+        if(server != null) server.close();
+    }
+
+    private Client connect(Pop3TestServer server, int socketType) throws Exception {
+        if(this.server != server) this.server = server.start();
+        client = new Client(socketType, JavaMail.newInstance());
+        client.connect(server.getHost(), server.getPort());
+        assertTrue(client.authenticate(Pop3TestServer.USERNAME, Pop3TestServer.PASSWORD));
+
+        return client;
+    }
+
+    public void testRejectsWrongPassword() throws Exception {
+        server = new Pop3TestServer(new SyntheticMaildrop(1, 100, SyntheticMaildrop.Structure.PLAIN)).start();
+        client = new Client(1, JavaMail.newInstance());
+        client.connect(server.getHost(), server.getPort());
+
+        assertFalse(client.authenticate(Pop3TestServer.USERNAME, "wrong"));
+    }
+
+    public void testStreamsMessagesByteExact() throws Exception {
+        SyntheticMaildrop maildrop = new SyntheticMaildrop(5, 2_000, 40_000, SyntheticMaildrop.Structure.ATTACHMENT, 7);
+        connect(new Pop3TestServer(maildrop), 1);
+
+        List<SyntheticMaildrop.Message> messages = maildrop.snapshot();
+        for (int i = 0; i < messages.size(); i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(messages.get(i).getRaw().length, client.streamMessage(i + 1, out));
+            assertTrue(Arrays.equals(messages.get(i).getRaw(), out.toByteArray()));
+        }
+        assertEquals(-1, client.streamMessage(messages.size() + 1, new ByteArrayOutputStream()));
+    }
+
+    public void testRecordsCommandLatencyAndBytes() throws Exception {
+        SyntheticMaildrop maildrop = new SyntheticMaildrop(1, 10_000, SyntheticMaildrop.Structure.PLAIN);
+        Metrics metrics = Metrics.global();
+        long retrievals = metrics.command(RequestTyp.RETR).getCount();
+        long logins = metrics.phase(Phase.LOGIN).getCount();
+        long bytesRead = metrics.bytesRead();
+        connect(new Pop3TestServer(maildrop), 1);
+
+        long transferred = client.streamMessage(1, new ByteArrayOutputStream());
+        assertEquals(retrievals + 1, metrics.command(RequestTyp.RETR).getCount());
+        assertEquals(logins + 1, metrics.phase(Phase.LOGIN).getCount());
+        assertTrue(metrics.bytesRead() - bytesRead >= transferred);
+    }
+
+    public void testStreamsOverTls() throws Exception {
+        SyntheticMaildrop maildrop = new SyntheticMaildrop(2, 5_000, SyntheticMaildrop.Structure.NESTED);
+        connect(new Pop3TestServer(maildrop).secure(true), 2);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        client.streamMessage(2, out);
+        assertTrue(Arrays.equals(maildrop.snapshot().get(1).getRaw(), out.toByteArray()));
+    }
+
+    public void testResumesTlsSessionOnReconnect() throws Exception {
+        SyntheticMaildrop maildrop = new SyntheticMaildrop(1, 1_000, SyntheticMaildrop.Structure.PLAIN);
+        connect(new Pop3TestServer(maildrop).secure(true), 2);
+        long resumptions = Metrics.global().phase(Phase.TLS_RESUMPTION).getCount();
+
+        assertTrue(client.reconnect());
+        assertTrue(client.reconnect());
+        assertEquals(resumptions + 2, Metrics.global().phase(Phase.TLS_RESUMPTION).getCount());
+        assertEquals(maildrop.snapshot().get(0).getRaw().length, client.streamMessage(1, new ByteArrayOutputStream()));
+    }
+
+    public void testRejectsCertificateOfOtherHost() throws Exception {
+        server = new Pop3TestServer(new SyntheticMaildrop(1, 1_000, SyntheticMaildrop.Structure.PLAIN)).secure(true).start();
+        TlsConnector connector = new TlsConnector(Pop3TestServer.clientContext());
+
+        try {
+            connector.upgrade(new Socket(server.getHost(), server.getPort()), "mail.example.org", server.getPort());
+            fail();
+        } catch (SSLHandshakeException expected) {}
+        connector.connect(server.getHost(), server.getPort()).close();
+    }
+
+    public void testUpgradesWithStls() throws Exception {
+        SyntheticMaildrop maildrop = new SyntheticMaildrop(2, 4_000, SyntheticMaildrop.Structure.PLAIN);
+        server = new Pop3TestServer(maildrop).stls(true).start();
+        long handshakes = Metrics.global().phase(Phase.TLS_HANDSHAKE).getCount() +
+                Metrics.global().phase(Phase.TLS_RESUMPTION).getCount();
+
+        client = new Client(1, JavaMail.newInstance());
+        client.setStartTls(true);
+        client.connect(server.getHost(), server.getPort());
+        assertTrue(client.authenticate(Pop3TestServer.USERNAME, Pop3TestServer.PASSWORD));
+        assertEquals(handshakes + 1, Metrics.global().phase(Phase.TLS_HANDSHAKE).getCount() +
+                Metrics.global().phase(Phase.TLS_RESUMPTION).getCount());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        client.streamMessage(2, out);
+        assertTrue(Arrays.equals(maildrop.snapshot().get(1).getRaw(), out.toByteArray()));
+    }
+
+    public void testRequiresStlsWhenAsked() throws Exception {
+        server = new Pop3TestServer(new SyntheticMaildrop(1, 100, SyntheticMaildrop.Structure.PLAIN)).start();
+        client = new Client(1, JavaMail.newInstance());
+        client.setStartTls(true);
+
+        try {
+            client.connect(server.getHost(), server.getPort());
+            fail("Connected without TLS");
+        } catch (IOException e) {
+            assertEquals("Server doesn't support STLS", e.getMessage());
+        }
+    }
+
+    public void testJavaMailDeliversSameBytes() throws Exception {
+        SyntheticMaildrop maildrop = new SyntheticMaildrop(3, 3_000, SyntheticMaildrop.Structure.ALTERNATIVE);
+        connect(new Pop3TestServer(maildrop), 3);
+
+        assertEquals(maildrop.snapshot().get(0).getUid(), client.listUids().get(1));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        client.streamMessage(3, out);
+        assertTrue(Arrays.equals(maildrop.snapshot().get(2).getRaw(), out.toByteArray()));
+    }
+
+    public void testJavaMailListsInboxOnce() throws Exception {
+        SyntheticMaildrop maildrop = new SyntheticMaildrop(20, 500, SyntheticMaildrop.Structure.PLAIN);
+        connect(new Pop3TestServer(maildrop), 3);
+        assertEquals(20, client.listUids().size());
+
+        //only the RETR of each message goes over the wire, no listing or header fetch of the whole inbox
+        int commands = server.getCommands();
+        client.streamMessage(5, new ByteArrayOutputStream());
+        client.streamMessage(6, new ByteArrayOutputStream());
+        assertEquals(commands + 2, server.getCommands());
+    }
+
+    public void testListsUids() throws Exception {
+        SyntheticMaildrop maildrop = new SyntheticMaildrop(3, 500, SyntheticMaildrop.Structure.PLAIN);
+        connect(new Pop3TestServer(maildrop).pipelining(false).capa(false), 1);
+
+        Map<Integer, String> uids = client.listUids();
+        assertEquals(3, uids.size());
+        assertEquals(maildrop.snapshot().get(2).getUid(), uids.get(3));
+    }
+
+    public void testListsHeadersWithoutBodies() throws Exception {
+        for (boolean pipelining : new boolean[]{true, false}) {
+            SyntheticMaildrop maildrop = new SyntheticMaildrop(4, 20_000, SyntheticMaildrop.Structure.PLAIN);
+            connect(new Pop3TestServer(maildrop).pipelining(pipelining), 1);
+            Metrics metrics = Metrics.global();
+            long retrievals = metrics.command(RequestTyp.RETR).getCount();
+            long bytesRead = metrics.bytesRead();
+
+            Map<Integer, Envelope> headers = client.listHeaders();
+            assertEquals(4, headers.size());
+            for (int i = 0; i < 4; i++) {
+                Envelope envelope = headers.get(i + 1);
+                assertEquals(maildrop.snapshot().get(i).getUid(), envelope.getUid());
+                assertTrue(envelope.getSubject().startsWith("Synthetic message "));
+                assertEquals(Instant.parse("2024-01-01T00:00:00Z"), envelope.getSentDate());
+            }
+            assertEquals(retrievals, metrics.command(RequestTyp.RETR).getCount());
+            assertTrue(metrics.bytesRead() - bytesRead < 20_000);
+
+            //every envelope is cached, only the UIDL goes over the wire
+            int commands = server.getCommands();
+            assertEquals(4, client.listHeaders().size());
+            assertEquals(commands + 1, server.getCommands());
+
+            client.shutdownClient();
+            server.close();
+            client = null;
+        }
+    }
+
+    public void testIncrementalSyncFetchesOnlyNewMessages() throws Exception {
+        SyntheticMaildrop maildrop = new SyntheticMaildrop(4, 1_000, SyntheticMaildrop.Structure.ALTERNATIVE);
+        connect(new Pop3TestServer(maildrop), 1);
+        Path directory = Files.createTempDirectory("sync");
+
+        try (MessageStore store = MessageStore.open(directory.resolve("store"))) {
+            SyncResult first = new IncrementalSync(client, SyncState.load(directory, "a"), store).run();
+            assertEquals(4, first.getFetched());
+
+            maildrop.add("late", "Subject: late\r\n\r\nbody\r\n".getBytes());
+            client.shutdownClient();
+            connect(server, 1);
+
+            SyncResult second = new IncrementalSync(client, SyncState.load(directory, "a"), store).run();
+            assertEquals(List.of("late"), second.getFetchedUids());
+            assertEquals(5, store.size());
+        }
+    }
+
+    public void testSyncSkipsMessagesItCantIndex() throws Exception {
+        SyntheticMaildrop maildrop = new SyntheticMaildrop(
+                "Subject: odd\nContent-Type: text/plain; charset=unknown-8bit\n\nbody\n",
+                "Subject: plain\nContent-Type: text/plain; charset=us-ascii\n\nsearchable\n");
+        connect(new Pop3TestServer(maildrop), 1);
+        Path directory = Files.createTempDirectory("sync");
+
+        try (MessageStore store = MessageStore.open(directory.resolve("store"));
+             SearchIndex index = SearchIndex.open(directory.resolve("index"));
+             DecodingPipeline<DecodedText> pipeline = client.indexPipeline(index)) {
+            SyncResult result = new IncrementalSync(client, SyncState.load(directory, "a"), new DecodingSink(store, pipeline)).run();
+            pipeline.finish();
+
+            assertEquals(2, result.getFetched());
+            assertEquals(2, store.size());
+            assertFalse(index.contains("raw-000000"));
+            assertTrue(index.contains("raw-000001"));
+        }
+    }
+
+    public void testExportsEveryMessageOnce() throws Exception {
+        Path directory = Files.createTempDirectory("export");
+
+        try (MessageStore store = MessageStore.open(directory.resolve("store"))) {
+            for (int i = 0; i < 3; i++) {
+                byte[] raw = ("Subject: " + i + "\r\n\r\nbody\r\n").getBytes(StandardCharsets.US_ASCII);
+                try (OutputStream out = store.open("uid-" + i)) {
+                    out.write(raw);
+                }
+                store.commit("uid-" + i, raw.length);
+            }
+
+            assertEquals(3, Client.exportMessages(store, ExportFormat.EML.open(directory, "eml")));
+            assertEquals(0, Client.exportMessages(store, ExportFormat.EML.open(directory, "eml")));
+            try (Stream<Path> files = Files.list(directory.resolve("eml"))) {
+                assertEquals(3, files.count());
+            }
+
+            for (int i = 0; i < 2; i++) {
+                try (MboxSink sink = (MboxSink) ExportFormat.MBOX.open(directory, "mbox")) {
+                    assertEquals(3, Client.exportMessages(store, sink));
+                }
+            }
+            String mbox = Files.readString(directory.resolve("mbox.mbox"), StandardCharsets.US_ASCII);
+            assertEquals(3, mbox.split("(?m)^From MAILER-DAEMON ", -1).length - 1);
+        }
+    }
+
+    public void testRetentionDeletesOnlyStoredMessages() throws Exception {
+        for (int socketType : new int[]{1, 3}) {
+            SyntheticMaildrop maildrop = new SyntheticMaildrop(3, 1_000, SyntheticMaildrop.Structure.PLAIN);
+            connect(new Pop3TestServer(maildrop), socketType);
+            Path directory = Files.createTempDirectory("retention");
+            long size = maildrop.snapshot().stream().mapToLong(message -> message.getRaw().length).sum();
+
+            String account = IncrementalSync.accountKey(Pop3TestServer.USERNAME, server.getHost(), server.getPort());
+            try (MessageStore store = MessageStore.open(directory.resolve("store"), account)) {
+                new IncrementalSync(client, SyncState.load(directory, "a"), store).run();
+
+                maildrop.add("late", "Subject: late\r\n\r\nbody\r\n".getBytes());
+                client.shutdownClient();
+                connect(server, socketType);
+
+                //the store of another account never justifies a deletion
+                try (MessageStore foreign = MessageStore.open(directory.resolve("foreign"), "other@host:110")) {
+                    new IncrementalSync(client, SyncState.load(directory, "b"), foreign).run();
+                    client.applyRetention(RetentionPolicy.deleteStored(), foreign);
+                    fail("Retention used the store of another account");
+                } catch (IOException expected) {}
+                assertEquals(4, maildrop.size());
+                client.shutdownClient();
+                connect(server, socketType);
+
+                RetentionResult result = client.applyRetention(RetentionPolicy.deleteStored(), store);
+                assertEquals(4, result.getTotal());
+                assertEquals(3, result.getDeleted());
+                assertEquals(size, result.getBytesFreed());
+            }
+
+            client.shutdownClient();
+            assertEquals(1, maildrop.size());
+            assertEquals("late", maildrop.snapshot().get(0).getUid());
+
+            server.close();
+            client = null;
+        }
+    }
+
+    public void testRetentionRollsBackWhenLocalCopyIsNotDurable() throws Exception {
+        SyntheticMaildrop maildrop = new SyntheticMaildrop(3, 500, SyntheticMaildrop.Structure.PLAIN);
+        connect(new Pop3TestServer(maildrop), 1);
+        Set<String> stored = Set.of(maildrop.snapshot().get(0).getUid(), maildrop.snapshot().get(1).getUid());
+
+        MessageSink failing = new MessageSink() {
+            @Override
+            public OutputStream open(String uid) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void commit(String uid, long size) {}
+
+            @Override
+            public void abort(String uid) {}
+
+            @Override
+            public void force() throws IOException {
+                throw new IOException("disk full");
+            }
+
+            @Override
+            public boolean contains(String uid) {
+                return stored.contains(uid);
+            }
+        };
+
+        try {
+            client.applyRetention(RetentionPolicy.deleteStored(), failing);
+            fail("Deletion must fail if the local copies can't be forced");
+        } catch (IOException expected) {}
+
+        //RSET unmarked the messages, so the QUIT of the shutdown deletes nothing
+        assertEquals(3, client.listUids().size());
+        client.shutdownClient();
+        assertEquals(3, maildrop.size());
+    }
+}
@@ -0,0 +1,44 @@
+package client;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+
+/**
+ * Parses envelopes from raw header lines and checks the bound of their cache.
+ */
+public class EnvelopeTest extends TestCase {
+
+    public void testParsesFoldedAndEncodedHeaders() {
+        Envelope envelope = Envelope.parse("uid", List.of(
+                "Received: from mx",
+                "Subject: =?UTF-8?Q?Gr=C3=BC=C3=9Fe?=",
+                " aus Berlin",
+                "from: Sender <sender@example.org>",
+                "Subject: second",
+                "Date: Mon, 1 Jan 2024 00:00:00 +0000",
+                "",
+                "To: not a header"));
+
+        assertEquals("uid", envelope.getUid());
+        assertEquals("Grüße aus Berlin", envelope.getSubject());
+        assertEquals("Sender <sender@example.org>", envelope.getFrom());
+        assertNull(envelope.getTo());
+        assertEquals(1704067200L, envelope.getSentDate().getEpochSecond());
+    }
+
+    public void testCacheEvictsLeastRecentlyUsed() {
+        EnvelopeCache cache = new EnvelopeCache(2);
+        cache.put(new Envelope("a", null, null, null, null, null));
+        cache.put(new Envelope("b", null, null, null, null, null));
+
+        //reading a makes b the eldest entry
+        assertNotNull(cache.get("a"));
+        cache.put(new Envelope("c", null, null, null, null, null));
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+    }
+}
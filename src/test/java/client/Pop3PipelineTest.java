@@ -0,0 +1,36 @@
+package client;
+
+import junit.framework.TestCase;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+public class Pop3PipelineTest extends TestCase {
+
+    public void testStreamsBodiesUnchanged() throws Exception {
+        String server = "+OK 1 octets\r\nline\r\n..dot\nbare\r\n.\r\n"
+                + "-ERR no such message\r\n"
+                + "+OK\r\nSubject: x\r\n.\r\n";
+        ResponseReader reader = new ResponseReader(new ByteArrayInputStream(server.getBytes(StandardCharsets.ISO_8859_1)), 4);
+        StringWriter sent = new StringWriter();
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+
+        List<Pop3Response> responses = new Pop3Pipeline(reader, new BufferedWriter(sent), true)
+                .enqueue(RequestTyp.RETR, "1", first)
+                .enqueue(RequestTyp.RETR, "2", second)
+                .enqueue(RequestTyp.TOP, "3 0")
+                .flush();
+
+        assertEquals("RETR 1\nRETR 2\nTOP 3 0\n", sent.toString().replace(System.lineSeparator(), "\n"));
+        assertEquals("line\r\n.dot\nbare\r\n", first.toString(StandardCharsets.ISO_8859_1));
+        assertNull(responses.get(0).getLines());
+        assertFalse(responses.get(1).isOk());
+        assertEquals(0, second.size());
+        assertEquals(List.of("Subject: x"), responses.get(2).getLines());
+    }
+}
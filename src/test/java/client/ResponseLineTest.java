@@ -0,0 +1,47 @@
+package client;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+public class ResponseLineTest extends TestCase {
+    private ResponseLine read(String lines) throws Exception {
+        ResponseReader reader = new ResponseReader(new ByteArrayInputStream(lines.getBytes(StandardCharsets.US_ASCII)), 4);
+        ResponseLine line = new ResponseLine();
+        assertTrue(reader.readLine(line));
+
+        return line;
+    }
+
+    public void testParsesStatLine() throws Exception {
+        ResponseLine line = read("+ok 12  4839201\r\n");
+
+        assertTrue(line.isOk());
+        assertEquals(12, line.numberAt(1));
+        assertEquals(4839201, line.numberAt(2));
+        assertEquals("12  4839201", line.text());
+    }
+
+    public void testParsesErrAndUidlLines() throws Exception {
+        assertFalse(read("-ERR no such message\r\n").isOk());
+
+        ResponseLine uidl = read("7 QhdPYR:00WBw1Ph7x7\n");
+        assertEquals(7, uidl.numberAt(0));
+        assertEquals("QhdPYR:00WBw1Ph7x7", uidl.fieldAt(1));
+        assertNull(uidl.fieldAt(2));
+        assertTrue(read(".\r\n").isTerminator());
+    }
+
+    public void testRejectsUnexpectedResponses() throws Exception {
+        try {
+            read("+OKAY\r\n").isOk();
+            fail();
+        } catch (IllegalResponseException expected) {}
+
+        try {
+            read("+OK 1x 20\r\n").numberAt(1);
+            fail();
+        } catch (IllegalResponseException expected) {}
+    }
+}
@@ -0,0 +1,66 @@
+package client;
+
+import junit.framework.TestCase;
+import server.Pop3TestServer;
+import server.SyntheticMaildrop;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Kills the connections of the in-process POP3 server under a managed session.
+ */
+public class SessionManagerTest extends TestCase {
+    private Pop3TestServer server;
+    private Client client;
+    private SessionManager manager;
+
+    @Override
+    protected void setUp() throws Exception {
+        server = new Pop3TestServer(new SyntheticMaildrop(3, 500, SyntheticMaildrop.Structure.PLAIN)).start();
+        client = new Client(1, JavaMail.newInstance());
+        client.connect(server.getHost(), server.getPort());
+        assertTrue(client.authenticate(Pop3TestServer.USERNAME, Pop3TestServer.PASSWORD));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if(manager != null) manager.close();
+        client.shutdownClient();
+        server.close();
+    }
+
+    public void testRetriesOperationOnNewConnection() throws Exception {
+        manager = new SessionManager(client, 60_000, 3, 10);
+        server.dropConnections();
+
+        Map<Integer, String> uids = manager.execute(Client::listUids);
+
+        assertEquals(3, uids.size());
+        assertEquals(1, manager.getReconnects());
+        assertEquals(2, server.getConnections());
+    }
+
+    public void testKeepaliveReplacesDeadSession() throws Exception {
+        manager = new SessionManager(client, 50, 3, 10);
+        server.dropConnections();
+
+        for (int i = 0; i < 100 && manager.getReconnects() == 0; i++) Thread.sleep(20);
+        assertEquals(1, manager.getReconnects());
+
+        assertEquals(3, manager.execute(Client::listUids).size());
+        assertEquals(1, manager.getReconnects());
+    }
+
+    public void testGivesUpWhenServerIsGone() throws Exception {
+        manager = new SessionManager(client, 60_000, 2, 10);
+        server.close();
+
+        try {
+            manager.execute(Client::listUids);
+            fail("Operation succeeded without a server");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Reconnect failed"));
+        }
+    }
+}
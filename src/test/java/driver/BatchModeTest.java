@@ -0,0 +1,87 @@
+package driver;
+
+import junit.framework.TestCase;
+import server.Pop3TestServer;
+import server.SyntheticMaildrop;
+import sync.IncrementalSync;
+import sync.SyncState;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Runs the headless download against the in-process POP3 server.
+ */
+public class BatchModeTest extends TestCase {
+    private Pop3TestServer server;
+
+    @Override
+    protected void tearDown() throws Exception {
+        if(server != null) server.close();
+    }
+
+    public void testDownloadsNewMessagesAsFiles() throws Exception {
+        SyntheticMaildrop maildrop = new SyntheticMaildrop(4, 3_000, SyntheticMaildrop.Structure.PLAIN);
+        server = new Pop3TestServer(maildrop).start();
+
+        Path directory = Files.createTempDirectory("batch");
+        Path passwordFile = Files.writeString(directory.resolve("password"), Pop3TestServer.PASSWORD + "\n");
+        String[] args = {"--host", server.getHost(), "--port", String.valueOf(server.getPort()), "--mode", "1",
+                "--user", Pop3TestServer.USERNAME, "--password-file", passwordFile.toString(),
+                "--out", directory.resolve("out").toString(), "--data", directory.resolve("data").toString()};
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(BatchMode.SUCCESS, BatchMode.run(args, new PrintStream(out), System.err));
+        assertTrue(out.toString().startsWith("{\"accounts\":1,\"failed\":0,\"messages\":4,"));
+
+        String account = IncrementalSync.accountKey(Pop3TestServer.USERNAME, server.getHost(), server.getPort());
+        Path messages = directory.resolve("out").resolve(SyncState.safeName(account));
+        for (SyntheticMaildrop.Message message : maildrop.snapshot())
+            assertTrue(Arrays.equals(message.getRaw(),
+                    Files.readAllBytes(messages.resolve(SyncState.safeName(message.getUid()) + ".eml"))));
+
+        out.reset();
+        assertEquals(BatchMode.SUCCESS, BatchMode.run(args, new PrintStream(out), System.err));
+        assertTrue(out.toString().contains("\"messages\":0,"));
+    }
+
+    public void testDownloadsOnNonBlockingEngine() throws Exception {
+        SyntheticMaildrop maildrop = new SyntheticMaildrop(5, 8_000, SyntheticMaildrop.Structure.ATTACHMENT);
+        server = new Pop3TestServer(maildrop).start();
+
+        Path directory = Files.createTempDirectory("batch");
+        Path passwordFile = Files.writeString(directory.resolve("password"), Pop3TestServer.PASSWORD + "\n");
+        String[] args = {"--host", server.getHost(), "--port", String.valueOf(server.getPort()), "--mode", "1",
+                "--user", Pop3TestServer.USERNAME, "--password-file", passwordFile.toString(), "--engine", "nio",
+                "--out", directory.resolve("out").toString(), "--data", directory.resolve("data").toString()};
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(BatchMode.SUCCESS, BatchMode.run(args, new PrintStream(out), System.err));
+        assertTrue(out.toString().startsWith("{\"accounts\":1,\"failed\":0,\"messages\":5,"));
+
+        String account = IncrementalSync.accountKey(Pop3TestServer.USERNAME, server.getHost(), server.getPort());
+        Path messages = directory.resolve("out").resolve(SyncState.safeName(account));
+        for (SyntheticMaildrop.Message message : maildrop.snapshot())
+            assertTrue(Arrays.equals(message.getRaw(),
+                    Files.readAllBytes(messages.resolve(SyncState.safeName(message.getUid()) + ".eml"))));
+        assertEquals(5, SyncState.load(directory.resolve("data").resolve("sync"), account).size());
+
+        out.reset();
+        assertEquals(BatchMode.SUCCESS, BatchMode.run(args, new PrintStream(out), System.err));
+        assertTrue(out.toString().contains("\"messages\":0,"));
+
+        String[] withStls = Arrays.copyOf(args, args.length + 1);
+        withStls[args.length] = "--stls";
+        assertEquals(BatchMode.USAGE, BatchMode.run(withStls, new PrintStream(out), new PrintStream(new ByteArrayOutputStream())));
+    }
+
+    public void testRejectsMissingPassword() {
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        assertEquals(BatchMode.USAGE, BatchMode.run(new String[]{"--host", "localhost", "--port", "110",
+                "--mode", "1", "--user", "user"}, System.out, new PrintStream(err)));
+        assertTrue(err.toString().contains("--password-file"));
+    }
+}
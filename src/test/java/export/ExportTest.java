@@ -0,0 +1,121 @@
+package export;
+
+import junit.framework.TestCase;
+import sync.MessageSink;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Writes archives in every format and reads them back.
+ */
+public class ExportTest extends TestCase {
+
+    private static void write(MessageSink sink, String uid, String raw) throws IOException {
+        byte[] bytes = raw.getBytes(StandardCharsets.US_ASCII);
+        try (OutputStream out = sink.open(uid)) {
+            out.write(bytes);
+        }
+        sink.commit(uid, bytes.length);
+    }
+
+    private static void abort(MessageSink sink, String uid, String partial) throws IOException {
+        try (OutputStream out = sink.open(uid)) {
+            out.write(partial.getBytes(StandardCharsets.US_ASCII));
+        }
+        sink.abort(uid);
+    }
+
+    /**
+     * @return The mbox without the dates of the separator lines.
+     */
+    private static String read(InputStream in) throws IOException {
+        try (in) {
+            return new String(in.readAllBytes(), StandardCharsets.US_ASCII).replaceAll("(?m)^From MAILER-DAEMON .*$", "From -");
+        }
+    }
+
+    public void testMboxQuotesFromLinesAndDropsAbortedMessages() throws Exception {
+        Path directory = Files.createTempDirectory("mbox");
+
+        for (ExportFormat format : new ExportFormat[]{ExportFormat.MBOX, ExportFormat.MBOX_GZ}) {
+            try (MboxSink sink = (MboxSink) format.open(directory, "account")) {
+                write(sink, "1", "Subject: a\r\n\r\nFrom here\r\n>From there\r\nFrom");
+                abort(sink, "2", "Subject: broken\r\n\r\nhalf");
+                write(sink, "3", "Subject: b\r\n\r\n>>From x\r\nFro\r\n");
+                assertTrue(sink.contains("3"));
+                assertFalse(sink.contains("2"));
+            }
+        }
+
+        String expected = "From -\nSubject: a\n\n>From here\n>>From there\nFrom\n\n" +
+                "From -\nSubject: b\n\n>>>From x\nFro\n\n";
+        assertEquals(expected, read(Files.newInputStream(directory.resolve("account.mbox"))));
+        assertEquals(expected, read(new GZIPInputStream(Files.newInputStream(directory.resolve("account.mbox.gz")))));
+    }
+
+    public void testParallelGzipKeepsOrderAcrossReset() throws Exception {
+        Path file = Files.createTempFile("parallel", ".gz");
+        byte[] data = new byte[200_000];
+        new Random(3).nextBytes(data);
+        for (int i = 0; i < data.length; i += 3) data[i] = 'a';
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+             ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(channel, ForkJoinPool.commonPool(), 4096, 3,
+                     Deflater.BEST_SPEED)) {
+            gzip.write(data, 0, 10_000);
+            expected.write(data, 0, 10_000);
+
+            //the marked chunk is compressed and written before the reset cuts it off again
+            gzip.mark();
+            gzip.write(data, 10_000, 50_000);
+            gzip.reset();
+
+            gzip.mark();
+            gzip.write(data, 60_000, 100);
+            gzip.reset();
+
+            gzip.write(data, 60_000, data.length - 60_000);
+            expected.write(data, 60_000, data.length - 60_000);
+        }
+
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            assertTrue(Arrays.equals(expected.toByteArray(), in.readAllBytes()));
+        }
+    }
+
+    public void testMaildirDeliversIntoNewAndRemembersUids() throws Exception {
+        Path directory = Files.createTempDirectory("maildir");
+
+        MaildirSink sink = (MaildirSink) ExportFormat.MAILDIR.open(directory, "account");
+        write(sink, "uid/1", "Subject: a\r\n\r\nbody\r\n");
+        abort(sink, "uid:2", "Subject: b\r\n");
+        sink.force();
+
+        MaildirSink reopened = new MaildirSink(directory.resolve("account"));
+        assertTrue(reopened.contains("uid/1"));
+        assertFalse(reopened.contains("uid:2"));
+
+        try (Stream<Path> tmp = Files.list(directory.resolve("account").resolve("tmp"));
+             Stream<Path> delivered = Files.list(directory.resolve("account").resolve("new"))) {
+            assertEquals(0, tmp.count());
+            Path message = delivered.findFirst().orElseThrow();
+            assertTrue(message.getFileName().toString().endsWith(",S=20"));
+            assertEquals("Subject: a\r\n\r\nbody\r\n", Files.readString(message));
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package metrics;
+
+import client.RequestTyp;
+import junit.framework.TestCase;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Checks the bucketing of the histograms and the export formats.
+ */
+public class MetricsTest extends TestCase {
+
+    public void testBucketsAndQuantiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 90; i++) histogram.record(900_000);          //0.9 ms, bucket up to 1.024 ms
+        for (int i = 0; i < 10; i++) histogram.record(50_000_000);       //50 ms, bucket up to 65.536 ms
+        histogram.record(Long.MAX_VALUE / 2);                            //overflow
+
+        assertEquals(101, histogram.getCount());
+        assertEquals(90, histogram.getBucketCount(10));
+        assertEquals(10, histogram.getBucketCount(16));
+        assertEquals(1, histogram.getBucketCount(LatencyHistogram.BUCKETS));
+        assertEquals(1_024_000, histogram.quantileNanos(0.5));
+        assertEquals(65_536_000, histogram.quantileNanos(0.95));
+        assertEquals(Long.MAX_VALUE / 2, histogram.quantileNanos(1));
+    }
+
+    public void testExportsRecordedValues() throws Exception {
+        Metrics metrics = new Metrics();
+        metrics.record(RequestTyp.RETR, System.nanoTime() - 2_000_000);
+        metrics.record(Phase.TLS_HANDSHAKE, System.nanoTime() - 5_000_000);
+        metrics.addBytesRead(1234);
+
+        Path directory = Files.createTempDirectory("metrics");
+        metrics.export(directory);
+
+        String prometheus = Files.readString(directory.resolve(Metrics.PROMETHEUS_FILE));
+        assertTrue(prometheus.contains("pop3_command_duration_seconds_count{command=\"RETR\"} 1\n"));
+        assertTrue(prometheus.contains("pop3_command_duration_seconds_bucket{command=\"RETR\",le=\"+Inf\"} 1\n"));
+        assertTrue(prometheus.contains("mail_client_phase_duration_seconds_count{phase=\"tls_handshake\"} 1\n"));
+        assertTrue(prometheus.contains("mail_client_bytes_total{direction=\"read\"} 1234\n"));
+        assertFalse(prometheus.contains("command=\"DELE\""));
+
+        String json = Files.readString(directory.resolve(Metrics.JSON_FILE));
+        assertTrue(json.contains("\"RETR\": {\"count\": 1"));
+        assertTrue(json.contains("\"read\": 1234"));
+    }
+}
@@ -0,0 +1,76 @@
+package mime;
+
+import junit.framework.TestCase;
+import store.BufferPool;
+import store.MessageBuffer;
+
+import javax.mail.MessagingException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks the order of the results, the bound on messages in flight and the propagation of failures.
+ */
+public class DecodingPipelineTest extends TestCase {
+    private final BufferPool buffers = new BufferPool(1024, 1 << 20, null);
+
+    public void testHandsResultsInOrderWithBoundedBacklog() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<String> handled = new ArrayList<>();
+        int[] maxPending = new int[1];
+
+        try (DecodingPipeline<String> pipeline = new DecodingPipeline<>(4, 3, (uid, raw) -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                //later messages finish first
+                Thread.sleep(20 - Integer.parseInt(uid));
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } finally {
+                running.decrementAndGet();
+            }
+            try (InputStream in = raw.openStream()) {
+                return new String(in.readAllBytes(), StandardCharsets.US_ASCII).toUpperCase();
+            }
+        }, (uid, decoded) -> handled.add(uid + ":" + decoded))) {
+            for (int i = 0; i < 20; i++) {
+                pipeline.submit(String.valueOf(i), buffer("m" + i));
+                maxPending[0] = Math.max(maxPending[0], pipeline.getPending());
+            }
+            pipeline.finish();
+        }
+
+        assertEquals(20, handled.size());
+        for (int i = 0; i < 20; i++) assertEquals(i + ":M" + i, handled.get(i));
+        assertTrue(maxPending[0] <= 3);
+        assertTrue(maxRunning.get() <= 3);
+        assertEquals(0, buffers.getInMemory());
+    }
+
+    public void testPropagatesDecodingFailure() throws Exception {
+        try (DecodingPipeline<String> pipeline = new DecodingPipeline<>(2, 2, (uid, raw) -> {
+            if(uid.equals("bad")) throw new MessagingException("broken header");
+            return uid;
+        }, (uid, decoded) -> {})) {
+            pipeline.submit("good", buffer(""));
+            pipeline.submit("bad", buffer(""));
+            pipeline.finish();
+            fail("The failure of a message has to reach the fetcher");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("bad"));
+            assertTrue(e.getCause() instanceof MessagingException);
+        }
+    }
+
+    private MessageBuffer buffer(String content) throws IOException {
+        MessageBuffer buffer = buffers.newBuffer();
+        buffer.write(content.getBytes(StandardCharsets.US_ASCII));
+        buffer.close();
+        return buffer;
+    }
+}
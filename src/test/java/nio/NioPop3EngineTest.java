@@ -0,0 +1,116 @@
+package nio;
+
+import fetch.AccountConfig;
+import junit.framework.TestCase;
+import server.Pop3TestServer;
+import server.SyntheticMaildrop;
+import sync.MessageSink;
+import sync.SyncResult;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs many non-blocking sessions against the in-process POP3 server.
+ */
+public class NioPop3EngineTest extends TestCase {
+    static {
+        Pop3TestServer.trustSelfSignedByDefault();
+    }
+
+    private Pop3TestServer server;
+    private NioPop3Engine engine;
+
+    @Override
+    protected void setUp() throws Exception {
+        engine = new NioPop3Engine();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        engine.close();
+        if(server != null) server.close();
+    }
+
+    private AccountConfig account(int socketType) {
+        return new AccountConfig(server.getHost(), server.getPort(), socketType, Pop3TestServer.USERNAME, Pop3TestServer.PASSWORD);
+    }
+
+    public void testMultiplexesSessionsByteExact() throws Exception {
+        SyntheticMaildrop maildrop = new SyntheticMaildrop(6, 1_000, 60_000, SyntheticMaildrop.Structure.ATTACHMENT, 3);
+        server = new Pop3TestServer(maildrop).start();
+
+        List<MemorySink> sinks = new ArrayList<>();
+        List<CompletableFuture<SyncResult>> futures = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            MemorySink sink = new MemorySink();
+            sinks.add(sink);
+            futures.add(engine.fetch(account(1), uid -> true, sink));
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            SyncResult result = futures.get(i).get(30, TimeUnit.SECONDS);
+            assertEquals(6, result.getFetched());
+            for (SyntheticMaildrop.Message message : maildrop.snapshot())
+                assertTrue(Arrays.equals(message.getRaw(), sinks.get(i).messages.get(message.getUid())));
+        }
+    }
+
+    public void testFetchesOverTlsWithoutPipelining() throws Exception {
+        SyntheticMaildrop maildrop = new SyntheticMaildrop(4, 20_000, SyntheticMaildrop.Structure.NESTED);
+        server = new Pop3TestServer(maildrop).secure(true).pipelining(false).start();
+        String skipped = maildrop.snapshot().get(1).getUid();
+
+        MemorySink sink = new MemorySink();
+        SyncResult result = engine.fetch(account(2), uid -> !uid.equals(skipped), sink).get(30, TimeUnit.SECONDS);
+
+        assertEquals(4, result.getTotal());
+        assertEquals(3, result.getFetched());
+        assertFalse(sink.messages.containsKey(skipped));
+        assertTrue(Arrays.equals(maildrop.snapshot().get(3).getRaw(), sink.messages.get(maildrop.snapshot().get(3).getUid())));
+    }
+
+    public void testFailsOnWrongPassword() throws Exception {
+        server = new Pop3TestServer(new SyntheticMaildrop(1, 100, SyntheticMaildrop.Structure.PLAIN)).start();
+        AccountConfig account = new AccountConfig(server.getHost(), server.getPort(), 1, Pop3TestServer.USERNAME, "wrong");
+
+        try {
+            engine.fetch(account, uid -> true, new MemorySink()).get(30, TimeUnit.SECONDS);
+            fail("Login with a wrong password succeeded");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage().startsWith("Authentication failed"));
+        }
+    }
+
+    /**
+     * Keeps committed messages in memory.
+     */
+    private static final class MemorySink implements MessageSink {
+        final Map<String, byte[]> messages = new HashMap<>();
+        private ByteArrayOutputStream current;
+
+        @Override
+        public OutputStream open(String uid) {
+            return current = new ByteArrayOutputStream();
+        }
+
+        @Override
+        public void commit(String uid, long size) {
+            assertEquals(size, current.size());
+            messages.put(uid, current.toByteArray());
+        }
+
+        @Override
+        public void abort(String uid) {
+            current = null;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package search;
+
+import junit.framework.TestCase;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Searches flushed and pending messages and checks that the index survives reopening and merging.
+ */
+public class SearchIndexTest extends TestCase {
+    private Path directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = Files.createTempDirectory("index");
+    }
+
+    public void testMatchesAllTermsNewestFirst() throws Exception {
+        try (SearchIndex index = SearchIndex.open(directory)) {
+            index.add("a", "alice@example.org", "Quarterly report", "Numbers for the quarterly report attached.");
+            index.add("b", "bob@example.org", "Lunch", "Lunch on Friday? The report can wait.");
+            index.flush();
+            index.add("c", "carol@example.org", "Re: Quarterly report", "Reporting back on the numbers.");
+
+            assertFalse(index.add("a", "alice@example.org", "Duplicate", "ignored"));
+            assertEquals(List.of("c", "a"), uids(index.search("quarterly REPORT", 10)));
+            assertEquals(List.of("c", "b", "a"), uids(index.search("report*", 10)));
+            assertEquals(List.of("c"), uids(index.search("report*", 1)));
+            assertEquals(List.of("b"), uids(index.search("friday", 10)));
+            assertTrue(index.search("quarterly friday", 10).isEmpty());
+            assertTrue(index.search("  ", 10).isEmpty());
+        }
+    }
+
+    public void testReopensAndMergesSegments() throws Exception {
+        int messages = 3 * SearchIndex.MAX_SEGMENTS;
+        try (SearchIndex index = SearchIndex.open(directory)) {
+            for (int i = 0; i < messages; i++) {
+                index.add("uid" + i, "sender" + i + "@example.org", "Subject " + i, i % 2 == 0 ? "even" : "odd");
+                index.flush();
+            }
+            assertTrue(index.getSegmentCount() <= SearchIndex.MAX_SEGMENTS);
+        }
+
+        try (SearchIndex index = SearchIndex.open(directory)) {
+            assertEquals(messages, index.size());
+            assertTrue(index.contains("uid0"));
+            assertEquals(messages / 2, index.search("even", messages).size());
+
+            List<SearchHit> hits = index.search("sender7", 10);
+            assertEquals(1, hits.size());
+            assertEquals("uid7", hits.get(0).getUid());
+            assertEquals("Subject 7", hits.get(0).getSubject());
+        }
+    }
+
+    private static List<String> uids(List<SearchHit> hits) {
+        return hits.stream().map(SearchHit::getUid).toList();
+    }
+}
@@ -0,0 +1,527 @@
+package server;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process POP3 server for tests and benchmarks. It serves a {@link SyntheticMaildrop} over plain TCP or TLS
+ * (self-signed certificate from {@code pop3-test.p12}) and supports {@code USER}, {@code PASS}, {@code CAPA},
+ * {@code STAT}, {@code LIST}, {@code UIDL}, {@code TOP}, {@code RETR}, {@code DELE}, {@code RSET}, {@code NOOP} and
+ * {@code QUIT}. Latency per command and a bandwidth cap can be injected to simulate slow links.
+ * <p>
+ * Settings have to be made before {@link #start()}.
+ */
+public final class Pop3TestServer implements Closeable {
+    public static final String USERNAME = "user";
+    public static final String PASSWORD = "secret";
+
+    private static final char[] KEYSTORE_PASSWORD = "changeit".toCharArray();
+
+    private final SyntheticMaildrop maildrop;
+
+    private boolean secure;
+    private boolean stls;
+    private boolean pipelining = true;
+    private boolean capa = true;
+    private long commandLatencyMillis;
+    private long bytesPerSecond;
+
+    private ServerSocket serverSocket;
+    /**
+     * Context of the TLS sessions, one per server so that clients can resume their sessions
+     */
+    private SSLContext tlsContext;
+    private final List<Socket> sessions = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * Counters for assertions in tests
+     */
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger commands = new AtomicInteger();
+
+    public Pop3TestServer(SyntheticMaildrop maildrop) {
+        this.maildrop = maildrop;
+    }
+
+    /**
+     * @param secure {@code true} to accept TLS connections only.
+     * @return This server.
+     */
+    public Pop3TestServer secure(boolean secure) {
+        this.secure = secure;
+        return this;
+    }
+
+    /**
+     * @param stls {@code true} to offer upgrading a plain connection with {@code STLS} (RFC 2595).
+     * @return This server.
+     */
+    public Pop3TestServer stls(boolean stls) {
+        this.stls = stls;
+        return this;
+    }
+
+    /**
+     * @param pipelining {@code true} to advertise {@code PIPELINING} in the capabilities.
+     * @return This server.
+     */
+    public Pop3TestServer pipelining(boolean pipelining) {
+        this.pipelining = pipelining;
+        return this;
+    }
+
+    /**
+     * @param capa {@code false} to answer {@code CAPA} with {@code -ERR}, like an RFC 1939-only server.
+     * @return This server.
+     */
+    public Pop3TestServer capa(boolean capa) {
+        this.capa = capa;
+        return this;
+    }
+
+    /**
+     * @param millis Delay before every response.
+     * @return This server.
+     */
+    public Pop3TestServer commandLatency(long millis) {
+        this.commandLatencyMillis = millis;
+        return this;
+    }
+
+    /**
+     * @param bytesPerSecond Maximum rate of every session, {@code 0} for unlimited.
+     * @return This server.
+     */
+    public Pop3TestServer bandwidth(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        return this;
+    }
+
+    /**
+     * Binds to a free port on the loopback interface and starts accepting sessions.
+     * @return This server.
+     * @throws IOException If binding was not possible.
+     */
+    public Pop3TestServer start() throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        tlsContext = serverContext();
+        serverSocket = secure
+                ? tlsContext.getServerSocketFactory().createServerSocket(0, 128, loopback)
+                : new ServerSocket(0, 128, loopback);
+
+        Thread acceptor = new Thread(this::acceptLoop, "pop3-test-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return this;
+    }
+
+    public String getHost() {
+        return serverSocket.getInetAddress().getHostAddress();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public SyntheticMaildrop getMaildrop() {
+        return maildrop;
+    }
+
+    public int getConnections() {
+        return connections.get();
+    }
+
+    public int getCommands() {
+        return commands.get();
+    }
+
+    /**
+     * Closes all open sessions without a response while still accepting new ones, like a server restart or a
+     * network failure.
+     * @throws IOException If closing a socket failed.
+     */
+    public void dropConnections() throws IOException {
+        List<Socket> open;
+        synchronized (sessions) {
+            open = new ArrayList<>(sessions);
+        }
+        for (Socket session : open) session.close();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        synchronized (sessions) {
+            for (Socket session : sessions) session.close();
+        }
+    }
+
+    /**
+     * @return Context holding the self-signed key of the server.
+     */
+    public static SSLContext serverContext() {
+        try {
+            KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagers.init(keyStore(), KEYSTORE_PASSWORD);
+
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(keyManagers.getKeyManagers(), null, null);
+            return context;
+        } catch (GeneralSecurityException | IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return Context trusting the self-signed certificate of the server.
+     */
+    public static SSLContext clientContext() {
+        try {
+            TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trustManagers.init(keyStore());
+
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, trustManagers.getTrustManagers(), null);
+            return context;
+        } catch (GeneralSecurityException | IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Makes the self-signed certificate trusted by every default SSL socket factory of this JVM. Has to be called
+     * before the default factory is used for the first time.
+     */
+    public static void trustSelfSignedByDefault() {
+        SSLContext.setDefault(clientContext());
+    }
+
+    private static KeyStore keyStore() throws GeneralSecurityException, IOException {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = Pop3TestServer.class.getResourceAsStream("/pop3-test.p12")) {
+            if(in == null) throw new IOException("pop3-test.p12 is missing on the test class path");
+            keyStore.load(in, KEYSTORE_PASSWORD);
+        }
+
+        return keyStore;
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                //a connection can still slip through while the listening socket is being closed
+                if(serverSocket.isClosed()){
+                    socket.close();
+                    return;
+                }
+                connections.incrementAndGet();
+                sessions.add(socket);
+
+                Thread session = new Thread(() -> serve(socket), "pop3-test-session");
+                session.setDaemon(true);
+                session.start();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            new Session(socket).run();
+        } catch (IOException ignored) {
+        } finally {
+            sessions.remove(socket);
+        }
+    }
+
+    /**
+     * State of one connection.
+     */
+    private final class Session {
+        private final Socket socket;
+        private BufferedReader in;
+        private OutputStream out;
+        private boolean tls;
+
+        private List<SyntheticMaildrop.Message> messages;
+        private final Set<Integer> deleted = new LinkedHashSet<>();
+        private String user;
+
+        Session(Socket socket) throws IOException {
+            this.socket = socket;
+            this.tls = secure;
+            openStreams(socket);
+        }
+
+        private void openStreams(Socket socket) throws IOException {
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+            OutputStream raw = socket.getOutputStream();
+            this.out = new BufferedOutputStream(bytesPerSecond > 0 ? new ThrottledOutputStream(raw, bytesPerSecond) : raw, 16 * 1024);
+        }
+
+        private void startTls() throws IOException {
+            if(!stls || tls) {
+                reply("-ERR command not valid in this state");
+                return;
+            }
+
+            reply("+OK begin TLS negotiation");
+            flush();
+
+            SSLSocket upgraded = (SSLSocket) tlsContext.getSocketFactory()
+                    .createSocket(socket, socket.getInetAddress().getHostAddress(), socket.getPort(), true);
+            upgraded.setUseClientMode(false);
+            upgraded.startHandshake();
+            openStreams(upgraded);
+            tls = true;
+        }
+
+        void run() throws IOException {
+            reply("+OK POP3 test server ready");
+            flush();
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                commands.incrementAndGet();
+                if(commandLatencyMillis > 0) sleep(commandLatencyMillis);
+
+                String[] tokens = line.trim().split("\\s+");
+                String command = tokens[0].toUpperCase();
+
+                if(command.equals("QUIT")) {
+                    if(messages != null && !deleted.isEmpty()) {
+                        List<SyntheticMaildrop.Message> removed = new ArrayList<>();
+                        for (int number : deleted) removed.add(messages.get(number - 1));
+                        maildrop.expunge(removed);
+                    }
+                    reply("+OK bye");
+                    flush();
+                    return;
+                }
+
+                if(messages == null) authorization(command, tokens);
+                else transaction(command, tokens);
+
+                //responses of pipelined commands go out together
+                if(!in.ready()) flush();
+            }
+        }
+
+        private void authorization(String command, String[] tokens) throws IOException {
+            switch (command) {
+                case "CAPA" -> capabilities();
+                case "STLS" -> startTls();
+                case "USER" -> {
+                    user = tokens.length > 1 ? tokens[1] : null;
+                    reply("+OK");
+                }
+                case "PASS" -> {
+                    if(USERNAME.equals(user) && tokens.length > 1 && PASSWORD.equals(tokens[1])) {
+                        messages = maildrop.snapshot();
+                        reply("+OK maildrop locked and ready");
+                    } else {
+                        user = null;
+                        reply("-ERR invalid credentials");
+                    }
+                }
+                case "NOOP" -> reply("+OK");
+                default -> reply("-ERR command not valid in this state");
+            }
+        }
+
+        private void transaction(String command, String[] tokens) throws IOException {
+            switch (command) {
+                case "CAPA" -> capabilities();
+                case "NOOP" -> reply("+OK");
+                case "STAT" -> {
+                    long size = 0;
+                    int count = 0;
+                    for (int i = 1; i <= messages.size(); i++) {
+                        if(deleted.contains(i)) continue;
+                        count++;
+                        size += messages.get(i - 1).getRaw().length;
+                    }
+                    reply("+OK " + count + " " + size);
+                }
+                case "LIST", "UIDL" -> {
+                    boolean uidl = command.equals("UIDL");
+                    if(tokens.length > 1) {
+                        Integer number = messageNumber(tokens[1]);
+                        if(number != null) reply("+OK " + number + " " + listValue(number, uidl));
+                        return;
+                    }
+
+                    reply("+OK");
+                    for (int i = 1; i <= messages.size(); i++)
+                        if(!deleted.contains(i)) reply(i + " " + listValue(i, uidl));
+                    reply(".");
+                }
+                case "RETR" -> {
+                    Integer number = tokens.length > 1 ? messageNumber(tokens[1]) : null;
+                    if(number == null) return;
+
+                    byte[] raw = messages.get(number - 1).getRaw();
+                    reply("+OK " + raw.length + " octets");
+                    writeStuffed(raw, Integer.MAX_VALUE);
+                    reply(".");
+                }
+                case "TOP" -> {
+                    Integer number = tokens.length > 2 ? messageNumber(tokens[1]) : null;
+                    if(number == null) return;
+
+                    reply("+OK");
+                    writeStuffed(messages.get(number - 1).getRaw(), Integer.parseInt(tokens[2]));
+                    reply(".");
+                }
+                case "DELE" -> {
+                    Integer number = tokens.length > 1 ? messageNumber(tokens[1]) : null;
+                    if(number == null) return;
+
+                    deleted.add(number);
+                    reply("+OK message " + number + " deleted");
+                }
+                case "RSET" -> {
+                    deleted.clear();
+                    reply("+OK");
+                }
+                default -> reply("-ERR unknown command");
+            }
+        }
+
+        private void capabilities() throws IOException {
+            if(!capa) {
+                reply("-ERR unknown command");
+                return;
+            }
+
+            reply("+OK Capability list follows");
+            reply("USER");
+            reply("UIDL");
+            reply("TOP");
+            if(pipelining) reply("PIPELINING");
+            if(stls && !tls && messages == null) reply("STLS");
+            reply(".");
+        }
+
+        private String listValue(int number, boolean uidl) {
+            SyntheticMaildrop.Message message = messages.get(number - 1);
+            return uidl ? message.getUid() : String.valueOf(message.getRaw().length);
+        }
+
+        /**
+         * @param token Message number as sent by the client.
+         * @return The number, {@code null} after an error has been replied.
+         */
+        private Integer messageNumber(String token) throws IOException {
+            try {
+                int number = Integer.parseInt(token);
+                if(number >= 1 && number <= messages.size() && !deleted.contains(number)) return number;
+            } catch (NumberFormatException ignored) {}
+
+            reply("-ERR no such message");
+            return null;
+        }
+
+        /**
+         * Writes a message with byte-stuffing.
+         * @param raw Message with CRLF line endings.
+         * @param bodyLines Number of body lines to write after the header.
+         */
+        private void writeStuffed(byte[] raw, int bodyLines) throws IOException {
+            boolean inBody = false;
+            int lines = 0;
+            int start = 0;
+
+            for (int i = 0; i < raw.length; i++) {
+                if(raw[i] != '\n') continue;
+
+                if(inBody && lines++ >= bodyLines) return;
+                if(raw[start] == '.') out.write('.');
+                out.write(raw, start, i + 1 - start);
+
+                if(!inBody && i - start <= 1) inBody = true;
+                start = i + 1;
+            }
+        }
+
+        private void reply(String line) throws IOException {
+            out.write(line.getBytes(StandardCharsets.ISO_8859_1));
+            out.write('\r');
+            out.write('\n');
+        }
+
+        private void flush() throws IOException {
+            out.flush();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Caps the rate of a stream by sleeping once the bytes written are ahead of the allowed rate.
+     */
+    private static final class ThrottledOutputStream extends FilterOutputStream {
+        private static final int CHUNK = 4096;
+
+        private final long bytesPerSecond;
+        private final long start = System.nanoTime();
+        private long written;
+
+        ThrottledOutputStream(OutputStream out, long bytesPerSecond) {
+            super(out);
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int chunk = Math.min(len, CHUNK);
+                out.write(b, off, chunk);
+                written += chunk;
+                off += chunk;
+                len -= chunk;
+
+                long aheadNanos = written * 1_000_000_000L / bytesPerSecond - (System.nanoTime() - start);
+                if(aheadNanos > 0) sleep(aheadNanos / 1_000_000);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return (secure ? "pop3s://" : "pop3://") + getHost() + ":" + getPort();
+    }
+}
@@ -0,0 +1,184 @@
+package server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Maildrop of generated messages served by {@link Pop3TestServer}. Messages are generated deterministically
+ * from a seed, so two maildrops with the same settings hold the same bytes.
+ */
+public final class SyntheticMaildrop {
+    /**
+     * MIME structure of the generated messages
+     */
+    public enum Structure {
+        /** single text/plain body */
+        PLAIN,
+        /** multipart/alternative with a text and a html part */
+        ALTERNATIVE,
+        /** multipart/mixed with a text part and a base64 binary attachment */
+        ATTACHMENT,
+        /** multipart/mixed with a text part and a message/rfc822 part */
+        NESTED
+    }
+
+    private static final String[] WORDS = {"lorem", "ipsum", "dolor", "sit", "amet", "mailbox", "pop3", "server",
+            "message", "latency", "throughput", "pipeline", "segment", "index", ".dot", "header", "body"};
+
+    /**
+     * Messages that haven't been removed by a committed {@code DELE}
+     */
+    private final List<Message> messages = new ArrayList<>();
+
+    public SyntheticMaildrop(int count, int size, Structure structure) {
+        this(count, size, size, structure, 42);
+    }
+
+    /**
+     * Generates a maildrop.
+     * @param count Number of messages.
+     * @param minSize Minimum size of a message in bytes.
+     * @param maxSize Maximum size of a message in bytes, the sizes are distributed uniformly in between.
+     * @param structure MIME structure of every message.
+     * @param seed Seed of the generator.
+     */
+    public SyntheticMaildrop(int count, int minSize, int maxSize, Structure structure, long seed) {
+        Random random = new Random(seed);
+        for (int i = 0; i < count; i++) {
+            int size = minSize + (maxSize > minSize ? random.nextInt(maxSize - minSize + 1) : 0);
+            String uid = String.format("%08x-%06d", seed, i);
+            messages.add(new Message(uid, generate(i, size, structure, random)));
+        }
+    }
+
+    /**
+     * Creates a maildrop holding the given raw messages. Line endings are normalized to CRLF.
+     * @param rawMessages Messages in RFC 822 form.
+     */
+    public SyntheticMaildrop(String... rawMessages) {
+        for (int i = 0; i < rawMessages.length; i++) {
+            String normalized = rawMessages[i].replace("\r\n", "\n").replace("\n", "\r\n");
+            if(!normalized.endsWith("\r\n")) normalized += "\r\n";
+            messages.add(new Message(String.format("raw-%06d", i), normalized.getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    /**
+     * @return The messages currently in the maildrop. A session works on such a snapshot until it quits.
+     */
+    public synchronized List<Message> snapshot() {
+        return Collections.unmodifiableList(new ArrayList<>(messages));
+    }
+
+    /**
+     * Removes messages, called when a session quits after {@code DELE} commands.
+     * @param deleted Messages to remove.
+     */
+    public synchronized void expunge(Collection<Message> deleted) {
+        messages.removeAll(deleted);
+    }
+
+    public synchronized int size() {
+        return messages.size();
+    }
+
+    /**
+     * Adds a message, e.g. to simulate new mail between two polls.
+     * @param uid Unique id of the message.
+     * @param raw Message in RFC 822 form with CRLF line endings.
+     */
+    public synchronized void add(String uid, byte[] raw) {
+        messages.add(new Message(uid, raw));
+    }
+
+    private static byte[] generate(int index, int size, Structure structure, Random random) {
+        StringBuilder sb = new StringBuilder(size + 512);
+        sb.append("From: Sender ").append(index).append(" <sender").append(index).append("@example.org>\r\n");
+        sb.append("To: Recipient <recipient@example.org>\r\n");
+        sb.append("Subject: Synthetic message ").append(index).append("\r\n");
+        sb.append("Date: Mon, 1 Jan 2024 00:00:00 +0000\r\n");
+        sb.append("Message-ID: <").append(index).append(".").append(random.nextLong()).append("@example.org>\r\n");
+        sb.append("MIME-Version: 1.0\r\n");
+
+        switch (structure){
+            case PLAIN -> {
+                sb.append("Content-Type: text/plain; charset=us-ascii\r\n\r\n");
+                appendText(sb, size, random);
+            }
+            case ALTERNATIVE -> {
+                sb.append("Content-Type: multipart/alternative; boundary=\"alt-").append(index).append("\"\r\n\r\n");
+                sb.append("--alt-").append(index).append("\r\nContent-Type: text/plain; charset=us-ascii\r\n\r\n");
+                appendText(sb, sb.length() + (size - sb.length()) / 2, random);
+                sb.append("--alt-").append(index).append("\r\nContent-Type: text/html; charset=us-ascii\r\n\r\n");
+                sb.append("<html><body>\r\n");
+                appendText(sb, size, random);
+                sb.append("</body></html>\r\n");
+                sb.append("--alt-").append(index).append("--\r\n");
+            }
+            case ATTACHMENT -> {
+                sb.append("Content-Type: multipart/mixed; boundary=\"mix-").append(index).append("\"\r\n\r\n");
+                sb.append("--mix-").append(index).append("\r\nContent-Type: text/plain; charset=us-ascii\r\n\r\n");
+                appendText(sb, sb.length() + 256, random);
+                sb.append("--mix-").append(index).append("\r\nContent-Type: application/octet-stream; name=\"data")
+                        .append(index).append(".bin\"\r\nContent-Transfer-Encoding: base64\r\n")
+                        .append("Content-Disposition: attachment; filename=\"data").append(index).append(".bin\"\r\n\r\n");
+                byte[] binary = new byte[Math.max(0, (size - sb.length()) * 3 / 4)];
+                random.nextBytes(binary);
+                sb.append(Base64.getMimeEncoder().encodeToString(binary)).append("\r\n");
+                sb.append("--mix-").append(index).append("--\r\n");
+            }
+            case NESTED -> {
+                sb.append("Content-Type: multipart/mixed; boundary=\"nest-").append(index).append("\"\r\n\r\n");
+                sb.append("--nest-").append(index).append("\r\nContent-Type: text/plain; charset=us-ascii\r\n\r\n");
+                appendText(sb, sb.length() + 256, random);
+                sb.append("--nest-").append(index).append("\r\nContent-Type: message/rfc822\r\n\r\n");
+                sb.append("From: inner@example.org\r\nSubject: Nested ").append(index)
+                        .append("\r\nContent-Type: text/plain; charset=us-ascii\r\n\r\n");
+                appendText(sb, size, random);
+                sb.append("--nest-").append(index).append("--\r\n");
+            }
+        }
+
+        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static void appendText(StringBuilder sb, int targetLength, Random random) {
+        do {
+            int lineLength = 0;
+            while (lineLength < 70) {
+                String word = WORDS[random.nextInt(WORDS.length)];
+                //a dot may only start a line, so the client has to unstuff it
+                if(lineLength > 0 && word.charAt(0) == '.') word = word.substring(1);
+                sb.append(word).append(' ');
+                lineLength += word.length() + 1;
+            }
+            sb.append("\r\n");
+        } while (sb.length() < targetLength);
+    }
+
+    /**
+     * One message of the maildrop.
+     */
+    public static final class Message {
+        private final String uid;
+        private final byte[] raw;
+
+        public Message(String uid, byte[] raw) {
+            this.uid = uid;
+            this.raw = raw;
+        }
+
+        public String getUid() {
+            return uid;
+        }
+
+        public byte[] getRaw() {
+            return raw;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package store;
+
+import client.JavaMail;
+import junit.framework.TestCase;
+import org.apache.commons.io.IOUtils;
+import server.SyntheticMaildrop;
+
+import javax.mail.Multipart;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stores attachments by content and checks that references in message output resolve.
+ */
+public class BlobStoreTest extends TestCase {
+    private static final Pattern REFERENCE = Pattern.compile("\\((\\S+), (\\d+) bytes\\) sha256:([0-9a-f]{64})");
+
+    private BlobStore store;
+
+    @Override
+    protected void setUp() throws Exception {
+        store = BlobStore.open(Files.createTempDirectory("blobs"));
+    }
+
+    public void testStoresIdenticalContentOnce() throws Exception {
+        byte[] content = new byte[3 * BlobStore.BUFFER_SIZE + 17];
+        new Random(1).nextBytes(content);
+
+        BlobRef first = store.put(new ByteArrayInputStream(content));
+        BlobRef second = store.put(new ByteArrayInputStream(content));
+
+        assertEquals(first.getHash(), second.getHash());
+        assertEquals(content.length, first.getSize());
+        assertTrue(Arrays.equals(content, Files.readAllBytes(store.resolve(first.getHash()))));
+        try (var blobs = Files.walk(store.getDirectory())) {
+            assertEquals(1, blobs.filter(Files::isRegularFile).count());
+        }
+    }
+
+    public void testMessageOutputReferencesAttachments() throws Exception {
+        SyntheticMaildrop maildrop = new SyntheticMaildrop(2, 20_000, SyntheticMaildrop.Structure.ATTACHMENT);
+        JavaMail javaMail = JavaMail.newInstance();
+        javaMail.setBlobStore(store);
+        Session session = Session.getInstance(new Properties());
+
+        for (SyntheticMaildrop.Message raw : maildrop.snapshot()) {
+            MimeMessage message = new MimeMessage(session, new ByteArrayInputStream(raw.getRaw()));
+            Matcher matcher = REFERENCE.matcher(javaMail.readMessage(message));
+            assertTrue(matcher.find());
+            assertEquals("application/octet-stream", matcher.group(1));
+
+            Path blob = store.resolve(matcher.group(3));
+            assertEquals(Long.parseLong(matcher.group(2)), Files.size(blob));
+            try (InputStream decoded = ((Multipart) message.getContent()).getBodyPart(1).getInputStream()) {
+                assertTrue(Arrays.equals(IOUtils.toByteArray(decoded), Files.readAllBytes(blob)));
+            }
+        }
+    }
+}
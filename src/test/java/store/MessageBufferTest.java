@@ -0,0 +1,98 @@
+package store;
+
+import client.JavaMail;
+import junit.framework.TestCase;
+import server.SyntheticMaildrop;
+
+import javax.mail.Multipart;
+import javax.mail.internet.MimeMessage;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that buffers spill above the threshold and the cap and that spilled messages parse like buffered ones.
+ */
+public class MessageBufferTest extends TestCase {
+    private Path directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = Files.createTempDirectory("buffers");
+    }
+
+    public void testSpillsAboveThreshold() throws Exception {
+        BufferPool pool = new BufferPool(10_000, 1 << 20, directory);
+        byte[] small = content(5_000);
+        byte[] large = content(25_000);
+
+        MessageBuffer first = write(pool, small);
+        MessageBuffer second = write(pool, large);
+        assertFalse(first.isSpilled());
+        assertTrue(second.isSpilled());
+        assertEquals(large.length, second.size());
+        assertTrue(Arrays.equals(small, read(first)));
+        assertTrue(Arrays.equals(large, read(second)));
+
+        first.release();
+        second.release();
+        assertEquals(0, pool.getInMemory());
+        try (var files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    public void testCapLimitsMemoryOfAllBuffers() throws Exception {
+        BufferPool pool = new BufferPool(10_000, 20_000, directory);
+
+        MessageBuffer[] buffers = new MessageBuffer[5];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = write(pool, content(6_000));
+            assertTrue(pool.getInMemory() <= pool.getMemoryCap());
+        }
+
+        assertTrue(pool.getSpilled() > 0);
+        for (MessageBuffer buffer : buffers) {
+            assertEquals(6_000, read(buffer).length);
+            buffer.release();
+        }
+        assertEquals(0, pool.getInMemory());
+    }
+
+    public void testParsesSpilledMessage() throws Exception {
+        List<SyntheticMaildrop.Message> messages = new SyntheticMaildrop(1, 50_000, SyntheticMaildrop.Structure.ATTACHMENT).snapshot();
+        BufferPool pool = new BufferPool(1_000, 1 << 20, directory);
+        MessageBuffer raw = write(pool, messages.get(0).getRaw());
+        assertTrue(raw.isSpilled());
+
+        MimeMessage message = JavaMail.newInstance().parse(raw);
+        assertNotNull(message.getSubject());
+        assertTrue(message.getContent() instanceof Multipart);
+        raw.release();
+    }
+
+    private static MessageBuffer write(BufferPool pool, byte[] content) throws Exception {
+        MessageBuffer buffer = pool.newBuffer();
+        try (buffer) {
+            //odd chunks, so the array grows several times
+            for (int off = 0; off < content.length; off += 777)
+                buffer.write(content, off, Math.min(777, content.length - off));
+        }
+        return buffer;
+    }
+
+    private static byte[] read(MessageBuffer buffer) throws Exception {
+        try (InputStream in = buffer.openStream()) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] content(int size) {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+}
@@ -0,0 +1,132 @@
+package store;
+
+import junit.framework.TestCase;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that the index grows, segments roll over and compaction reclaims garbage, and that all of it survives
+ * reopening the store.
+ */
+public class MessageStoreTest extends TestCase {
+    private Path directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = Files.createTempDirectory("store");
+    }
+
+    public void testRehashKeepsAllMessages() throws Exception {
+        long indexSize;
+        try (MessageStore store = MessageStore.open(directory)) {
+            indexSize = Files.size(directory.resolve("index.dat"));
+            for (int i = 0; i < 3_000; i++) store(store, "uid-" + i, content(i, 100 + i % 50));
+
+            assertEquals(3_000, store.size());
+            assertTrue(Files.size(directory.resolve("index.dat")) > indexSize);
+        }
+
+        try (MessageStore store = MessageStore.open(directory)) {
+            assertEquals(3_000, store.size());
+            for (int i = 0; i < 3_000; i++)
+                assertTrue(Arrays.equals(content(i, 100 + i % 50), read(store, "uid-" + i)));
+            assertFalse(store.contains("uid-3000"));
+        }
+    }
+
+    public void testRehashKeepsGarbage() throws Exception {
+        try (MessageStore store = MessageStore.open(directory)) {
+            for (int i = 0; i < 10; i++) store(store, "uid-" + i, content(i, 1_000));
+            for (int i = 0; i < 5; i++) store(store, "uid-" + i, content(i + 100, 1_000));
+            assertTrue(store.delete("uid-9"));
+            assertEquals(6_000, store.getGarbage());
+
+            long indexSize = Files.size(directory.resolve("index.dat"));
+            for (int i = 10; i < 3_000; i++) store(store, "uid-" + i, content(i, 10));
+            assertTrue(Files.size(directory.resolve("index.dat")) > indexSize);
+            assertEquals(6_000, store.getGarbage());
+        }
+
+        try (MessageStore store = MessageStore.open(directory)) {
+            assertEquals(6_000, store.getGarbage());
+            assertTrue(Arrays.equals(content(100, 1_000), read(store, "uid-0")));
+        }
+    }
+
+    public void testRollsSegmentsAndCompacts() throws Exception {
+        int large = (int) (MessageStore.SEGMENT_LIMIT / 3) + 1;
+        try (MessageStore store = MessageStore.open(directory)) {
+            for (int i = 0; i < 3; i++) store(store, "large-" + i, content(i, large));
+            store(store, "small", content(3, 1_000));
+            assertTrue(Files.exists(directory.resolve("segment-00001.dat")));
+
+            assertTrue(store.delete("large-0"));
+            assertTrue(store.delete("large-2"));
+            assertFalse(store.delete("large-2"));
+            assertEquals(2L * large, store.getGarbage());
+
+            store.compact();
+            assertFalse(Files.exists(directory.resolve("segment-00000.dat")));
+            assertFalse(Files.exists(directory.resolve("segment-00001.dat")));
+            assertEquals(0, store.getGarbage());
+            assertEquals(2, store.size());
+        }
+
+        try (MessageStore store = MessageStore.open(directory)) {
+            assertFalse(store.contains("large-0"));
+            assertTrue(Arrays.equals(content(1, large), read(store, "large-1")));
+            assertTrue(Arrays.equals(content(3, 1_000), read(store, "small")));
+        }
+    }
+
+    public void testCompactsReplacedMessagesOnClose() throws Exception {
+        int size = (int) MessageStore.COMPACT_MIN_GARBAGE;
+        try (MessageStore store = MessageStore.open(directory)) {
+            store(store, "a", content(1, size));
+            store(store, "b", content(2, size));
+        }
+
+        //fetched again, e.g. with --fetch all
+        try (MessageStore store = MessageStore.open(directory)) {
+            store(store, "a", content(3, size));
+            assertEquals(size, store.getGarbage());
+        }
+        assertTrue(Files.exists(directory.resolve("segment-00000.dat")));
+
+        try (MessageStore store = MessageStore.open(directory)) {
+            store(store, "b", content(4, size));
+        }
+        assertFalse(Files.exists(directory.resolve("segment-00000.dat")));
+
+        try (MessageStore store = MessageStore.open(directory)) {
+            assertEquals(0, store.getGarbage());
+            assertEquals(2, store.size());
+            assertTrue(Arrays.equals(content(3, size), read(store, "a")));
+            assertTrue(Arrays.equals(content(4, size), read(store, "b")));
+        }
+    }
+
+    private static void store(MessageStore store, String uid, byte[] content) throws Exception {
+        try (OutputStream out = store.open(uid)) {
+            out.write(content);
+        }
+        store.commit(uid, content.length);
+    }
+
+    private static byte[] read(MessageStore store, String uid) throws Exception {
+        try (InputStream in = store.openStream(uid)) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] content(int seed, int size) {
+        byte[] content = new byte[size];
+        new Random(seed).nextBytes(content);
+        return content;
+    }
+}
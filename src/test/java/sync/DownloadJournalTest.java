@@ -0,0 +1,161 @@
+package sync;
+
+import client.MessageSource;
+import junit.framework.TestCase;
+import server.SyntheticMaildrop;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * Interrupts a journaled sync before its state is saved and checks that the next run resumes after the stored
+ * messages.
+ */
+public class DownloadJournalTest extends TestCase {
+    private static final String ACCOUNT = "user@localhost:110";
+
+    private Path directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = Files.createTempDirectory("journal");
+    }
+
+    public void testResumesAfterInterruptedRun() throws Exception {
+        List<SyntheticMaildrop.Message> messages = new SyntheticMaildrop(6, 2_000, SyntheticMaildrop.Structure.PLAIN).snapshot();
+        FailingSource source = new FailingSource(messages, 4);
+        DirectorySink sink = new DirectorySink(directory.resolve("out"));
+
+        //the state can't be saved, as if the process died before the end of the run
+        SyncState lost = SyncState.load(directory.resolve("lost"), ACCOUNT);
+        Files.createDirectories(lost.getFile().resolve("blocker"));
+        try (DownloadJournal journal = DownloadJournal.open(directory.resolve("sync"), ACCOUNT)) {
+            new IncrementalSync(source, lost, sink, journal).run();
+            fail("Run wasn't interrupted");
+        } catch (IOException expected) {}
+
+        try (DownloadJournal journal = DownloadJournal.open(directory.resolve("sync"), ACCOUNT)) {
+            assertEquals(3, journal.getEntries().size());
+            for (int i = 0; i < 3; i++) {
+                DownloadJournal.Entry entry = journal.getEntries().get(messages.get(i).getUid());
+                assertEquals(messages.get(i).getRaw().length, entry.getSize());
+                assertEquals(crc(messages.get(i).getRaw()), entry.getChecksum());
+            }
+
+            source.failAt = -1;
+            source.streamed = 0;
+            SyncResult result = new IncrementalSync(source, SyncState.load(directory.resolve("sync"), ACCOUNT), sink, journal).run();
+            assertEquals(3, result.getFetched());
+            assertEquals(3, source.streamed);
+        }
+
+        try (DownloadJournal journal = DownloadJournal.open(directory.resolve("sync"), ACCOUNT)) {
+            assertTrue(journal.getEntries().isEmpty());
+        }
+        assertEquals(6, SyncState.load(directory.resolve("sync"), ACCOUNT).size());
+    }
+
+    public void testCutsOffTornEntry() throws Exception {
+        DirectorySink sink = new DirectorySink(directory.resolve("out"));
+        Path file;
+        try (DownloadJournal journal = DownloadJournal.open(directory, ACCOUNT)) {
+            journal.append("a", 10, 1, sink);
+            journal.append("b", 20, 2, sink);
+            journal.sync(sink);
+            file = journal.getFile();
+        }
+        long size = Files.size(file);
+        Files.write(file, new byte[]{0, 0, 0, 30, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        try (DownloadJournal journal = DownloadJournal.open(directory, ACCOUNT)) {
+            assertEquals(List.of("a", "b"), List.copyOf(journal.getEntries().keySet()));
+            assertEquals(size, Files.size(file));
+            journal.append("c", 30, 3, sink);
+            journal.append("d", 40, 4, sink);
+            journal.sync(sink);
+            journal.append("e", 50, 5, sink);
+        }
+
+        //an entry that wasn't synced is dropped, its message may not be durable
+        try (DownloadJournal journal = DownloadJournal.open(directory, ACCOUNT)) {
+            assertEquals(30, journal.getEntries().get("c").getSize());
+            assertEquals(3, journal.getEntries().get("c").getChecksum());
+            assertFalse(journal.contains("e"));
+        }
+    }
+
+    public void testRefetchesMessagesThatArentIntact() throws Exception {
+        List<SyntheticMaildrop.Message> messages = new SyntheticMaildrop(3, 2_000, SyntheticMaildrop.Structure.PLAIN).snapshot();
+        FailingSource source = new FailingSource(messages, -1);
+        DirectorySink sink = new DirectorySink(directory.resolve("out"));
+
+        SyncState lost = SyncState.load(directory.resolve("lost"), ACCOUNT);
+        Files.createDirectories(lost.getFile().resolve("blocker"));
+        try (DownloadJournal journal = DownloadJournal.open(directory.resolve("sync"), ACCOUNT)) {
+            new IncrementalSync(source, lost, sink, journal).run();
+            fail("State was saved");
+        } catch (IOException expected) {}
+
+        Files.delete(sink.messageFile(messages.get(0).getUid()));
+        Files.write(sink.messageFile(messages.get(1).getUid()), new byte[]{'x'}, StandardOpenOption.APPEND);
+
+        try (DownloadJournal journal = DownloadJournal.open(directory.resolve("sync"), ACCOUNT)) {
+            assertEquals(3, journal.getEntries().size());
+            assertFalse(journal.isStored(messages.get(0).getUid(), sink));
+            assertFalse(journal.isStored(messages.get(1).getUid(), sink));
+            assertTrue(journal.isStored(messages.get(2).getUid(), sink));
+
+            source.streamed = 0;
+            SyncResult result = new IncrementalSync(source, SyncState.load(directory.resolve("sync"), ACCOUNT), sink, journal).run();
+            assertEquals(List.of(messages.get(0).getUid(), messages.get(1).getUid()), result.getFetchedUids());
+            assertEquals(2, source.streamed);
+        }
+        for (SyntheticMaildrop.Message message : messages)
+            assertTrue(Arrays.equals(message.getRaw(), Files.readAllBytes(sink.messageFile(message.getUid()))));
+    }
+
+    private static int crc(byte[] content) {
+        CRC32C crc = new CRC32C();
+        crc.update(content);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Delivers the messages and loses the connection at one of them.
+     */
+    private static final class FailingSource implements MessageSource {
+        private final List<SyntheticMaildrop.Message> messages;
+        private int failAt;
+        private int streamed;
+
+        FailingSource(List<SyntheticMaildrop.Message> messages, int failAt) {
+            this.messages = messages;
+            this.failAt = failAt;
+        }
+
+        @Override
+        public Map<Integer, String> listUids() {
+            Map<Integer, String> uids = new LinkedHashMap<>();
+            for (int i = 0; i < messages.size(); i++) uids.put(i + 1, messages.get(i).getUid());
+            return uids;
+        }
+
+        @Override
+        public long streamMessage(int messageNumber, OutputStream out) throws IOException {
+            if(messageNumber == failAt) throw new IOException("Lost connection");
+
+            byte[] raw = messages.get(messageNumber - 1).getRaw();
+            out.write(raw);
+            streamed++;
+            return raw.length;
+        }
+    }
+}
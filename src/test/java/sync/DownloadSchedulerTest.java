@@ -0,0 +1,134 @@
+package sync;
+
+import client.MessageSource;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks the order and budgets of {@link DownloadScheduler} and a scheduled {@link IncrementalSync}.
+ */
+public class DownloadSchedulerTest extends TestCase {
+    private static final long[] SIZES = {500, 100, 20_000, 300, 200};
+
+    public void testSmallestFirstWithLargeLane() {
+        DownloadScheduler scheduler = new DownloadScheduler(DownloadScheduler.Policy.SMALLEST_FIRST).largeMessage(10_000);
+
+        assertEquals(List.of(2, 5, 4, 1, 3), scheduler.plan(missing(), sizes()));
+    }
+
+    public void testArrivalKeepsServerOrderWithinBudget() {
+        DownloadScheduler scheduler = new DownloadScheduler(DownloadScheduler.Policy.ARRIVAL).largeMessage(10_000).accountBudget(700);
+
+        //after 500 and 100 bytes neither 300 nor 200 fit anymore
+        assertEquals(List.of(1, 2), scheduler.plan(missing(), sizes()));
+        assertEquals(List.of(2, 5, 4), new DownloadScheduler(DownloadScheduler.Policy.SMALLEST_FIRST)
+                .accountBudget(700).plan(missing(), sizes()));
+    }
+
+    public void testRunBudgetLimitsBytes() throws Exception {
+        ByteBudget budget = new ByteBudget(1_000, false);
+        try (ByteBudget.Share first = budget.join(); ByteBudget.Share second = budget.join()) {
+            assertTrue(first.reserve(600));
+            assertFalse(second.reserve(500));
+            assertTrue(second.reserve(400));
+            assertEquals(1_000, budget.getUsed());
+        }
+    }
+
+    public void testFairBudgetWaitsForOtherAccount() throws Exception {
+        ByteBudget budget = new ByteBudget(Long.MAX_VALUE, true);
+        ByteBudget.Share ahead = budget.join();
+        ByteBudget.Share behind = budget.join();
+        assertTrue(ahead.reserve(1_000));
+
+        CountDownLatch reserved = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            try {
+                ahead.reserve(1_000);
+                reserved.countDown();
+            } catch (IOException ignored) {}
+        });
+        thread.start();
+
+        assertFalse(reserved.await(200, TimeUnit.MILLISECONDS));
+        behind.close();
+        assertTrue(reserved.await(5, TimeUnit.SECONDS));
+        ahead.close();
+        thread.join();
+    }
+
+    public void testSyncFollowsPlanAndDefersRest() throws Exception {
+        Path directory = Files.createTempDirectory("scheduler");
+        FakeSource source = new FakeSource();
+        DownloadScheduler scheduler = new DownloadScheduler(DownloadScheduler.Policy.SMALLEST_FIRST).largeMessage(10_000).runBudget(1_000);
+
+        SyncResult result = new IncrementalSync(source, SyncState.load(directory, "user@localhost:110"),
+                new DirectorySink(directory.resolve("out"))).schedule(scheduler).run();
+
+        //100 + 200 + 300 fit into the run budget, 500 and the large message don't
+        assertEquals(List.of(2, 5, 4), source.fetched);
+        assertEquals(3, result.getFetched());
+        assertEquals(2, result.getDeferred());
+        assertEquals(600, result.getBytes());
+
+        SyncResult next = new IncrementalSync(source, SyncState.load(directory, "user@localhost:110"),
+                new DirectorySink(directory.resolve("out"))).run();
+        assertEquals(2, next.getFetched());
+        assertEquals(0, next.getDeferred());
+    }
+
+    public void testPolicyParse() {
+        assertEquals(DownloadScheduler.Policy.ROUND_ROBIN, DownloadScheduler.Policy.parse("round-robin"));
+        try {
+            DownloadScheduler.Policy.parse("largest");
+            fail("Unknown policy accepted");
+        } catch (IllegalArgumentException expected) {}
+    }
+
+    private static Map<Integer, String> missing() {
+        Map<Integer, String> missing = new LinkedHashMap<>();
+        for (int i = 1; i <= SIZES.length; i++) missing.put(i, "uid" + i);
+        return missing;
+    }
+
+    private static Map<Integer, Long> sizes() {
+        Map<Integer, Long> sizes = new LinkedHashMap<>();
+        for (int i = 1; i <= SIZES.length; i++) sizes.put(i, SIZES[i - 1]);
+        return sizes;
+    }
+
+    /**
+     * Delivers messages of the listed sizes and records the fetch order.
+     */
+    private static final class FakeSource implements MessageSource {
+        private final List<Integer> fetched = new ArrayList<>();
+
+        @Override
+        public Map<Integer, String> listUids() {
+            return missing();
+        }
+
+        @Override
+        public Map<Integer, Long> listSizes() {
+            return sizes();
+        }
+
+        @Override
+        public long streamMessage(int messageNumber, OutputStream out) throws IOException {
+            int size = (int) SIZES[messageNumber - 1];
+            out.write(new byte[size]);
+            fetched.add(messageNumber);
+            return size;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package sync;
+
+import junit.framework.TestCase;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Checks which messages the retention policies choose.
+ */
+public class RetentionPolicyTest extends TestCase {
+    private static final Instant NOW = Instant.parse("2024-06-01T00:00:00Z");
+
+    private static List<RetentionPolicy.Entry> maildrop() {
+        return List.of(
+                new RetentionPolicy.Entry(1, "a", 400, NOW.minus(Duration.ofDays(40)), true),
+                new RetentionPolicy.Entry(2, "b", 300, NOW.minus(Duration.ofDays(20)), false),
+                new RetentionPolicy.Entry(3, "c", 200, NOW.minus(Duration.ofDays(10)), true),
+                new RetentionPolicy.Entry(4, "d", 100, null, true));
+    }
+
+    private static List<String> select(RetentionPolicy policy) {
+        return policy.select(maildrop(), NOW).stream().map(RetentionPolicy.Entry::getUid).toList();
+    }
+
+    public void testOnlyStoredMessagesAreChosen() {
+        assertEquals(List.of("a", "c", "d"), select(RetentionPolicy.parse("stored")));
+        assertEquals(List.of("a"), select(RetentionPolicy.parse("days:30")));
+        assertEquals(List.of("a", "c"), select(RetentionPolicy.parse("days:5")));
+
+        //the unstored message alone stays above the limit
+        assertEquals(List.of("a"), select(RetentionPolicy.keepUnder(600)));
+        assertEquals(List.of("a", "c", "d"), select(RetentionPolicy.keepUnder(0)));
+        assertEquals(List.of(), select(RetentionPolicy.keepUnder(1_000)));
+    }
+
+    public void testRejectsMalformedSpec() {
+        for (String spec : new String[]{"", "days", "days:x", "mb:-1", "weeks:2"}) {
+            try {
+                RetentionPolicy.parse(spec);
+                fail(spec);
+            } catch (IllegalArgumentException expected) {}
+        }
+    }
+}
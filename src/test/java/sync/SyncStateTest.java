@@ -0,0 +1,41 @@
+package sync;
+
+import junit.framework.TestCase;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Checks that account names and uids map to distinct files.
+ */
+public class SyncStateTest extends TestCase {
+
+    public void testSafeNamesDontCollide() {
+        assertFalse(SyncState.safeName("a+b@host:110").equals(SyncState.safeName("a_b@host:110")));
+        assertFalse(SyncState.safeName("x/1").equals(SyncState.safeName("x+1")));
+        assertFalse(SyncState.safeName("Abc").equalsIgnoreCase(SyncState.safeName("abc")));
+        assertEquals("a%2Bb%40host%3A110", SyncState.safeName("a+b@host:110"));
+        assertEquals("%2E.", SyncState.safeName(".."));
+    }
+
+    public void testSinkKeepsMessagesOfSimilarUids() throws Exception {
+        DirectorySink sink = new DirectorySink(Files.createTempDirectory("sink"));
+        store(sink, "x+1", "first");
+        store(sink, "x/1", "second");
+        store(sink, "x+1", "again");
+
+        assertEquals("first", Files.readString(sink.messageFile("x+1")));
+        assertEquals("second", Files.readString(sink.messageFile("x/1")));
+        try (var files = Files.list(sink.messageFile("x+1").getParent())) {
+            assertEquals(2, files.count());
+        }
+    }
+
+    private static void store(DirectorySink sink, String uid, String content) throws Exception {
+        try (OutputStream out = sink.open(uid)) {
+            out.write(content.getBytes(StandardCharsets.US_ASCII));
+        }
+        sink.commit(uid, content.length());
+    }
+}